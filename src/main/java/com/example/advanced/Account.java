@@ -1,12 +1,21 @@
 package com.example.advanced;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 public class Account {
     private final int accountId;
     public int getAccountId() {
         return accountId;
     }
 
-    private int balance;
+    private volatile int balance;
+
+    // Balance as it was when epoch preImageEpoch began; see SnapshotEpochs
+    private int preImage;
+    private volatile long preImageEpoch;
+
+    // Bank locks accounts through this rather than the monitor so a batch can hold any number of them
+    private final ReentrantLock lock = new ReentrantLock();
 
     public Account(int accountId, int balance) {
         this.accountId = accountId;
@@ -19,10 +28,18 @@ public class Account {
     }
 
     public void withdraw(int amount) throws Exception{
-        if(balance < amount){
+        if(!tryWithdraw(amount)){
             throw new Exception("Not Sufficient Balance");
         }
+    }
+
+    // Same as withdraw, but reports insufficient funds without allocating an exception
+    public boolean tryWithdraw(int amount){
+        if(balance < amount){
+            return false;
+        }
         this.balance -= amount;
+        return true;
     }
 
     public void deposit(int amount){
@@ -32,4 +49,22 @@ public class Account {
     public int getBalance() {
         return this.balance;
     }
+
+    ReentrantLock lock() {
+        return lock;
+    }
+
+    // Called under the account lock before the first change made in the given epoch
+    void preserveFor(long epoch) {
+        if (preImageEpoch != epoch) {
+            preImage = balance;
+            preImageEpoch = epoch;
+        }
+    }
+
+    // Balance as of the start of the given epoch; valid while that epoch's snapshot is open
+    int balanceAt(long epoch) {
+        int current = balance;
+        return preImageEpoch == epoch ? preImage : current;
+    }
 }
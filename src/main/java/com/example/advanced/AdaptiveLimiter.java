@@ -0,0 +1,246 @@
+package com.example.advanced;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A concurrency limit that adjusts itself from the latency of the work it admits, in place of a
+ * permit count picked by hand. tryAcquire() admits a caller while fewer than getLimit() permits
+ * are out and otherwise rejects at once, so excess load is shed instead of queued. Each
+ * Permit.release() reports the time the permit was held.
+ *
+ * Samples are gathered into windows of at least WINDOW_NANOS and MIN_SAMPLES. At the end of each
+ * window the algorithm sees the average and minimum latency, the peak number of permits out and
+ * whether any permit was dropped, and it moves the limit:
+ * - AIMD: grows by 1 per window while latency stays within TOLERANCE of the no-load latency,
+ *   and shrinks by 10% when it does not or a permit was dropped;
+ * - GRADIENT: multiplies the limit by the ratio of long-term to current latency, clamped to
+ *   [0.5, 1] after a 1.5x tolerance, and adds sqrt(limit) of headroom; smoothed at 20% a window.
+ *   It reacts to latency rising against its own recent history, so it contains a sudden
+ *   slowdown but drifts up under sustained overload, as the long-term latency catches up;
+ * - VEGAS: estimates the queue as limit * (1 - noLoad / latency) and, with step =
+ *   max(1, log10(limit)), grows by a step while it is under 3 steps and shrinks by one once it
+ *   passes 6.
+ * AIMD and VEGAS use the lowest latency seen as the no-load latency. Every PROBE_WINDOWS windows
+ * they re-measure it, as BBR's ProbeRTT does: the limit drops to a quarter for one window to
+ * drain the queue, and the next window's minimum becomes the new no-load latency. Simply
+ * forgetting the minimum would take it from a loaded window and let the limit ratchet up. No
+ * algorithm grows the limit while less than half of it is in use.
+ */
+public class AdaptiveLimiter {
+    public enum Algorithm {
+        AIMD, GRADIENT, VEGAS
+    }
+
+    private static final long WINDOW_NANOS = 50_000_000L;
+    private static final int MIN_SAMPLES = 10;
+    private static final int PROBE_WINDOWS = 20;
+    private static final double TOLERANCE = 2.0;
+    private static final double GRADIENT_TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final int LONG_WINDOWS = 20;
+
+    private static final int NOT_PROBING = 0;
+    private static final int DRAINING = 1;
+    private static final int MEASURING = 2;
+
+    private final Algorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+
+    // Guarded by this
+    private double estimatedLimit;
+    private long windowStart = System.nanoTime();
+    private int windowSamples;
+    private long windowSum;
+    private long windowMin = Long.MAX_VALUE;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+    private long noLoadRtt;
+    private int windowsSinceProbe;
+    private int probe = NOT_PROBING;
+    private double longRtt;
+
+    public AdaptiveLimiter(Algorithm algorithm, int initialLimit, int maxLimit) {
+        this(algorithm, initialLimit, 1, maxLimit);
+    }
+
+    public AdaptiveLimiter(Algorithm algorithm, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Need 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        this.algorithm = algorithm;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    /*
+     * A permit, or null when the limit is reached.
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                admitted.increment();
+                return new Permit(this, current + 1);
+            }
+        }
+    }
+
+    /*
+     * One admitted unit of work; release it exactly once, whichever way the work ended.
+     */
+    public static final class Permit {
+        private final AdaptiveLimiter limiter;
+        private final int inFlightAtStart;
+        private final long start = System.nanoTime();
+        private boolean released;
+
+        Permit(AdaptiveLimiter limiter, int inFlightAtStart) {
+            this.limiter = limiter;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /*
+         * The work completed; its latency counts as a sample.
+         */
+        public void release() {
+            finish(true, false);
+        }
+
+        /*
+         * The work failed from overload (e.g. it timed out): a strong signal to back off.
+         */
+        public void drop() {
+            finish(true, true);
+        }
+
+        /*
+         * The work ended without saying anything about load (e.g. it was cancelled).
+         */
+        public void ignore() {
+            finish(false, false);
+        }
+
+        private void finish(boolean sample, boolean dropped) {
+            if (released) {
+                return;
+            }
+            released = true;
+            limiter.inFlight.decrementAndGet();
+            if (sample) {
+                limiter.onSample(System.nanoTime() - start, inFlightAtStart, dropped);
+            }
+        }
+    }
+
+    private synchronized void onSample(long rtt, int inFlightAtStart, boolean dropped) {
+        windowSamples++;
+        windowSum += rtt;
+        windowMin = Math.min(windowMin, rtt);
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtStart);
+        windowDropped |= dropped;
+        long now = System.nanoTime();
+        if (now - windowStart < WINDOW_NANOS || (windowSamples < MIN_SAMPLES && !windowDropped)) {
+            return;
+        }
+
+        if (probe == DRAINING) {
+            probe = MEASURING;
+            startWindow(now);
+            return;
+        }
+        if (probe == MEASURING) {
+            probe = NOT_PROBING;
+            noLoadRtt = windowMin;
+            limit = (int) Math.round(estimatedLimit);
+            startWindow(now);
+            return;
+        }
+        if (noLoadRtt == 0 || windowMin < noLoadRtt) {
+            noLoadRtt = windowMin;
+        }
+        double averageRtt = (double) windowSum / windowSamples;
+        boolean usingLimit = windowMaxInFlight * 2 >= estimatedLimit;
+        switch (algorithm) {
+            case AIMD:
+                if (windowDropped || averageRtt > TOLERANCE * noLoadRtt) {
+                    estimatedLimit *= 0.9;
+                } else if (usingLimit) {
+                    estimatedLimit += 1;
+                }
+                break;
+            case GRADIENT:
+                longRtt = longRtt == 0 ? averageRtt : longRtt + (averageRtt - longRtt) / LONG_WINDOWS;
+                // Recover faster once a slowdown is over, so the baseline does not stay inflated
+                if (longRtt / averageRtt > 2) {
+                    longRtt *= 0.95;
+                }
+                if (usingLimit || windowDropped) {
+                    double gradient = Math.max(0.5, Math.min(1.0, GRADIENT_TOLERANCE * longRtt / averageRtt));
+                    double next = windowDropped ? estimatedLimit * 0.5
+                            : estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+                    estimatedLimit = estimatedLimit * (1 - SMOOTHING) + next * SMOOTHING;
+                }
+                break;
+            case VEGAS:
+                double step = Math.max(1, Math.log10(estimatedLimit));
+                double queue = estimatedLimit * (1 - noLoadRtt / averageRtt);
+                if (windowDropped || queue > 6 * step) {
+                    estimatedLimit -= step;
+                } else if (queue < 3 * step && usingLimit) {
+                    estimatedLimit += step;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown algorithm " + algorithm);
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+        limit = (int) Math.round(estimatedLimit);
+        if (algorithm != Algorithm.GRADIENT && ++windowsSinceProbe >= PROBE_WINDOWS) {
+            windowsSinceProbe = 0;
+            probe = DRAINING;
+            limit = Math.max(minLimit, limit / 4);
+        }
+        startWindow(now);
+    }
+
+    private void startWindow(long now) {
+        windowStart = now;
+        windowSamples = 0;
+        windowSum = 0;
+        windowMin = Long.MAX_VALUE;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
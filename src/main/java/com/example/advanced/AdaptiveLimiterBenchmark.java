@@ -0,0 +1,162 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * SemaphoreWorker-style workers (acquire, use the resource, release, repeat) against a backend
+ * whose service time changes mid-run, comparing the hand-picked Semaphore(5) of Task 4 with
+ * ResourcePool in adaptive mode under each AdaptiveLimiter algorithm.
+ *
+ * The backend serves `capacity` requests in parallel at `base` ms each; past that, requests
+ * share it and each takes base * inFlight / capacity. The run goes through three phases:
+ *   normal:   capacity 8,  10 ms
+ *   degraded: capacity 3,  20 ms  (5 permits are now too many)
+ *   scaled:   capacity 16,  5 ms  (5 permits now leave most of it idle)
+ * Latency is measured from the worker asking for a resource to releasing it, so it includes
+ * time queued for a permit. A shed worker backs off for BACKOFF_MILLIS and asks again; shed/sec
+ * counts those rejections. The limit column is the adaptive limit at the end of each phase.
+ *
+ * Usage: AdaptiveLimiterBenchmark [workers] [secondsPerPhase]
+ */
+public class AdaptiveLimiterBenchmark {
+    private static final int STATIC_PERMITS = 5;
+    private static final long BACKOFF_MILLIS = 5;
+    private static final String[] PHASES = {"normal", "degraded", "scaled"};
+    private static final int[] CAPACITY = {8, 3, 16};
+    private static final long[] BASE_MILLIS = {10, 20, 5};
+
+    private static final class Backend {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile int capacity;
+        private volatile long baseNanos;
+
+        void serve() {
+            int sharing = inFlight.incrementAndGet();
+            try {
+                long nanos = (long) (baseNanos * Math.max(1.0, (double) sharing / capacity));
+                long deadline = System.nanoTime() + nanos;
+                for (long left = nanos; left > 0; left = deadline - System.nanoTime()) {
+                    LockSupport.parkNanos(left);
+                }
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private interface Gate {
+        /*
+         * Serves one request through the backend; returns false if it was shed.
+         */
+        boolean call(Backend backend) throws InterruptedException;
+
+        default String limit() {
+            return "-";
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 48;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        System.out.printf("%d workers, %d s per phase, static gate = Semaphore(%d)%n", workers, seconds,
+                STATIC_PERMITS);
+        System.out.printf("%-10s %-9s %12s %10s %10s %10s %7s%n", "gate", "phase", "completed/s", "p50 ms",
+                "p99 ms", "shed/s", "limit");
+
+        Semaphore semaphore = new Semaphore(STATIC_PERMITS);
+        run("static", new Gate() {
+            @Override
+            public boolean call(Backend backend) throws InterruptedException {
+                semaphore.acquire();
+                try {
+                    backend.serve();
+                } finally {
+                    semaphore.release();
+                }
+                return true;
+            }
+        }, workers, seconds);
+
+        for (AdaptiveLimiter.Algorithm algorithm : AdaptiveLimiter.Algorithm.values()) {
+            AdaptiveLimiter limiter = new AdaptiveLimiter(algorithm, STATIC_PERMITS, 64);
+            ResourcePool<Object> pool = new ResourcePool<>(Object::new, 64, 64).limitWith(limiter);
+            run(algorithm.name(), new Gate() {
+                @Override
+                public boolean call(Backend backend) throws InterruptedException {
+                    Lease<Object> lease = pool.tryAcquire(1, TimeUnit.SECONDS);
+                    if (lease == null) {
+                        return false;
+                    }
+                    try (lease) {
+                        backend.serve();
+                    }
+                    return true;
+                }
+
+                @Override
+                public String limit() {
+                    return String.valueOf(limiter.getLimit());
+                }
+            }, workers, seconds);
+            pool.close();
+        }
+    }
+
+    private static void run(String name, Gate gate, int workers, int seconds) throws InterruptedException {
+        Backend backend = new Backend();
+        LatencyHistogram[] latency = new LatencyHistogram[PHASES.length];
+        LongAdder[] completed = new LongAdder[PHASES.length];
+        LongAdder[] shed = new LongAdder[PHASES.length];
+        for (int p = 0; p < PHASES.length; p++) {
+            latency[p] = new LatencyHistogram();
+            completed[p] = new LongAdder();
+            shed[p] = new LongAdder();
+        }
+        AtomicInteger current = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int p = current.get(); p < PHASES.length; p = current.get()) {
+                        long begin = System.nanoTime();
+                        if (gate.call(backend)) {
+                            // Attributed to the phase it started in
+                            latency[p].record(System.nanoTime() - begin);
+                            completed[p].increment();
+                        } else {
+                            shed[p].increment();
+                            Thread.sleep(BACKOFF_MILLIS);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (int p = 0; p < PHASES.length; p++) {
+            backend.capacity = CAPACITY[p];
+            backend.baseNanos = TimeUnit.MILLISECONDS.toNanos(BASE_MILLIS[p]);
+            current.set(p);
+            start.countDown();
+            Thread.sleep(seconds * 1_000L);
+            System.out.printf("%-10s %-9s %,12.0f %10.1f %10.1f %,10.0f %7s%n", p == 0 ? name : "", PHASES[p],
+                    completed[p].sum() / (double) seconds, latency[p].valueAtPercentile(50) / 1e6,
+                    latency[p].valueAtPercentile(99) / 1e6, shed[p].sum() / (double) seconds, gate.limit());
+        }
+        current.set(PHASES.length);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
@@ -1,33 +1,140 @@
 package com.example.advanced;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class AdvancedConsumer implements Runnable {
-    private final BlockingQueue<String> queue;
-    private final String poisonPill;
+    private final Input input;
 
-    public AdvancedConsumer(BlockingQueue<String> queue, String poisonPill) {
-        this.queue = queue;
-        this.poisonPill = poisonPill;
+    /*
+     * Where items come from and how the end of the stream is detected; one implementation per
+     * pipeline style.
+     */
+    private interface Input {
+        void consume() throws InterruptedException;
+    }
+
+    public AdvancedConsumer(BlockingQueue<Long> queue, long poisonPill) {
+        this(queue, poisonPill, 1, 0);
+    }
+
+    /*
+     * Batch mode: each wakeup drains up to batchSize items with one drainTo (one lock
+     * acquisition) and waits at most maxLatencyMillis after the first item for the batch to fill.
+     */
+    public AdvancedConsumer(BlockingQueue<Long> queue, long poisonPill, int batchSize, long maxLatencyMillis) {
+        this.input = batchSize > 1 ? new BatchedQueueInput(queue, poisonPill, batchSize, maxLatencyMillis)
+                : new QueueInput(queue, poisonPill);
+    }
+
+    /*
+     * Drains the coordinator's queue and stops once every producer is done and nothing is left.
+     */
+    public AdvancedConsumer(PipelineCoordinator<Long> coordinator) {
+        this.input = new CoordinatorInput(coordinator);
     }
 
     @Override
     public void run() {
         try {
+            input.consume();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // IDs travel as longs; they are formatted only here, for the log line
+    private static void process(long id) throws InterruptedException {
+        System.out.println(Thread.currentThread().getName() + " consumed: " + IdGenerator.format(id));
+        Thread.sleep(100);
+    }
+
+    private static final class QueueInput implements Input {
+        private final BlockingQueue<Long> queue;
+        private final long poisonPill;
+
+        QueueInput(BlockingQueue<Long> queue, long poisonPill) {
+            this.queue = queue;
+            this.poisonPill = poisonPill;
+        }
+
+        @Override
+        public void consume() throws InterruptedException {
             while (true) {
-                String item = queue.take();
+                long item = queue.take();
 
-                if (poisonPill.equals(item)) {
+                if (item == poisonPill) {
                     queue.put(poisonPill);
                     System.out.println(Thread.currentThread().getName() + " received POISON_PILL (stopping)");
-                    break;
+                    return;
                 }
 
-                System.out.println(Thread.currentThread().getName() + " consumed: " + item);
-                Thread.sleep(100);
+                process(item);
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class BatchedQueueInput implements Input {
+        private final BlockingQueue<Long> queue;
+        private final long poisonPill;
+        private final int batchSize;
+        private final long maxLatencyMillis;
+
+        BatchedQueueInput(BlockingQueue<Long> queue, long poisonPill, int batchSize, long maxLatencyMillis) {
+            this.queue = queue;
+            this.poisonPill = poisonPill;
+            this.batchSize = batchSize;
+            this.maxLatencyMillis = maxLatencyMillis;
+        }
+
+        @Override
+        public void consume() throws InterruptedException {
+            List<Long> batch = new ArrayList<>(batchSize);
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - batch.size());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+                while (batch.size() < batchSize && !batch.contains(poisonPill)) {
+                    Long next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+
+                int pill = batch.indexOf(poisonPill);
+                int end = pill < 0 ? batch.size() : pill;
+                for (int i = 0; i < end; i++) {
+                    process(batch.get(i));
+                }
+                if (pill >= 0) {
+                    // Items drained past the pill belong to the other consumers
+                    for (int i = pill + 1; i < batch.size(); i++) {
+                        queue.put(batch.get(i));
+                    }
+                    queue.put(poisonPill);
+                    System.out.println(Thread.currentThread().getName() + " received POISON_PILL (stopping)");
+                    return;
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private static final class CoordinatorInput implements Input {
+        private final PipelineCoordinator<Long> coordinator;
+
+        CoordinatorInput(PipelineCoordinator<Long> coordinator) {
+            this.coordinator = coordinator;
+        }
+
+        @Override
+        public void consume() throws InterruptedException {
+            coordinator.consume(AdvancedConsumer::process);
+            System.out.println(Thread.currentThread().getName() + " drained (stopping)");
         }
     }
 }
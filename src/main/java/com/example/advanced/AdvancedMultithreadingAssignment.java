@@ -1,6 +1,7 @@
 package com.example.advanced;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.time.LocalDateTime;
@@ -125,6 +126,8 @@ import java.util.*;
  */
 
 public class AdvancedMultithreadingAssignment {
+    // Threads for the tasks' workers: -DexecutionMode=PLATFORM|FIXED_POOL|VIRTUAL
+    private static final ExecutionMode MODE = ExecutionMode.fromProperty();
 
     // ===== TASK 1: Bank Account Transfer with Deadlock Prevention =====
     // TODO: Implement Account class
@@ -195,7 +198,13 @@ public class AdvancedMultithreadingAssignment {
     }
 
     private static void runTask1() {
-        Bank bank = new Bank();
+        // The same run and conservation check on both transfer engines
+        runTransfers("account locks", new Bank());
+        runTransfers("ledger", new Bank(true, new Ledger(10)));
+    }
+
+    private static void runTransfers(String engine, Bank bank) {
+        System.out.println("--- Engine: " + engine + " ---");
         for (int i = 1; i <= 10; i++) {
             Account account = new Account(i, 1000);
             bank.addAccount(account);
@@ -205,38 +214,33 @@ public class AdvancedMultithreadingAssignment {
         System.out.println("Starting 5 threads with 20 random transfers each...\n");
 
         // 5 threads doing 20 random transactions from account id 1-10
-        List<Thread> threads = new ArrayList<>();
         Random rand = new Random();
         long startTime = System.currentTimeMillis();
 
-        for (int i = 0; i < 5; i++) {
-            Thread t = new Thread(() -> {
-                for (int j = 0; j < 20; j++) {
-                    int fromId = rand.nextInt(10) + 1;
-                    int toId = rand.nextInt(10) + 1;
-                    while (toId == fromId) {
-                        toId = rand.nextInt(10) + 1;
+        try (TaskRunner runner = MODE.newRunner(5)) {
+            for (int i = 0; i < 5; i++) {
+                runner.start("Transfer-" + i, () -> {
+                    for (int j = 0; j < 20; j++) {
+                        int fromId = rand.nextInt(10) + 1;
+                        int toId = rand.nextInt(10) + 1;
+                        while (toId == fromId) {
+                            toId = rand.nextInt(10) + 1;
+                        }
+                        int amount = rand.nextInt(200) + 1;
+                        bank.transfer(fromId, toId, amount);
                     }
-                    int amount = rand.nextInt(200) + 1;
-                    bank.transfer(fromId, toId, amount);
-                }
-            });
-            threads.add(t);
-            t.start();
-        }
-
-        // Wait for all threads to complete
-        for (Thread t : threads) {
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                });
             }
+
+            // Wait for all threads to complete
+            runner.joinAll();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
 
         long endTime = System.currentTimeMillis();
 
-        System.out.println("\n=== TASK 1 RESULTS ===");
+        System.out.println("\n=== TASK 1 RESULTS (" + engine + ") ===");
         System.out.println("All transfers completed!");
         System.out.println("Time taken: " + (endTime - startTime) + " ms");
         System.out.println("Final total balance: $" + bank.getTotalBalance());
@@ -252,57 +256,73 @@ public class AdvancedMultithreadingAssignment {
 
     private static void runTask2() {
         ExecutorService executorService = Executors.newFixedThreadPool(5);
-        IntStream.rangeClosed(1, 20)
-                .boxed()
-                .map(v -> {
-                    return executorService.submit(new UrlFetcher("someurl" + v.toString()));
-                }).map(future -> {
-                    try {
-                        return future.get(400, TimeUnit.MILLISECONDS); // may timeout
-                    } catch (TimeoutException e) {
-                        // handle timeout
-                        return "timeout";
-                    } catch (ExecutionException e) {
-                        // underlying task threw
-                        return "error: " + e.getCause();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        return "interrupted";
-                    }
-                })
-                .forEach(System.out::println);
+        FetchStats stats = new FetchStats();
+        // Results arrive in completion order, so one slow fetch doesn't hold up the rest;
+        // each fetch gets 400 ms from the moment it starts running
+        try (FetchEngine engine = new FetchEngine(executorService, 5, 400)) {
+            IntStream.rangeClosed(1, 20)
+                    .forEach(v -> engine.submitForCompletion(stats.instrument(new UrlFetcher("someurl" + v))));
+            for (int i = 0; i < 20; i++) {
+                System.out.println(describe(engine.take()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         executorService.shutdownNow();
+        try {
+            // Timed-out fetches record their stats as they unwind, so let them finish first
+            executorService.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
+        FetchStats.Snapshot summary = stats.snapshot();
+        System.out.println("\n=== TASK 2 RESULTS ===");
+        System.out.println("Total bytes downloaded: " + summary.getBytes());
+        System.out.printf("Average time per request: %.1f ms%n", summary.getAverageMillis());
+        System.out.println(summary);
+    }
+
+    private static String describe(CompletableFuture<String> fetch) {
+        try {
+            return fetch.join();
+        } catch (CancellationException e) {
+            return "cancelled";
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                // handle timeout
+                return "timeout";
+            }
+            // underlying task threw
+            return "error: " + e.getCause();
+        }
     }
 
     private static void runTask3() {
         int numRunners = 4;
+        int numLegs = 3;
         long raceStartTime = System.currentTimeMillis(); // ✅ Global timer
-        long[][] legTimes = new long[numRunners][3]; // ✅ Thread-safe array
+        long[][] legTimes = new long[numRunners][numLegs]; // ✅ Thread-safe array
 
         CountDownLatch raceCompletionLatch = new CountDownLatch(numRunners);
 
-        CyclicBarrier leg1Barrier = new CyclicBarrier(numRunners, () -> printLegRanking(legTimes, 0, 1, "Leg 1")); // Leg
-                                                                                                                   // 0
-                                                                                                                   // in
-                                                                                                                   // array
-
-        CyclicBarrier leg2Barrier = new CyclicBarrier(numRunners, () -> printLegRanking(legTimes, 1, 2, "Leg 2"));
-
-        CyclicBarrier leg3Barrier = new CyclicBarrier(numRunners, () -> printLegRanking(legTimes, 2, 3, "Leg 3"));
+        // One barrier per leg; the barrier action ranks the leg (leg index in array, leg number)
+        List<CyclicBarrier> legBarriers = new ArrayList<>();
+        for (int leg = 0; leg < numLegs; leg++) {
+            int legIndex = leg;
+            legBarriers.add(new CyclicBarrier(numRunners,
+                    () -> printLegRanking(legTimes, legIndex, legIndex + 1, "Leg " + (legIndex + 1))));
+        }
 
-        List<Thread> runners = new ArrayList<>();
         System.out.println("Starting the race with " + numRunners + " runners...\n");
 
-        for (int i = 1; i <= numRunners; i++) {
-            Runner runner = new Runner(Integer.toString(i), raceCompletionLatch,
-                    leg1Barrier, leg2Barrier, leg3Barrier, raceStartTime, legTimes);
-            Thread t = new Thread(runner);
-            runners.add(t);
-            t.start();
-        }
-
-        try {
+        // Runners wait for each other at every barrier, so a FIXED_POOL needs a thread per runner
+        try (TaskRunner runners = MODE.newRunner(numRunners)) {
+            for (int i = 1; i <= numRunners; i++) {
+                Runner runner = new Runner(Integer.toString(i), raceCompletionLatch, legBarriers, raceStartTime,
+                        legTimes);
+                runners.start("Runner-" + i, runner);
+            }
             raceCompletionLatch.await();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -320,7 +340,7 @@ public class AdvancedMultithreadingAssignment {
         long minTime = Long.MAX_VALUE, maxTime = 0;
         int firstRunner = -1, lastRunner = -1;
 
-        for (int r = 0; r < 4; r++) {
+        for (int r = 0; r < legTimes.length; r++) {
             long time = legTimes[r][legIndex];
             if (time < minTime) {
                 minTime = time;
@@ -338,22 +358,20 @@ public class AdvancedMultithreadingAssignment {
     }
 
     private static void runTask4() {
-        ResourcePool resourcePool = new ResourcePool(5);
-        List<Thread> workers = new ArrayList<>();
-
-        for (int i = 1; i <= 10; i++) {
-            Thread worker = new Thread(new SemaphoreWorker(resourcePool, i));
-            worker.start();
-            workers.add(worker);
-        }
-
-        for (Thread w : workers) {
-            try {
-                w.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        // 5 named resources, created up front
+        AtomicInteger resourceIds = new AtomicInteger();
+        ResourcePool<String> resourcePool = new ResourcePool<>(() -> "resource-" + resourceIds.incrementAndGet(), 5, 5)
+                .detectLeaks(1, TimeUnit.SECONDS, 0);
+        try (TaskRunner workers = MODE.newRunner(10)) {
+            for (int i = 1; i <= 10; i++) {
+                workers.start("SemaphoreWorker-" + i, new SemaphoreWorker(resourcePool, i));
             }
+            workers.joinAll();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
+        System.out.println(resourcePool.metrics());
+        resourcePool.close();
     }
 
     private static void runTask5() {
@@ -365,29 +383,21 @@ public class AdvancedMultithreadingAssignment {
             cache.put("key" + i, "init" + i);
         }
 
-        List<Thread> threads = new ArrayList<>();
-
-        // Start 3 writers
-        for (int w = 1; w <= 3; w++) {
-            Thread writer = new Thread(new Writer(cache, w), "Writer-" + w);
-            threads.add(writer);
-            writer.start();
-        }
-
-        // Start 7 readers
-        for (int r = 1; r <= 7; r++) {
-            Thread reader = new Thread(new Reader(cache, r), "Reader-" + r);
-            threads.add(reader);
-            reader.start();
-        }
+        try (TaskRunner runner = MODE.newRunner(10)) {
+            // Start 3 writers
+            for (int w = 1; w <= 3; w++) {
+                runner.start("Writer-" + w, new Writer(cache, w));
+            }
 
-        // Wait for all to finish
-        for (Thread t : threads) {
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            // Start 7 readers
+            for (int r = 1; r <= 7; r++) {
+                runner.start("Reader-" + r, new Reader(cache, r));
             }
+
+            // Wait for all to finish
+            runner.joinAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
         System.out.println("\n=== TASK 5 RESULTS ===");
@@ -395,33 +405,26 @@ public class AdvancedMultithreadingAssignment {
     }
 
     private static void runTask6() {
-        BlockingQueue<String> queue = new LinkedBlockingQueue<>(10);
         final int TOTAL_ITEMS = 30;
-        final String POISON_PILL = "POISON_PILL";
+        // Up to 10 items in flight, as with the old LinkedBlockingQueue(10); producers finishing
+        // is tracked by the coordinator, so no poison pills
+        PipelineCoordinator<Long> coordinator = new PipelineCoordinator<>(3, 10);
 
         long startTime = System.currentTimeMillis();
-        List<Thread> threads = new ArrayList<>();
-
-        // 3 producers
-        for (int i = 1; i <= 3; i++) {
-            Thread producer = new Thread(new AdvancedProducer(queue, TOTAL_ITEMS / 3, POISON_PILL), "Producer-" + i);
-            threads.add(producer);
-            producer.start();
-        }
-
-        // 2 consumers
-        for (int i = 1; i <= 2; i++) {
-            Thread consumer = new Thread(new AdvancedConsumer(queue, POISON_PILL), "Consumer-" + i);
-            threads.add(consumer);
-            consumer.start();
-        }
+        try (TaskRunner runner = MODE.newRunner(5)) {
+            // 3 producers
+            for (int i = 1; i <= 3; i++) {
+                runner.start("Producer-" + i, new AdvancedProducer(coordinator, TOTAL_ITEMS / 3, 1000));
+            }
 
-        for (Thread t : threads) {
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            // 2 consumers
+            for (int i = 1; i <= 2; i++) {
+                runner.start("Consumer-" + i, new AdvancedConsumer(coordinator));
             }
+
+            runner.joinAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
         long endTime = System.currentTimeMillis();
@@ -430,6 +433,8 @@ public class AdvancedMultithreadingAssignment {
         System.out.println("\n=== TASK 6 RESULTS ===");
         System.out.println("Total time: " + duration + " ms");
         System.out.printf("Throughput: %.2f items/second%n", (TOTAL_ITEMS * 1000.0) / duration);
+        System.out.printf("Rejected: %d of %d offers (%.1f%%)%n", coordinator.getRejectedCount(),
+                coordinator.getOfferedCount(), 100 * coordinator.getRejectionRate());
     }
     // private static void runTask7() { }
 }
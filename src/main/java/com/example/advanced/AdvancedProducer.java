@@ -1,33 +1,161 @@
 package com.example.advanced;
 
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class AdvancedProducer implements Runnable {
-    private final BlockingQueue<String> queue;
+    // Shared so producers never hand out the same ID
+    private static final IdGenerator DEFAULT_IDS = IdGenerator.snowflake();
+
+    private final Output output;
     private final int itemsToProduce;
-    private final String poisonPill;
+    private IdGenerator ids = DEFAULT_IDS;
+
+    /*
+     * Where the produced IDs go; one implementation per pipeline style.
+     */
+    private interface Output {
+        void produce(int itemsToProduce, IdGenerator ids) throws InterruptedException;
+
+        // Runs however production ended
+        default void finish() {
+        }
+    }
+
+    public AdvancedProducer(BlockingQueue<Long> queue, int itemsToProduce, long poisonPill) {
+        this(queue, itemsToProduce, poisonPill, 1);
+    }
+
+    /*
+     * Batch mode: items are collected batchSize at a time and put back to back. The queue only
+     * signals a waiting consumer when it goes from empty to non-empty, so a consumer that is
+     * asleep wakes once per batch rather than once per item.
+     */
+    public AdvancedProducer(BlockingQueue<Long> queue, int itemsToProduce, long poisonPill, int batchSize) {
+        this(new QueueOutput(queue, poisonPill, batchSize), itemsToProduce);
+    }
+
+    /*
+     * Publishes straight into the ring's preallocated events. No poison pill is needed: closing
+     * the ring drains it.
+     */
+    public AdvancedProducer(EventRing<ItemEvent> ring, int itemsToProduce) {
+        this(new RingOutput(ring), itemsToProduce);
+    }
+
+    /*
+     * Offers items through the coordinator, giving up on an item after offerTimeoutMillis
+     * without a credit, and tells the coordinator when it is done instead of sending a pill.
+     */
+    public AdvancedProducer(PipelineCoordinator<Long> coordinator, int itemsToProduce, long offerTimeoutMillis) {
+        this(new CoordinatorOutput(coordinator, offerTimeoutMillis), itemsToProduce);
+    }
 
-    public AdvancedProducer(BlockingQueue<String> queue, int itemsToProduce, String poisonPill) {
-        this.queue = queue;
+    private AdvancedProducer(Output output, int itemsToProduce) {
+        this.output = output;
         this.itemsToProduce = itemsToProduce;
-        this.poisonPill = poisonPill;
+    }
+
+    /*
+     * Replaces the ID generator; call before the producer starts.
+     */
+    public AdvancedProducer useIds(IdGenerator ids) {
+        this.ids = ids;
+        return this;
     }
 
     @Override
     public void run() {
         try {
+            output.produce(itemsToProduce, ids);
+            System.out.println(Thread.currentThread().getName() + " finished producing");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            output.finish();
+        }
+    }
+
+    private static final class QueueOutput implements Output {
+        private final BlockingQueue<Long> queue;
+        private final long poisonPill;
+        private final int batchSize;
+
+        QueueOutput(BlockingQueue<Long> queue, long poisonPill, int batchSize) {
+            this.queue = queue;
+            this.poisonPill = poisonPill;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void produce(int itemsToProduce, IdGenerator ids) throws InterruptedException {
+            List<Long> batch = new ArrayList<>(batchSize);
             for (int i = 0; i < itemsToProduce; i++) {
-                String id = "ID-" + Thread.currentThread().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
-                queue.put(id);
-                System.out.println(Thread.currentThread().getName() + " produced: " + id);
+                batch.add(ids.nextId());
+                if (batch.size() == batchSize || i == itemsToProduce - 1) {
+                    for (Long item : batch) {
+                        queue.put(item);
+                        System.out.println(Thread.currentThread().getName() + " produced: " + IdGenerator.format(item));
+                    }
+                    batch.clear();
+                }
                 Thread.sleep(50);
             }
             // Add poison pill to signal end of production
             queue.put(poisonPill);
-            System.out.println(Thread.currentThread().getName() + " finished producing");
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class RingOutput implements Output {
+        private final EventRing<ItemEvent> ring;
+
+        RingOutput(EventRing<ItemEvent> ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public void produce(int itemsToProduce, IdGenerator ids) throws InterruptedException {
+            for (int i = 0; i < itemsToProduce; i++) {
+                // The ID stays a long inside the ring; only the log line formats it
+                long id = ids.nextId();
+                long sequence = ring.next();
+                ring.get(sequence).setId(id);
+                ring.publish(sequence);
+                System.out.println(Thread.currentThread().getName() + " produced: " + IdGenerator.format(id));
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static final class CoordinatorOutput implements Output {
+        private final PipelineCoordinator<Long> coordinator;
+        private final long offerTimeoutMillis;
+
+        CoordinatorOutput(PipelineCoordinator<Long> coordinator, long offerTimeoutMillis) {
+            this.coordinator = coordinator;
+            this.offerTimeoutMillis = offerTimeoutMillis;
+        }
+
+        @Override
+        public void produce(int itemsToProduce, IdGenerator ids) throws InterruptedException {
+            for (int i = 0; i < itemsToProduce; i++) {
+                long id = ids.nextId();
+                if (coordinator.offer(id, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    System.out.println(Thread.currentThread().getName() + " produced: " + IdGenerator.format(id));
+                } else {
+                    System.out.println(Thread.currentThread().getName() + " rejected (no credit): "
+                            + IdGenerator.format(id));
+                }
+                Thread.sleep(50);
+            }
+        }
+
+        // Also when interrupted, so a crashed producer still counts as done
+        @Override
+        public void finish() {
+            coordinator.producerDone();
         }
     }
 }
@@ -1,49 +1,253 @@
 package com.example.advanced;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class Bank {
     private Map<Integer, Account> accounts = new HashMap<>();
+    private final boolean logTransfers;
+    private final SnapshotEpochs epochs = new SnapshotEpochs();
+    private volatile TransferJournal journal;
+    // When set, balances live in the lock-free Ledger instead of the Account objects
+    private final Ledger ledger;
+
+    public Bank() {
+        this(true);
+    }
+
+    public Bank(boolean logTransfers) {
+        this(logTransfers, null);
+    }
+
+    /*
+     * A bank whose transfers run on the given Ledger: CAS on a balance array instead of two
+     * account locks. Accounts' balances are copied into the ledger as they are added, and the
+     * Account objects are not updated after that. Snapshots and the journal rely on the
+     * account locks and are not available in this mode.
+     */
+    public Bank(boolean logTransfers, Ledger ledger) {
+        this.logTransfers = logTransfers;
+        this.ledger = ledger;
+    }
 
     public void addAccount(Account account) {
         accounts.put(account.getAccountId(), account);
+        if (ledger != null) {
+            ledger.addAccount(account);
+        }
+    }
+
+    /*
+     * Set by TransferJournal.open before the bank takes traffic, cleared by its close. Transfers
+     * read the journal inside their epoch, so on detaching, an epoch bump waits out the ones
+     * that may still append to the old journal.
+     */
+    void attachJournal(TransferJournal journal) {
+        if (journal != null && ledger != null) {
+            throw new IllegalStateException("The journal needs the account-lock engine, not a Ledger");
+        }
+        this.journal = journal;
+        if (journal == null && ledger == null) {
+            epochs.beginSnapshot();
+            epochs.endSnapshot();
+        }
     }
 
     public boolean transfer(int fromId, int toId, int amount) {
+        if (ledger != null) {
+            // As in transferBatch: a Ledger slot with no Account behind it must never receive money
+            boolean success = accounts.containsKey(fromId) && accounts.containsKey(toId)
+                    && ledger.transfer(fromId, toId, amount);
+            logTransfer(success, fromId, toId, amount);
+            return success;
+        }
         Account from = accounts.get(fromId);
         Account to = accounts.get(toId);
-        
+
         // Ordered locking: Always lock smaller ID first to prevent deadlock
         Account first = fromId < toId ? from : to;
         Account second = fromId < toId ? to : from;
-        
-        synchronized (first) {
-            synchronized (second) {
+
+        TransferJournal journal = null;
+        long sequence = -1;
+        boolean success;
+        first.lock().lock();
+        try {
+            second.lock().lock();
+            try {
+                long epoch = epochs.enter();
                 try {
-                    from.withdraw(amount);
-                    to.deposit(amount);
-                    System.out.println("Transfer: Account " + fromId + " → Account " + toId + ": $" + amount);
-                    return true;
-                } catch (Exception e) {
-                    System.out.println("Transfer failed: " + e.getMessage());
-                    return false;
+                    journal = this.journal;
+                    from.preserveFor(epoch);
+                    to.preserveFor(epoch);
+                    success = from.tryWithdraw(amount);
+                    if (success) {
+                        to.deposit(amount);
+                        if (journal != null) {
+                            sequence = journal.append(epoch, fromId, toId, amount);
+                        }
+                    }
+                } finally {
+                    epochs.exit(epoch);
                 }
+            } finally {
+                second.lock().unlock();
             }
+        } finally {
+            first.lock().unlock();
+        }
+
+        // Wait for the group commit outside the locks so other transfers keep flowing
+        if (sequence >= 0) {
+            journal.awaitDurable(sequence);
         }
+
+        // Log after both locks are released so console I/O never extends the critical section
+        logTransfer(success, fromId, toId, amount);
+        return success;
     }
-    
+
+    private void logTransfer(boolean success, int fromId, int toId, int amount) {
+        if (logTransfers) {
+            if (success) {
+                System.out.println("Transfer: Account " + fromId + " → Account " + toId + ": $" + amount);
+            } else {
+                System.out.println("Transfer failed: Not Sufficient Balance");
+            }
+        }
+    }
+
+    /*
+     * Applies a batch of transfers in list order while holding every account it touches.
+     * Each account is locked exactly once, in ascending id order, so batches can't deadlock
+     * with each other or with single transfers. Bit i of the result is set when transfer i
+     * succeeded; transfers naming an unknown account fail.
+     *
+     * With a Ledger the transfers are applied one by one, each atomic on its own, and other
+     * transfers may interleave with the batch.
+     */
+    public BitSet transferBatch(List<Transfer> batch) {
+        if (ledger != null) {
+            BitSet results = new BitSet(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Transfer transfer = batch.get(i);
+                if (accounts.containsKey(transfer.getFromId()) && accounts.containsKey(transfer.getToId())
+                        && ledger.transfer(transfer.getFromId(), transfer.getToId(), transfer.getAmount())) {
+                    results.set(i);
+                }
+            }
+            if (logTransfers) {
+                System.out.println("Batch: " + results.cardinality() + "/" + batch.size() + " transfers applied");
+            }
+            return results;
+        }
+        TransferJournal journal = null;
+        long lastSequence = -1;
+        BitSet results = new BitSet(batch.size());
+        Account[] locked = lockAccountsInOrder(batch);
+        try {
+            long epoch = epochs.enter();
+            try {
+                journal = this.journal;
+                for (Account account : locked) {
+                    account.preserveFor(epoch);
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    Transfer transfer = batch.get(i);
+                    Account from = accounts.get(transfer.getFromId());
+                    Account to = accounts.get(transfer.getToId());
+                    if (from != null && to != null && from.tryWithdraw(transfer.getAmount())) {
+                        to.deposit(transfer.getAmount());
+                        results.set(i);
+                        if (journal != null) {
+                            lastSequence = journal.append(epoch, transfer.getFromId(), transfer.getToId(),
+                                    transfer.getAmount());
+                        }
+                    }
+                }
+            } finally {
+                epochs.exit(epoch);
+            }
+        } finally {
+            for (int i = locked.length - 1; i >= 0; i--) {
+                locked[i].lock().unlock();
+            }
+        }
+
+        if (lastSequence >= 0) {
+            journal.awaitDurable(lastSequence);
+        }
+
+        if (logTransfers) {
+            System.out.println("Batch: " + results.cardinality() + "/" + batch.size() + " transfers applied");
+        }
+        return results;
+    }
+
+    private Account[] lockAccountsInOrder(List<Transfer> batch) {
+        int[] ids = new int[batch.size() * 2];
+        for (int i = 0; i < batch.size(); i++) {
+            ids[2 * i] = batch.get(i).getFromId();
+            ids[2 * i + 1] = batch.get(i).getToId();
+        }
+        Arrays.sort(ids);
+
+        Account[] locked = new Account[ids.length];
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0 && ids[i] == ids[i - 1]) {
+                continue;
+            }
+            Account account = accounts.get(ids[i]);
+            if (account != null) {
+                account.lock().lock();
+                locked[count++] = account;
+            }
+        }
+        return Arrays.copyOf(locked, count);
+    }
+
+    /*
+     * Consistent point-in-time view of all balances, taken while transfers keep running.
+     * Costs one pass over the accounts plus waiting out the transfers already in flight;
+     * writers are never blocked. Accounts must not be added concurrently. Not available with a
+     * Ledger.
+     */
+    public BankSnapshot snapshot() {
+        if (ledger != null) {
+            throw new IllegalStateException("Snapshots need the account-lock engine, not a Ledger");
+        }
+        long epoch = epochs.beginSnapshot();
+        try {
+            int[] ids = new int[accounts.size()];
+            long[] balances = new long[ids.length];
+            int i = 0;
+            for (Account account : accounts.values()) {
+                ids[i] = account.getAccountId();
+                balances[i] = account.balanceAt(epoch);
+                i++;
+            }
+            return new BankSnapshot(epoch, ids, balances);
+        } finally {
+            epochs.endSnapshot();
+        }
+    }
+
     public int getTotalBalance() {
-        int total = 0;
-        for (Account account : accounts.values()) {
-            total += account.getBalance();
+        if (ledger != null) {
+            // Exact once transfers have quiesced, as runTask1 checks it
+            return (int) ledger.getTotalBalance();
         }
-        return total;
+        return (int) snapshot().getTotalBalance();
     }
-    
+
     public void printAccountBalances() {
         for (Account account : accounts.values()) {
-            System.out.println("Account " + account.getAccountId() + ": $" + account.getBalance());
+            long balance = ledger != null ? ledger.getBalance(account.getAccountId()) : account.getBalance();
+            System.out.println("Account " + account.getAccountId() + ": $" + balance);
         }
     }
 
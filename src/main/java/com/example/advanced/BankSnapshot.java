@@ -0,0 +1,40 @@
+package com.example.advanced;
+
+/*
+ * Point-in-time view of every balance in a Bank, taken by Bank.snapshot().
+ */
+public class BankSnapshot {
+    private final long epoch;
+    private final int[] accountIds;
+    private final long[] balances;
+
+    BankSnapshot(long epoch, int[] accountIds, long[] balances) {
+        this.epoch = epoch;
+        this.accountIds = accountIds;
+        this.balances = balances;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int size() {
+        return accountIds.length;
+    }
+
+    public int getAccountId(int index) {
+        return accountIds[index];
+    }
+
+    public long getBalance(int index) {
+        return balances[index];
+    }
+
+    public long getTotalBalance() {
+        long total = 0;
+        for (long balance : balances) {
+            total += balance;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Stress check for Bank.snapshot(): writer threads run single and batched transfers flat out
+ * while an auditor takes snapshots back to back. Every snapshot must add up to the conserved
+ * total. A naive unlocked sum over the same accounts is shown for contrast.
+ *
+ * Usage: BankSnapshotStress [writers] [accounts] [seconds]
+ */
+public class BankSnapshotStress {
+    private static final int INITIAL_BALANCE = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int accountCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Bank bank = new Bank(false);
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 1; i <= accountCount; i++) {
+            Account account = new Account(i, INITIAL_BALANCE);
+            accounts.add(account);
+            bank.addAccount(account);
+        }
+        long expected = (long) accountCount * INITIAL_BALANCE;
+
+        LongAdder transfers = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int w = 0; w < writers; w++) {
+            Thread writer = new Thread(() -> {
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                List<Transfer> batch = new ArrayList<>();
+                while (System.nanoTime() < deadline) {
+                    int fromId = rand.nextInt(accountCount) + 1;
+                    int toId = rand.nextInt(accountCount) + 1;
+                    int amount = rand.nextInt(200) + 1;
+                    if (rand.nextInt(8) == 0) {
+                        batch.add(new Transfer(fromId, toId, amount));
+                        if (batch.size() == 16) {
+                            bank.transferBatch(batch);
+                            transfers.add(batch.size());
+                            batch.clear();
+                        }
+                    } else if (fromId != toId) {
+                        bank.transfer(fromId, toId, amount);
+                        transfers.increment();
+                    }
+                }
+            }, "Writer-" + w);
+            threads.add(writer);
+            writer.start();
+        }
+
+        long audits = 0, snapshotMismatches = 0, naiveMismatches = 0, auditNanos = 0;
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            BankSnapshot snapshot = bank.snapshot();
+            auditNanos += System.nanoTime() - start;
+            audits++;
+            if (snapshot.getTotalBalance() != expected) {
+                snapshotMismatches++;
+            }
+
+            long naive = 0;
+            for (Account account : accounts) {
+                naive += account.getBalance();
+            }
+            if (naive != expected) {
+                naiveMismatches++;
+            }
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        System.out.println("=== SNAPSHOT STRESS RESULTS ===");
+        System.out.printf("Writers: %d, accounts: %d, transfers: %,d (%,.0f/sec)%n",
+                writers, accountCount, transfers.sum(), transfers.sum() / (double) seconds);
+        System.out.printf("Audits: %,d, average audit time: %,d ns%n", audits, auditNanos / Math.max(audits, 1));
+        System.out.printf("Snapshot totals off: %d, naive sums off: %d%n", snapshotMismatches, naiveMismatches);
+        System.out.println("Final total: $" + bank.getTotalBalance() + " (expected $" + expected + ")");
+
+        if (snapshotMismatches == 0 && bank.getTotalBalance() == expected) {
+            System.out.println("✓ SUCCESS - Every snapshot matched the conserved total");
+        } else {
+            System.out.println("✗ FAIL - Snapshot total mismatch!");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.advanced;
+
+import com.example.basic.IntRingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * runTask6's pipeline shape (3 producers, 2 consumers over one bounded queue) without the
+ * per-item sleeps and printing, moving items one at a time (runTask6's baseline) and in batches
+ * of 16 and 256, over the LinkedBlockingQueue runTask6 uses and over IntRingBuffer.
+ *
+ * Two passes per configuration:
+ * - saturated: producers publish as fast as they can; reports items/sec;
+ * - paced: producers generate items at a fixed total rate; reports how long an item takes from
+ *   the moment it is generated to the moment a consumer has it, p50 and p99. That includes the
+ *   time it waits for its producer's batch to fill and for the consumer's batch (capped by
+ *   maxDelay).
+ *
+ * Usage: BatchPipelineBenchmark [saturatedItems] [pacedItemsPerSecond] [maxDelayMillis]
+ */
+public class BatchPipelineBenchmark {
+    private static final int PRODUCERS = 3;
+    private static final int CONSUMERS = 2;
+    private static final int CAPACITY = 1024;
+    private static final int DONE = -1;
+
+    public static void main(String[] args) throws InterruptedException {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 3_000_000;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        long maxDelayMillis = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        System.out.printf("%d producers, %d consumers, capacity %d, consumer max delay %d ms%n", PRODUCERS,
+                CONSUMERS, CAPACITY, maxDelayMillis);
+        System.out.printf("saturated: %,d items; paced: %,d items/sec for 1 sec%n", items, rate);
+        System.out.printf("%-22s %6s %14s %10s %10s%n", "channel", "batch", "items/sec", "p50 us", "p99 us");
+        for (int round = 0; round < 2; round++) {
+            // The first round is JIT warm-up
+            for (int batch : new int[]{1, 16, 256}) {
+                for (boolean ring : new boolean[]{false, true}) {
+                    double throughput = run(channel(ring, batch, maxDelayMillis), items, 0);
+                    LatencyHistogram latency = new LatencyHistogram();
+                    run(channel(ring, batch, maxDelayMillis), rate, rate, latency);
+                    if (round == 1) {
+                        System.out.printf("%-22s %6d %,14.0f %10d %10d%n",
+                                ring ? "IntRingBuffer (mpmc)" : "LinkedBlockingQueue", batch, throughput,
+                                TimeUnit.NANOSECONDS.toMicros(latency.valueAtPercentile(50)),
+                                TimeUnit.NANOSECONDS.toMicros(latency.valueAtPercentile(99)));
+                    }
+                }
+            }
+        }
+    }
+
+    private static Channel channel(boolean ring, int batch, long maxDelayMillis) {
+        return ring ? new RingChannel(batch, maxDelayMillis) : new QueueChannel(batch, maxDelayMillis);
+    }
+
+    private static double run(Channel channel, int items, int rate) throws InterruptedException {
+        return run(channel, items, rate, new LatencyHistogram());
+    }
+
+    /*
+     * A rate of 0 means saturated. Returns items/sec.
+     */
+    private static double run(Channel channel, int items, int rate, LatencyHistogram latency)
+            throws InterruptedException {
+        int perProducer = items / PRODUCERS;
+        long[] generatedAt = new long[perProducer * PRODUCERS];
+        long intervalNanos = rate == 0 ? 0 : 1_000_000_000L * PRODUCERS / rate;
+        LongAdder consumed = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        List<Thread> consumers = new ArrayList<>();
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            int base = p * perProducer;
+            producers.add(new Thread(() -> {
+                int[] batch = new int[channel.batchSize];
+                try {
+                    start.await();
+                    long next = System.nanoTime();
+                    int size = 0;
+                    for (int i = 0; i < perProducer; i++) {
+                        if (intervalNanos > 0) {
+                            long wait = next - System.nanoTime();
+                            if (wait > 0) {
+                                TimeUnit.NANOSECONDS.sleep(wait);
+                            }
+                            next += intervalNanos;
+                        }
+                        generatedAt[base + i] = System.nanoTime();
+                        batch[size++] = base + i;
+                        if (size == batch.length || i == perProducer - 1) {
+                            channel.publish(batch, size);
+                            size = 0;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            consumers.add(new Thread(() -> {
+                int[] batch = new int[channel.batchSize];
+                try {
+                    start.await();
+                    while (true) {
+                        int count = channel.receive(batch);
+                        long now = System.nanoTime();
+                        int done = 0;
+                        for (int i = 0; i < count; i++) {
+                            if (batch[i] == DONE) {
+                                done++;
+                            } else {
+                                latency.record(now - generatedAt[batch[i]]);
+                            }
+                        }
+                        consumed.add(count - done);
+                        if (done > 0) {
+                            // Every item was published before the markers, so nothing follows them.
+                            // Pass on the markers meant for the other consumers.
+                            for (int i = 1; i < done; i++) {
+                                channel.publish(new int[]{DONE}, 1);
+                            }
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        producers.forEach(Thread::start);
+        consumers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            channel.publish(new int[]{DONE}, 1);
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (consumed.sum() != generatedAt.length) {
+            System.out.printf("    lost items: consumed %d of %d%n", consumed.sum(), generatedAt.length);
+        }
+        return generatedAt.length * 1e9 / elapsed;
+    }
+
+    private abstract static class Channel {
+        final int batchSize;
+        final long maxDelayMillis;
+
+        Channel(int batchSize, long maxDelayMillis) {
+            this.batchSize = batchSize;
+            this.maxDelayMillis = maxDelayMillis;
+        }
+
+        abstract void publish(int[] items, int count) throws InterruptedException;
+
+        abstract int receive(int[] target) throws InterruptedException;
+    }
+
+    /*
+     * runTask6's queue. Batches are put back to back and drained with take + drainTo, topped up
+     * with poll until maxDelay runs out.
+     */
+    private static class QueueChannel extends Channel {
+        private final BlockingQueue<Integer> queue = new LinkedBlockingQueue<>(CAPACITY);
+        private final ThreadLocal<List<Integer>> batches = ThreadLocal.withInitial(ArrayList::new);
+
+        QueueChannel(int batchSize, long maxDelayMillis) {
+            super(batchSize, maxDelayMillis);
+        }
+
+        @Override
+        void publish(int[] items, int count) throws InterruptedException {
+            for (int i = 0; i < count; i++) {
+                queue.put(items[i]);
+            }
+        }
+
+        @Override
+        int receive(int[] target) throws InterruptedException {
+            if (batchSize == 1) {
+                target[0] = queue.take();
+                return 1;
+            }
+            List<Integer> batch = localBatch();
+            batch.add(queue.take());
+            queue.drainTo(batch, batchSize - batch.size());
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+            while (batch.size() < batchSize && !batch.contains(DONE)) {
+                Integer next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                target[i] = batch.get(i);
+            }
+            return batch.size();
+        }
+
+        private List<Integer> localBatch() {
+            List<Integer> batch = batches.get();
+            batch.clear();
+            return batch;
+        }
+    }
+
+    private static class RingChannel extends Channel {
+        private final IntRingBuffer ring = IntRingBuffer.mpmc(CAPACITY);
+
+        RingChannel(int batchSize, long maxDelayMillis) {
+            super(batchSize, maxDelayMillis);
+        }
+
+        @Override
+        void publish(int[] items, int count) throws InterruptedException {
+            if (count == 1) {
+                ring.put(items[0]);
+            } else {
+                ring.putAll(items, 0, count);
+            }
+        }
+
+        @Override
+        int receive(int[] target) throws InterruptedException {
+            if (batchSize == 1) {
+                target[0] = ring.take();
+                return 1;
+            }
+            return ring.takeBatch(target, batchSize, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Throughput of Bank.transferBatch next to the single-transfer path.
+ * The low starting balance makes the workload rejection-heavy on purpose.
+ *
+ * Usage: BatchTransferBenchmark [threads] [accounts] [transfersPerThread]
+ */
+public class BatchTransferBenchmark {
+    private static final int[] BATCH_SIZES = {1, 16, 256};
+    private static final int INITIAL_BALANCE = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int transfersPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 256_000;
+
+        System.out.printf("%d threads, %d accounts, %d transfers per thread%n", threads, accounts, transfersPerThread);
+        System.out.printf("%-16s %16s %10s %10s%n", "path", "transfers/sec", "rejected", "total ok");
+
+        // Warm-up pass for both paths
+        measure(threads, accounts, transfersPerThread / 4, 0);
+        measure(threads, accounts, transfersPerThread / 4, 16);
+
+        report("single transfer", threads, accounts, transfersPerThread, 0);
+        for (int batchSize : BATCH_SIZES) {
+            report("batch of " + batchSize, threads, accounts, transfersPerThread, batchSize);
+        }
+    }
+
+    private static void report(String label, int threads, int accounts, int transfersPerThread, int batchSize)
+            throws InterruptedException {
+        Result result = measure(threads, accounts, transfersPerThread, batchSize);
+        System.out.printf("%-16s %,16.0f %9.1f%% %10s%n", label, result.transfersPerSecond,
+                100.0 * result.rejected / ((long) threads * transfersPerThread),
+                result.totalBalance == (long) accounts * INITIAL_BALANCE);
+    }
+
+    /*
+     * batchSize 0 means one Bank.transfer call per transfer.
+     */
+    private static Result measure(int threads, int accounts, int transfersPerThread, int batchSize)
+            throws InterruptedException {
+        Bank bank = new Bank(false);
+        for (int i = 1; i <= accounts; i++) {
+            bank.addAccount(new Account(i, INITIAL_BALANCE));
+        }
+
+        LongAdder rejected = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                List<Transfer> batch = new ArrayList<>(Math.max(batchSize, 1));
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < transfersPerThread; i++) {
+                    int fromId = rand.nextInt(accounts) + 1;
+                    int toId = rand.nextInt(accounts - 1) + 1;
+                    if (toId >= fromId) {
+                        toId++;
+                    }
+                    int amount = rand.nextInt(200) + 1;
+                    if (batchSize == 0) {
+                        if (!bank.transfer(fromId, toId, amount)) {
+                            rejected.increment();
+                        }
+                        continue;
+                    }
+                    batch.add(new Transfer(fromId, toId, amount));
+                    if (batch.size() == batchSize || i == transfersPerThread - 1) {
+                        BitSet applied = bank.transferBatch(batch);
+                        rejected.add(batch.size() - applied.cardinality());
+                        batch.clear();
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        Result result = new Result();
+        result.transfersPerSecond = (double) threads * transfersPerThread * 1_000_000_000L / elapsed;
+        result.rejected = rejected.sum();
+        result.totalBalance = bank.getTotalBalance();
+        return result;
+    }
+
+    private static class Result {
+        double transfersPerSecond;
+        long rejected;
+        long totalBalance;
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Hit rate and throughput of the bounded ReadWriteCache under each eviction policy, replaying
+ * read-through traces (get, and put on a miss):
+ * - zipf: Zipf(0.9) over 100,000 keys;
+ * - scan: the same Zipf accesses in blocks of 5,000, each followed by a scan of 5,000 keys that
+ *   are never seen again, so half the trace can only miss.
+ * Hit rate comes from one thread; throughput from 4 threads replaying the trace from different
+ * offsets for a fixed time. Also checks the size bound and per-entry expiry.
+ *
+ * Usage: BoundedCacheBenchmark [maximumSize] [traceLength] [millisPerRun]
+ */
+public class BoundedCacheBenchmark {
+    private static final int KEYS = 100_000;
+    private static final int BLOCK = 5_000;
+    private static final int THREADS = 4;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maximumSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int traceLength = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 500;
+
+        String[] keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key" + i;
+        }
+        ZipfGenerator zipf = new ZipfGenerator(KEYS, 0.9);
+        String[] zipfTrace = new String[traceLength];
+        String[] scanTrace = new String[traceLength];
+        int scanned = 0;
+        for (int i = 0; i < traceLength; i++) {
+            zipfTrace[i] = keys[zipf.next()];
+            scanTrace[i] = (i / BLOCK) % 2 == 0 ? zipfTrace[i] : "scan" + scanned++;
+        }
+
+        checkExpiry();
+        System.out.printf("maximumSize %,d, %,d keys, traces of %,d accesses%n", maximumSize, KEYS, traceLength);
+        System.out.printf("%-12s %-6s %9s %10s %8s %16s%n", "policy", "trace", "hit rate", "evictions", "size",
+                THREADS + "-thread ops/sec");
+        for (int round = 0; round < 2; round++) {
+            // The first round is JIT warm-up
+            boolean report = round == 1;
+            for (ReadWriteCache.Eviction eviction : ReadWriteCache.Eviction.values()) {
+                run(eviction.toString(), () -> new ReadWriteCache(maximumSize, eviction, 0, TimeUnit.SECONDS, false),
+                        "zipf", zipfTrace, millis, report);
+                run(eviction.toString(), () -> new ReadWriteCache(maximumSize, eviction, 0, TimeUnit.SECONDS, false),
+                        "scan", scanTrace, millis, report);
+            }
+            run("unbounded", () -> new ReadWriteCache(ReadWriteCache.Mode.CONCURRENT, false), "zipf", zipfTrace,
+                    millis, report);
+        }
+    }
+
+    private interface CacheFactory {
+        ReadWriteCache create();
+    }
+
+    private static void run(String label, CacheFactory factory, String traceName, String[] trace, long millis,
+                            boolean report) throws InterruptedException {
+        ReadWriteCache cache = factory.create();
+        long hits = 0;
+        for (String key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        cache.cleanUp();
+        double hitRate = (double) hits / trace.length;
+        long evictions = cache.getEvictionCount();
+        int size = cache.size();
+
+        ReadWriteCache shared = factory.create();
+        LongAdder operations = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t * (trace.length / THREADS);
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long done = 0;
+                int i = offset;
+                while (System.nanoTime() < deadline[0]) {
+                    // Check the clock only every 64 operations
+                    for (int n = 0; n < 64; n++) {
+                        String key = trace[i];
+                        if (shared.get(key) == null) {
+                            shared.put(key, key);
+                        }
+                        if (++i == trace.length) {
+                            i = 0;
+                        }
+                    }
+                    done += 64;
+                }
+                operations.add(done);
+            }));
+        }
+        workers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000;
+        // The latch publishes the deadline to the workers
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double opsPerSecond = operations.sum() * 1e9 / (System.nanoTime() - begin);
+        if (report) {
+            System.out.printf("%-12s %-6s %8.1f%% %,10d %,8d %,16.0f%n", label, traceName, hitRate * 100, evictions,
+                    size, opsPerSecond);
+        }
+    }
+
+    private static void checkExpiry() throws InterruptedException {
+        ReadWriteCache cache = new ReadWriteCache(100, ReadWriteCache.Eviction.W_TINY_LFU, 1, TimeUnit.HOURS, false);
+        cache.put("short", "v", 50, TimeUnit.MILLISECONDS);
+        cache.put("long", "v");
+        boolean before = cache.get("short") != null;
+        Thread.sleep(100);
+        boolean after = cache.get("short") != null;
+        cache.cleanUp();
+        System.out.printf("ttl check: 50 ms entry present before %b, after %b; size after cleanUp %d%n", before,
+                after, cache.size());
+    }
+}
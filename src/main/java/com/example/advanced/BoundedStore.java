@@ -0,0 +1,571 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Size-bounded ReadWriteCache engine with LRU, LFU or W-TinyLFU eviction and optional per-entry
+ * expiry.
+ *
+ * - Entries live in a ConcurrentHashMap, so neither reads nor writes wait for the policy.
+ * - Policy state (access order, frequencies, expiry times) is touched only by maintenance, one
+ *   thread at a time under evictionLock. A read records its entry in a small lossy ring buffer,
+ *   one of several picked by thread; a write records its entry in a queue that drops nothing.
+ *   A full read buffer or any write schedules maintenance on the executor, which replays both
+ *   buffers into the policy, expires and evicts.
+ * - A dropped read only makes the policy slightly less exact. If writes get more than
+ *   WRITE_BUFFER_LIMIT ahead of maintenance, the writer runs it itself, so the cache never
+ *   grows far past maximumSize.
+ * - W-TinyLFU: new entries go through a small LRU window (1%) into a segmented LRU main area
+ *   (probation, then protected at 80%). An entry leaving the window only displaces the
+ *   probation victim if the FrequencySketch rates it more popular, so one-off keys from a
+ *   scan cannot flush the working set.
+ * - Sampling: maintenance also keeps the live nodes in a KeyIndex, so randomKey() and sample()
+ *   cost O(1) and O(k). Entries written since the last maintenance are not sampled yet.
+ */
+final class BoundedStore implements ReadWriteCache.Store {
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int WRITE_BUFFER_LIMIT = 256;
+    private static final int MAX_FREQUENCY = 31;
+    private static final int SAMPLE_ATTEMPTS = 8;
+
+    private static final byte NONE = 0;
+    private static final byte MAIN = 1;
+    private static final byte WINDOW = 2;
+    private static final byte PROBATION = 3;
+    private static final byte PROTECTED = 4;
+    private static final byte FREQUENCY = 5;
+
+    private final ReadWriteCache.Eviction eviction;
+    private final int maximumSize;
+    private final long defaultTtlNanos;
+    private final Executor executor;
+
+    private final ConcurrentHashMap<String, Node> map = new ConcurrentHashMap<>();
+    private final ReadBuffer[] readBuffers;
+    private final ConcurrentLinkedQueue<Node> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder evictions = new LongAdder();
+    // Written under evictionLock, read by anyone
+    private final KeyIndex<Node> index = new KeyIndex<>();
+
+    // Guarded by evictionLock
+    private final FrequencySketch sketch;
+    private final AccessOrder main = new AccessOrder();
+    private final AccessOrder window = new AccessOrder();
+    private final AccessOrder probation = new AccessOrder();
+    private final AccessOrder protectedQueue = new AccessOrder();
+    private final AccessOrder[] byFrequency;
+    private final PriorityQueue<Expiry> expiries = new PriorityQueue<>();
+    private final int windowMaximum;
+    private final int protectedMaximum;
+    private int size;
+    private int windowSize;
+    private int protectedSize;
+
+    BoundedStore(int maximumSize, ReadWriteCache.Eviction eviction, long defaultTtlNanos, Executor executor) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.eviction = eviction;
+        this.maximumSize = maximumSize;
+        this.defaultTtlNanos = defaultTtlNanos;
+        this.executor = executor;
+        int stripes = Integer.highestOneBit(Math.max(4, Runtime.getRuntime().availableProcessors() * 4) - 1) << 1;
+        this.readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+        this.sketch = new FrequencySketch(maximumSize);
+        this.byFrequency = new AccessOrder[MAX_FREQUENCY + 1];
+        for (int f = 1; f <= MAX_FREQUENCY; f++) {
+            byFrequency[f] = new AccessOrder();
+        }
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.protectedMaximum = (maximumSize - windowMaximum) * 80 / 100;
+    }
+
+    @Override
+    public String get(String key) {
+        Node node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        long expiresAt = node.expiresAt;
+        if (expiresAt != 0 && System.nanoTime() - expiresAt >= 0) {
+            // Maintenance removes it
+            return null;
+        }
+        String value = node.value;
+        long id = Thread.currentThread().getId();
+        ReadBuffer buffer = readBuffers[(int) (id ^ (id >>> 16)) & (readBuffers.length - 1)];
+        if (buffer.offer(node)) {
+            scheduleDrain();
+        }
+        return value;
+    }
+
+    @Override
+    public void put(String key, String value) {
+        put(key, value, defaultTtlNanos);
+    }
+
+    @Override
+    public void put(String key, String value, long ttlNanos) {
+        long expiresAt = ttlNanos > 0 ? deadline(ttlNanos) : 0;
+        // An existing entry is updated in place; maintenance removes entries only through the
+        // map as well, so the two never miss each other
+        Node node = map.compute(key, (k, old) -> {
+            if (old == null) {
+                return new Node(k, value, expiresAt);
+            }
+            old.value = value;
+            old.expiresAt = expiresAt;
+            return old;
+        });
+        writeBuffer.add(node);
+        if (pendingWrites.incrementAndGet() > WRITE_BUFFER_LIMIT) {
+            // Maintenance is falling behind; pay for it here instead of growing past the bound
+            cleanUp();
+        } else {
+            scheduleDrain();
+        }
+    }
+
+    @Override
+    public Set<String> keySet() {
+        Set<String> keys = new HashSet<>();
+        long now = System.nanoTime();
+        for (Map.Entry<String, Node> entry : map.entrySet()) {
+            long expiresAt = entry.getValue().expiresAt;
+            if (expiresAt == 0 || now - expiresAt < 0) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /*
+     * Retries a few times on entries that expired or were evicted since they were indexed, then
+     * gives up and returns null.
+     */
+    @Override
+    public String randomKey() {
+        for (int attempt = 0; attempt < SAMPLE_ATTEMPTS; attempt++) {
+            Node node = index.random();
+            if (node == null) {
+                return null;
+            }
+            if (isLive(node, System.nanoTime())) {
+                return node.key;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Up to k distinct keys; fewer if some sampled entries have expired or been evicted.
+     */
+    @Override
+    public List<String> sample(int k) {
+        List<Node> nodes = index.sample(k);
+        List<String> keys = new ArrayList<>(nodes.size());
+        long now = System.nanoTime();
+        for (Node node : nodes) {
+            if (isLive(node, now)) {
+                keys.add(node.key);
+            }
+        }
+        return keys;
+    }
+
+    /*
+     * Walks the map itself, with ConcurrentHashMap's weak consistency, skipping expired entries.
+     */
+    @Override
+    public Iterator<String> keyIterator() {
+        Iterator<Node> nodes = map.values().iterator();
+        long now = System.nanoTime();
+        return new Iterator<String>() {
+            private String next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                String current = next;
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+                next = advance();
+                return current;
+            }
+
+            private String advance() {
+                while (nodes.hasNext()) {
+                    Node node = nodes.next();
+                    long expiresAt = node.expiresAt;
+                    if (expiresAt == 0 || now - expiresAt < 0) {
+                        return node.key;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /*
+     * Runs pending maintenance on the calling thread.
+     */
+    @Override
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintain();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean isLive(Node node, long now) {
+        long expiresAt = node.expiresAt;
+        return (expiresAt == 0 || now - expiresAt < 0) && map.get(node.key) == node;
+    }
+
+    private static long deadline(long ttlNanos) {
+        long at = System.nanoTime() + ttlNanos;
+        // 0 means "never"
+        return at == 0 ? 1 : at;
+    }
+
+    private void scheduleDrain() {
+        if (!drainScheduled.get() && drainScheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                evictionLock.lock();
+                try {
+                    // Cleared first: anything recorded from here on schedules another run
+                    drainScheduled.set(false);
+                    maintain();
+                } finally {
+                    evictionLock.unlock();
+                }
+            });
+        }
+    }
+
+    private void maintain() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+        for (Node node; (node = writeBuffer.poll()) != null; ) {
+            pendingWrites.decrementAndGet();
+            onWrite(node);
+        }
+        expire(System.nanoTime());
+        evict();
+    }
+
+    private void onRead(Node node) {
+        if (eviction == ReadWriteCache.Eviction.W_TINY_LFU) {
+            sketch.increment(node.key);
+        }
+        switch (node.queue) {
+            case MAIN:
+            case WINDOW:
+                AccessOrder.unlink(node);
+                (node.queue == MAIN ? main : window).addLast(node);
+                break;
+            case PROTECTED:
+                AccessOrder.unlink(node);
+                protectedQueue.addLast(node);
+                break;
+            case PROBATION:
+                AccessOrder.unlink(node);
+                node.queue = PROTECTED;
+                protectedQueue.addLast(node);
+                if (++protectedSize > protectedMaximum) {
+                    Node demoted = protectedQueue.first();
+                    AccessOrder.unlink(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                    protectedSize--;
+                }
+                break;
+            case FREQUENCY:
+                if (node.frequency < MAX_FREQUENCY) {
+                    AccessOrder.unlink(node);
+                    byFrequency[++node.frequency].addLast(node);
+                }
+                break;
+            default:
+                // Not added to the policy yet, or already removed
+                break;
+        }
+    }
+
+    private void onWrite(Node node) {
+        if (!node.alive) {
+            return;
+        }
+        if (node.queue != NONE) {
+            onRead(node);
+        } else {
+            size++;
+            node.position = index.add(node);
+            switch (eviction) {
+                case LRU:
+                    node.queue = MAIN;
+                    main.addLast(node);
+                    break;
+                case LFU:
+                    node.queue = FREQUENCY;
+                    node.frequency = 1;
+                    byFrequency[1].addLast(node);
+                    break;
+                default:
+                    sketch.increment(node.key);
+                    node.queue = WINDOW;
+                    window.addLast(node);
+                    windowSize++;
+                    break;
+            }
+        }
+        long expiresAt = node.expiresAt;
+        if (expiresAt != 0) {
+            expiries.add(new Expiry(expiresAt, node));
+        }
+    }
+
+    private void expire(long now) {
+        for (Expiry expiry; (expiry = expiries.peek()) != null && now - expiry.at >= 0; ) {
+            expiries.poll();
+            Node node = expiry.node;
+            long at = expiry.at;
+            if (!node.alive || node.queue == NONE) {
+                continue;
+            }
+            // Skip it if a put renewed the entry after this expiry was recorded
+            boolean[] expired = new boolean[1];
+            map.computeIfPresent(node.key, (k, current) -> {
+                if (current == node && node.expiresAt == at) {
+                    expired[0] = true;
+                    return null;
+                }
+                return current;
+            });
+            if (expired[0]) {
+                detach(node);
+            }
+        }
+        // Renewed entries leave stale records behind; drop them before they pile up
+        if (expiries.size() > 2 * maximumSize + 64) {
+            expiries.removeIf(expiry -> !expiry.node.alive || expiry.node.expiresAt != expiry.at);
+        }
+    }
+
+    private void evict() {
+        if (eviction == ReadWriteCache.Eviction.W_TINY_LFU) {
+            while (windowSize > windowMaximum) {
+                Node candidate = window.first();
+                AccessOrder.unlink(candidate);
+                windowSize--;
+                candidate.queue = PROBATION;
+                probation.addLast(candidate);
+                if (size <= maximumSize) {
+                    continue;
+                }
+                Node victim = probation.first();
+                if (victim != candidate && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                    evict(victim);
+                } else {
+                    evict(candidate);
+                }
+            }
+        }
+        while (size > maximumSize) {
+            evict(victim());
+        }
+    }
+
+    private Node victim() {
+        switch (eviction) {
+            case LRU:
+                return main.first();
+            case LFU:
+                for (int f = 1; f <= MAX_FREQUENCY; f++) {
+                    Node node = byFrequency[f].first();
+                    if (node != null) {
+                        return node;
+                    }
+                }
+                return null;
+            default:
+                Node node = probation.first();
+                if (node == null) {
+                    node = protectedQueue.first();
+                }
+                return node != null ? node : window.first();
+        }
+    }
+
+    private void evict(Node node) {
+        // Only maintenance removes entries, so the node is still mapped
+        map.remove(node.key, node);
+        detach(node);
+        evictions.increment();
+    }
+
+    private void detach(Node node) {
+        AccessOrder.unlink(node);
+        if (node.queue == WINDOW) {
+            windowSize--;
+        } else if (node.queue == PROTECTED) {
+            protectedSize--;
+        }
+        node.queue = NONE;
+        node.alive = false;
+        size--;
+        Node moved = index.removeAt(node.position);
+        if (moved != null) {
+            moved.position = node.position;
+        }
+    }
+
+    private static final class Node {
+        final String key;
+        volatile String value;
+        // System.nanoTime() deadline, 0 for never
+        volatile long expiresAt;
+
+        // Guarded by evictionLock
+        Node prev;
+        Node next;
+        byte queue;
+        int frequency;
+        int position;
+        boolean alive = true;
+
+        Node(String key, String value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /*
+     * Doubly linked list through the nodes themselves, oldest first, around a sentinel.
+     */
+    private static final class AccessOrder {
+        private final Node head = new Node(null, null, 0);
+
+        AccessOrder() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node first() {
+            return head.next == head ? null : head.next;
+        }
+
+        void addLast(Node node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+        }
+
+        static void unlink(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+    }
+
+    private static final class Expiry implements Comparable<Expiry> {
+        final long at;
+        final Node node;
+
+        Expiry(long at, Node node) {
+            this.at = at;
+            this.node = node;
+        }
+
+        @Override
+        public int compareTo(Expiry other) {
+            return Long.compare(at - other.at, 0);
+        }
+    }
+
+    /*
+     * Many readers, one drainer. A reader that loses the race for a slot, or finds the buffer
+     * full, drops its event.
+     */
+    private static final class ReadBuffer {
+        private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        // Written only by the drainer
+        private volatile long reads;
+
+        /*
+         * Returns true if the buffer is full and should be drained.
+         */
+        boolean offer(Node node) {
+            long tail = writes.get();
+            long free = READ_BUFFER_SIZE - (tail - reads);
+            if (free <= 0) {
+                return true;
+            }
+            if (writes.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) tail & (READ_BUFFER_SIZE - 1), node);
+            }
+            return free == 1;
+        }
+
+        void drainTo(BoundedStore store) {
+            long head = reads;
+            long tail = writes.get();
+            for (; head < tail; head++) {
+                int index = (int) head & (READ_BUFFER_SIZE - 1);
+                Node node = slots.get(index);
+                if (node == null) {
+                    // Claimed but not written yet; pick it up next time
+                    break;
+                }
+                slots.lazySet(index, null);
+                store.onRead(node);
+            }
+            reads = head;
+        }
+    }
+}
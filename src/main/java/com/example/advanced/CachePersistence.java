@@ -0,0 +1,474 @@
+package com.example.advanced;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/*
+ * Write-behind persistence for a ReadWriteCache, and warm start from it.
+ *
+ * - put() only adds the key to a concurrent dirty set; writers never touch the disk. A flusher
+ *   thread wakes every flush interval, or as soon as BATCH keys are dirty, takes each dirty
+ *   key out of the set, reads its current value from the cache and appends the pair to the
+ *   current segment file in large sequential writes. A key written again after the flusher
+ *   took it is dirty again and goes out with the next batch, so the last value always wins.
+ * - Segments are append-only files of checksummed records, rolled at SEGMENT_BYTES. Once the
+ *   segments hold COMPACTION_RATIO times more bytes than the last compaction left, the flusher
+ *   writes the cache's current contents into fresh segments and deletes the older ones.
+ * - load() memory-maps every segment and restores them with several threads. Each thread owns
+ *   the keys whose hash falls in its share and applies them in file order, so later records
+ *   win without any coordination between threads. A torn record at the end of a segment,
+ *   left by a crash mid-write, ends that segment. Every thread checks every record's
+ *   checksum, not just its own share's, so they all stop at the same record.
+ * Entries are persisted without their ttl, and keys a bounded cache has evicted are dropped at
+ * the next compaction.
+ *
+ * Usage:
+ *   CachePersistence.load(dir, cache, 4);                                  // before traffic
+ *   CachePersistence persistence = CachePersistence.open(dir, cache, 100, TimeUnit.MILLISECONDS);
+ */
+public class CachePersistence implements AutoCloseable {
+    private static final int MAGIC = 0x43414348;
+    // keyLength, valueLength, keyHash, crc; the crc also covers the three fields before it
+    private static final int RECORD_HEADER = 16;
+    private static final long SEGMENT_BYTES = 64L << 20;
+    private static final int BATCH = 4096;
+    private static final int COMPACTION_RATIO = 2;
+    private static final long MIN_COMPACTION_BYTES = 16L << 20;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private static final int FAILURES_BEFORE_FAILED = 3;
+
+    private final Path directory;
+    private final ReadWriteCache cache;
+    private final long flushIntervalNanos;
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger dirtyCount = new AtomicInteger();
+    private final AtomicLong flushed = new AtomicLong();
+    private final Thread flusher;
+    private volatile boolean closed;
+    // Set once the flusher has failed FAILURES_BEFORE_FAILED rounds in a row, cleared by a good one
+    private volatile IOException failure;
+    private int consecutiveFailures;
+
+    // Guarded by fileLock
+    private final ReentrantLock fileLock = new ReentrantLock();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+    private final CRC32C crc = new CRC32C();
+    // Keys taken out of dirty since the last force; they go back if the round fails
+    private final List<String> inFlight = new ArrayList<>();
+    private FileChannel current;
+    private long currentIndex;
+    private long currentBytes;
+    private long totalBytes;
+    private long compactedBytes;
+    private int compactions;
+
+    private CachePersistence(Path directory, ReadWriteCache cache, long flushIntervalNanos, long nextIndex,
+                             long existingBytes) {
+        this.directory = directory;
+        this.cache = cache;
+        this.flushIntervalNanos = flushIntervalNanos;
+        this.currentIndex = nextIndex - 1;
+        this.totalBytes = existingBytes;
+        this.compactedBytes = existingBytes;
+        this.flusher = new Thread(this::flushLoop, "CachePersistence-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /*
+     * Starts persisting the cache's writes into directory, after any segments already there.
+     * Load those first if the cache should start warm.
+     */
+    public static CachePersistence open(Path directory, ReadWriteCache cache, long flushInterval, TimeUnit unit)
+            throws IOException {
+        Files.createDirectories(directory);
+        long nextIndex = 0;
+        long existingBytes = 0;
+        for (Path file : segments(directory)) {
+            nextIndex = Math.max(nextIndex, segmentIndex(file) + 1);
+            existingBytes += Files.size(file);
+        }
+        CachePersistence persistence = new CachePersistence(directory, cache, unit.toNanos(flushInterval), nextIndex,
+                existingBytes);
+        persistence.flusher.start();
+        cache.attachPersistence(persistence);
+        return persistence;
+    }
+
+    /*
+     * Restores every entry persisted in directory into the cache, using the given number of
+     * threads rounded up to a power of two. Returns the number of records applied.
+     */
+    public static long load(Path directory, ReadWriteCache cache, int threads) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        List<Path> files = segments(directory);
+        List<MappedByteBuffer> buffers = new ArrayList<>();
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file)) {
+                // The mapping stays valid after the channel is closed
+                buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        int shares = threads <= 1 ? 1 : Integer.highestOneBit(threads - 1) << 1;
+        AtomicLong applied = new AtomicLong();
+        List<Thread> loaders = new ArrayList<>();
+        for (int share = 0; share < shares; share++) {
+            int mine = share;
+            loaders.add(new Thread(() -> applied.addAndGet(loadShare(buffers, cache, mine, shares - 1)),
+                    "CachePersistence-loader-" + share));
+        }
+        loaders.forEach(Thread::start);
+        for (Thread loader : loaders) {
+            try {
+                loader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading " + directory, e);
+            }
+        }
+        return applied.get();
+    }
+
+    private static long loadShare(List<MappedByteBuffer> buffers, ReadWriteCache cache, int share, int mask) {
+        CRC32C crc = new CRC32C();
+        long applied = 0;
+        for (MappedByteBuffer mapped : buffers) {
+            ByteBuffer buf = mapped.duplicate();
+            int limit = buf.capacity();
+            if (limit < 4 || buf.getInt(0) != MAGIC) {
+                continue;
+            }
+            for (int offset = 4; offset + RECORD_HEADER <= limit; ) {
+                int keyLength = buf.getInt(offset);
+                int valueLength = buf.getInt(offset + 4);
+                int end = offset + RECORD_HEADER + keyLength + valueLength;
+                // Torn tail: every thread checks every record, so all stop at the same place
+                if (keyLength < 0 || valueLength < 0 || end > limit || end < offset
+                        || checksum(crc, buf, offset, end) != buf.getInt(offset + 12)) {
+                    break;
+                }
+                if ((buf.getInt(offset + 8) & mask) == share) {
+                    byte[] key = new byte[keyLength];
+                    byte[] value = new byte[valueLength];
+                    buf.get(offset + RECORD_HEADER, key);
+                    buf.get(offset + RECORD_HEADER + keyLength, value);
+                    cache.putQuietly(new String(key, StandardCharsets.UTF_8),
+                            new String(value, StandardCharsets.UTF_8));
+                    applied++;
+                }
+                offset = end;
+            }
+        }
+        return applied;
+    }
+
+    /*
+     * Called by the cache after every put. Never blocks on I/O.
+     */
+    void markDirty(String key) {
+        if (dirty.add(key) && dirtyCount.incrementAndGet() == BATCH) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    /*
+     * Writes every key dirty at the time of the call, on the calling thread. Throws without
+     * writing while the flusher is failing, until one of its rounds succeeds again.
+     */
+    public void flush() throws IOException {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new IOException("Cache persistence has failed " + FAILURES_BEFORE_FAILED
+                    + " flushes in a row", failed);
+        }
+        fileLock.lock();
+        try {
+            flushDirty();
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /*
+     * Rewrites the cache's current contents into new segments and deletes the old ones.
+     */
+    public void compact() throws IOException {
+        fileLock.lock();
+        try {
+            compactLocked();
+        } catch (IOException e) {
+            // The old segments are still there; only the new ones are incomplete
+            abandonSegment();
+            throw e;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private void compactLocked() throws IOException {
+        if (current != null) {
+            finishBatch();
+            current.force(false);
+        }
+        long lastOld = currentIndex;
+        totalBytes = 0;
+        roll();
+        for (Iterator<String> keys = cache.keyIterator(); keys.hasNext(); ) {
+            String key = keys.next();
+            String value = cache.getQuietly(key);
+            if (value != null) {
+                append(key, value);
+            }
+        }
+        finishBatch();
+        current.force(false);
+        for (Path file : segments(directory)) {
+            if (segmentIndex(file) <= lastOld) {
+                Files.delete(file);
+            }
+        }
+        compactedBytes = totalBytes;
+        compactions++;
+    }
+
+    public long getFlushedCount() {
+        return flushed.get();
+    }
+
+    public int getPendingCount() {
+        return dirtyCount.get();
+    }
+
+    public int getCompactionCount() {
+        fileLock.lock();
+        try {
+            return compactions;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    public long getSegmentBytes() {
+        fileLock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /*
+     * Flushes everything still dirty, then stops the flusher.
+     */
+    @Override
+    public void close() throws IOException {
+        cache.attachPersistence(null);
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fileLock.lock();
+        try {
+            flushDirty();
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            fileLock.lock();
+            try {
+                flushDirty();
+                if (totalBytes > Math.max(MIN_COMPACTION_BYTES, COMPACTION_RATIO * compactedBytes)) {
+                    compact();
+                }
+                consecutiveFailures = 0;
+                failure = null;
+            } catch (IOException e) {
+                // The round's keys are dirty again and go out with the next one
+                System.out.println("Cache flush failed: " + e.getMessage());
+                if (++consecutiveFailures >= FAILURES_BEFORE_FAILED) {
+                    failure = e;
+                }
+            } finally {
+                fileLock.unlock();
+            }
+        }
+    }
+
+    private void flushDirty() throws IOException {
+        if (dirtyCount.get() == 0) {
+            return;
+        }
+        try {
+            for (Iterator<String> keys = dirty.iterator(); keys.hasNext(); ) {
+                String key = keys.next();
+                if (!dirty.remove(key)) {
+                    continue;
+                }
+                dirtyCount.decrementAndGet();
+                inFlight.add(key);
+                // Read after taking the key: a put after this point marks it dirty again
+                String value = cache.getQuietly(key);
+                if (value != null) {
+                    append(key, value);
+                    flushed.incrementAndGet();
+                }
+            }
+            finishBatch();
+            if (current != null) {
+                current.force(false);
+            }
+        } catch (IOException e) {
+            for (String key : inFlight) {
+                if (dirty.add(key)) {
+                    dirtyCount.incrementAndGet();
+                }
+            }
+            abandonSegment();
+            throw e;
+        } finally {
+            inFlight.clear();
+        }
+    }
+
+    /*
+     * After a failed write the current segment may end in a torn record, which would hide
+     * everything appended after it from load(); drop the buffered bytes and start a new one.
+     */
+    private void abandonSegment() {
+        writeBuffer.clear();
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Already failing; the next roll() opens a fresh segment either way
+            }
+            current = null;
+        }
+    }
+
+    private void append(String key, String value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER + keyBytes.length + valueBytes.length;
+        if (current == null || currentBytes + writeBuffer.position() + size > SEGMENT_BYTES) {
+            roll();
+        }
+        if (writeBuffer.remaining() < size) {
+            finishBatch();
+        }
+        if (size > writeBuffer.capacity()) {
+            ByteBuffer large = ByteBuffer.allocate(size);
+            putRecord(large, key, keyBytes, valueBytes);
+            large.flip();
+            write(large);
+            return;
+        }
+        putRecord(writeBuffer, key, keyBytes, valueBytes);
+    }
+
+    private void putRecord(ByteBuffer buf, String key, byte[] keyBytes, byte[] valueBytes) {
+        int offset = buf.position();
+        buf.putInt(keyBytes.length).putInt(valueBytes.length).putInt(keyHash(key)).putInt(0)
+                .put(keyBytes).put(valueBytes);
+        buf.putInt(offset + 12, checksum(crc, buf, offset, buf.position()));
+    }
+
+    /*
+     * CRC32C of the record from offset to end, minus its own crc field. A zero-filled tail has
+     * lengths and hash 0 and CRC32C of no bytes is 0, so the header fields must be covered too.
+     */
+    private static int checksum(CRC32C crc, ByteBuffer buf, int offset, int end) {
+        crc.reset();
+        crc.update(buf.slice(offset, 12));
+        crc.update(buf.slice(offset + RECORD_HEADER, end - offset - RECORD_HEADER));
+        return (int) crc.getValue();
+    }
+
+    private void finishBatch() throws IOException {
+        if (writeBuffer.position() > 0) {
+            writeBuffer.flip();
+            write(writeBuffer);
+            writeBuffer.clear();
+        }
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        int length = buf.remaining();
+        while (buf.hasRemaining()) {
+            current.write(buf);
+        }
+        currentBytes += length;
+        totalBytes += length;
+    }
+
+    private void roll() throws IOException {
+        if (current != null) {
+            finishBatch();
+            current.force(false);
+            current.close();
+            // Not left pointing at a closed channel if the open below fails
+            current = null;
+        }
+        currentIndex++;
+        current = FileChannel.open(directory.resolve(segmentName(currentIndex)), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+        header.flip();
+        currentBytes = 0;
+        write(header);
+    }
+
+    // Spreads String.hashCode so the loader's shares stay balanced
+    private static int keyHash(String key) {
+        int h = key.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static String segmentName(long index) {
+        return String.format("cache-%010d.seg", index);
+    }
+
+    private static long segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(6, name.length() - 4));
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "cache-*.seg")) {
+            stream.forEach(files::add);
+        }
+        files.sort((a, b) -> Long.compare(segmentIndex(a), segmentIndex(b)));
+        return files;
+    }
+}
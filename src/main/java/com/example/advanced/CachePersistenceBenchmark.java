@@ -0,0 +1,118 @@
+package com.example.advanced;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * Write-behind cost for writers and time-to-warm from CachePersistence:
+ * - writes: 2 threads put every key, then overwrite half of them, first without persistence
+ *   and then with it attached; put latency percentiles show whether writers wait on the disk;
+ * - warm start: a fresh cache loads the segments with 1 and with 4 threads.
+ * The segments were just written, so the loader reads them from the page cache; a cold disk
+ * adds its sequential read time.
+ *
+ * 10M entries need OFF_HEAP or a large heap:
+ *   java -Xmx3g ... CachePersistenceBenchmark [entries] [mode] [valueBytes]
+ */
+public class CachePersistenceBenchmark {
+    private static final int WRITERS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        ReadWriteCache.Mode mode = args.length > 1 ? ReadWriteCache.Mode.valueOf(args[1])
+                : ReadWriteCache.Mode.CONCURRENT;
+        int valueBytes = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        String pad = "v".repeat(valueBytes);
+
+        Path directory = Files.createTempDirectory("cache-persistence");
+        try {
+            System.out.printf("%,d entries, %d-byte values, mode %s, segments in %s%n", entries, valueBytes, mode,
+                    directory);
+            System.out.printf("%-22s %12s %10s %10s %10s %10s%n", "writes", "puts/sec", "p50 ns", "p99 ns",
+                    "p99.9 ns", "max ns");
+            write("no persistence", new ReadWriteCache(mode, false), null, entries, pad);
+
+            ReadWriteCache cache = new ReadWriteCache(mode, false);
+            CachePersistence persistence = CachePersistence.open(directory, cache, 100, TimeUnit.MILLISECONDS);
+            write("write-behind", cache, persistence, entries, pad);
+            long closeBegin = System.nanoTime();
+            persistence.close();
+            System.out.printf("final flush on close: %.0f ms; %,d records flushed, %d compactions, "
+                            + "%,.0f MB in segments%n", (System.nanoTime() - closeBegin) / 1e6,
+                    persistence.getFlushedCount(), persistence.getCompactionCount(),
+                    persistence.getSegmentBytes() / 1e6);
+            String probe = "key" + (entries / 2);
+            String expected = cache.get(probe);
+            cache = null;
+
+            System.out.printf("%n%-22s %12s %14s %10s%n", "warm start", "seconds", "records/sec", "correct");
+            for (int threads : new int[]{1, 4}) {
+                System.gc();
+                ReadWriteCache warm = new ReadWriteCache(mode, false);
+                long begin = System.nanoTime();
+                long applied = CachePersistence.load(directory, warm, threads);
+                double seconds = (System.nanoTime() - begin) / 1e9;
+                boolean correct = warm.size() == entries && expected.equals(warm.get(probe));
+                System.out.printf("%-22s %12.2f %,14.0f %10b%n", threads + " loader thread(s)", seconds,
+                        applied / seconds, correct);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /*
+     * Puts every key once, then overwrites every other key, so the segments hold stale
+     * records for compaction to drop.
+     */
+    private static void write(String label, ReadWriteCache cache, CachePersistence persistence, int entries,
+                              String pad) throws InterruptedException, IOException {
+        LatencyHistogram latency = new LatencyHistogram();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int first = w;
+            writers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int pass = 0; pass < 2; pass++) {
+                    for (int i = first + pass * WRITERS; i < entries; i += WRITERS * (pass + 1)) {
+                        String key = "key" + i;
+                        String value = (pass + "-" + i + pad).substring(0, pad.length());
+                        long begin = System.nanoTime();
+                        cache.put(key, value);
+                        latency.record(System.nanoTime() - begin);
+                    }
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-22s %,12.0f %,10d %,10d %,10d %,10d%n", label, latency.getCount() / seconds,
+                latency.valueAtPercentile(50), latency.valueAtPercentile(99), latency.valueAtPercentile(99.9),
+                latency.valueAtPercentile(100));
+        if (persistence != null) {
+            System.out.printf("%-22s %,d keys still dirty when writers finished%n", "", persistence.getPendingCount());
+        }
+    }
+}
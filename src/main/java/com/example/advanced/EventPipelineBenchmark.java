@@ -0,0 +1,260 @@
+package com.example.advanced;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A three-stage pipeline (parse -> enrich -> persist) fed by 3 producers, built two ways:
+ * - queues: runTask6's LinkedBlockingQueue(capacity) between each pair of stages, one object
+ *   allocated per item and a poison pill to shut down;
+ * - EventRing: one preallocated ring, stages chained by dependency barriers, under each wait
+ *   strategy.
+ * Reports saturated items/sec, bytes allocated per item (producers and stages together), and
+ * end-to-end latency p50/p99 from publish to persist at a fixed offered rate.
+ *
+ * Usage: EventPipelineBenchmark [saturatedItems] [pacedItemsPerSecond] [capacity]
+ */
+public class EventPipelineBenchmark {
+    private static final int PRODUCERS = 3;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws InterruptedException {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 3_000_000;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        System.out.printf("%d producers, 3 stages, capacity %d; saturated %,d items, paced %,d items/sec%n",
+                PRODUCERS, capacity, items, rate);
+        System.out.printf("%-22s %14s %12s %10s %10s%n", "pipeline", "items/sec", "bytes/item", "p50 us",
+                "p99 us");
+        for (int round = 0; round < 2; round++) {
+            // The first round is JIT warm-up
+            boolean report = round == 1;
+            report("queues", report, queues(items, 0, capacity), queues(rate, rate, capacity));
+            for (EventRing.WaitStrategy strategy : EventRing.WaitStrategy.values()) {
+                report("EventRing " + strategy, report, ring(items, 0, capacity, strategy),
+                        ring(rate, rate, capacity, strategy));
+            }
+        }
+    }
+
+    private static void report(String label, boolean report, Result saturated, Result paced) {
+        if (!report) {
+            return;
+        }
+        System.out.printf("%-22s %,14.0f %12.1f %10d %10d%n", label, saturated.itemsPerSecond,
+                saturated.bytesPerItem, TimeUnit.NANOSECONDS.toMicros(paced.latency.valueAtPercentile(50)),
+                TimeUnit.NANOSECONDS.toMicros(paced.latency.valueAtPercentile(99)));
+    }
+
+    private static Result queues(int items, int rate, int capacity) throws InterruptedException {
+        int perProducer = items / PRODUCERS;
+        long total = (long) perProducer * PRODUCERS;
+        BlockingQueue<Item> parseQueue = new LinkedBlockingQueue<>(capacity);
+        BlockingQueue<Item> enrichQueue = new LinkedBlockingQueue<>(capacity);
+        BlockingQueue<Item> persistQueue = new LinkedBlockingQueue<>(capacity);
+        Item poisonPill = new Item(0);
+        Result result = new Result(total);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            producers.add(new Thread(() -> result.measured(() -> {
+                Pacer pacer = new Pacer(rate);
+                start.await();
+                for (int i = 0; i < perProducer; i++) {
+                    pacer.await();
+                    parseQueue.put(new Item(i));
+                }
+            })));
+        }
+        List<Thread> stages = new ArrayList<>();
+        stages.add(new Thread(() -> result.measured(() -> {
+            for (Item item; (item = parseQueue.take()) != poisonPill; ) {
+                item.value = parse(item.value);
+                enrichQueue.put(item);
+            }
+            enrichQueue.put(poisonPill);
+        })));
+        stages.add(new Thread(() -> result.measured(() -> {
+            for (Item item; (item = enrichQueue.take()) != poisonPill; ) {
+                item.value = enrich(item.value);
+                persistQueue.put(item);
+            }
+            persistQueue.put(poisonPill);
+        })));
+        stages.add(new Thread(() -> result.measured(() -> {
+            for (Item item; (item = persistQueue.take()) != poisonPill; ) {
+                result.persist(item.value, item.createdNanos);
+            }
+        })));
+
+        stages.forEach(Thread::start);
+        producers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        parseQueue.put(poisonPill);
+        for (Thread stage : stages) {
+            stage.join();
+        }
+        return result.finish(System.nanoTime() - begin);
+    }
+
+    private static Result ring(int items, int rate, int capacity, EventRing.WaitStrategy strategy)
+            throws InterruptedException {
+        int perProducer = items / PRODUCERS;
+        long total = (long) perProducer * PRODUCERS;
+        Result result = new Result(total);
+        EventRing<Event> ring = new EventRing<>(capacity, Event::new, strategy);
+        // Stage threads belong to the ring, so they measure their own allocation from their
+        // first event to their last
+        EventRing.Stage<Event> parse = ring.addStage("parse",
+                metered(result, total, event -> event.value = parse(event.value)));
+        EventRing.Stage<Event> enrich = ring.addStage("enrich",
+                metered(result, total, event -> event.value = enrich(event.value)), parse);
+        ring.addStage("persist",
+                metered(result, total, event -> result.persist(event.value, event.createdNanos)), enrich);
+        ring.start();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            producers.add(new Thread(() -> result.measured(() -> {
+                Pacer pacer = new Pacer(rate);
+                start.await();
+                for (int i = 0; i < perProducer; i++) {
+                    pacer.await();
+                    long sequence = ring.next();
+                    Event event = ring.get(sequence);
+                    event.value = i;
+                    event.createdNanos = System.nanoTime();
+                    ring.publish(sequence);
+                }
+            })));
+        }
+        producers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        ring.close();
+        return result.finish(System.nanoTime() - begin);
+    }
+
+    private static EventRing.EventHandler<Event> metered(Result result, long total, StageWork work) {
+        long[] before = new long[1];
+        return (event, sequence, endOfBatch) -> {
+            if (sequence == 0) {
+                before[0] = THREADS.getCurrentThreadAllocatedBytes();
+            }
+            work.apply(event);
+            if (sequence == total - 1) {
+                result.allocated.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - before[0]);
+            }
+        };
+    }
+
+    private static long parse(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        return value ^ (value >>> 33);
+    }
+
+    private static long enrich(long value) {
+        return value * 31 + 17;
+    }
+
+    private interface StageWork {
+        void apply(Event event);
+    }
+
+    private interface Body {
+        void run() throws InterruptedException;
+    }
+
+    private static class Item {
+        long value;
+        final long createdNanos = System.nanoTime();
+
+        Item(long value) {
+            this.value = value;
+        }
+    }
+
+    private static class Event {
+        long value;
+        long createdNanos;
+    }
+
+    /*
+     * Spaces one producer's items so all producers together offer the given rate; 0 is unpaced.
+     */
+    private static class Pacer {
+        private final long intervalNanos;
+        private long next = System.nanoTime();
+
+        Pacer(int rate) {
+            this.intervalNanos = rate == 0 ? 0 : 1_000_000_000L * PRODUCERS / rate;
+        }
+
+        void await() throws InterruptedException {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            next += intervalNanos;
+        }
+    }
+
+    private static class Result {
+        final long items;
+        final AtomicLong allocated = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+        long persisted;
+        double itemsPerSecond;
+        double bytesPerItem;
+
+        Result(long items) {
+            this.items = items;
+        }
+
+        // Only the persist stage calls this
+        void persist(long value, long createdNanos) {
+            latency.record(System.nanoTime() - createdNanos);
+            persisted++;
+        }
+
+        void measured(Body body) {
+            long before = THREADS.getCurrentThreadAllocatedBytes();
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            allocated.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - before);
+        }
+
+        Result finish(long elapsedNanos) {
+            if (persisted != items) {
+                System.out.printf("    lost items: persisted %d of %d%n", persisted, items);
+            }
+            itemsPerSecond = items * 1e9 / elapsedNanos;
+            bytesPerItem = (double) allocated.get() / items;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.advanced;
+
+import com.example.basic.Sequence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/*
+ * Disruptor-style multi-stage pipeline over a preallocated ring of mutable events.
+ *
+ * Producers claim sequence numbers, fill in the event already sitting in that slot and publish
+ * the sequence; nothing is allocated per event. Each stage runs on its own thread and follows
+ * a barrier: the published sequences for a first stage, or the slowest of the stages it depends
+ * on otherwise (e.g. enrich depends on parse, persist on enrich). A stage takes every sequence
+ * its barrier has released in one go, so a stage that falls behind catches up in batches.
+ * Producers never lap the slowest final stage.
+ *
+ * Idle producers and stages wait according to the WaitStrategy: BUSY_SPIN for the lowest
+ * latency when every thread has a core of its own, YIELD to share cores, PARK to give the CPU
+ * back at the cost of wake-up latency.
+ *
+ * A handler that throws does not stop its stage: the exception goes to the ring's
+ * ExceptionHandler (by default it is printed) together with the event, which can be marked
+ * failed there for later stages to see, and the stage moves on to the next event.
+ */
+public class EventRing<E> implements AutoCloseable {
+    private static final long PARK_NANOS = 1_000;
+    private static final int SPIN_TRIES = 100;
+
+    public enum WaitStrategy {
+        BUSY_SPIN, YIELD, PARK
+    }
+
+    public interface EventHandler<E> {
+        void onEvent(E event, long sequence, boolean endOfBatch) throws Exception;
+    }
+
+    public interface EventTranslator<E, A> {
+        void translateTo(E event, A arg);
+    }
+
+    public interface ExceptionHandler<E> {
+        /*
+         * Called on the stage's thread before the stage moves past the event; must not throw.
+         */
+        void onException(Exception e, E event, long sequence, Stage<E> stage);
+    }
+
+    private final Object[] entries;
+    private final int mask;
+    private final int indexShift;
+    // Lap number of the sequence last published into each slot
+    private final AtomicIntegerArray available;
+    private final WaitStrategy waitStrategy;
+    private final Sequence cursor = new Sequence(-1);
+    private final Sequence gatingCache = new Sequence(-1);
+    private final List<Stage<E>> stages = new ArrayList<>();
+    private volatile Sequence[] gating = new Sequence[0];
+    private volatile boolean started;
+    private ExceptionHandler<E> exceptionHandler = (e, event, sequence, stage) ->
+            System.out.println("EventRing stage " + stage.getName() + " failed on sequence " + sequence + ": " + e);
+
+    public EventRing(int capacity, Supplier<E> factory, WaitStrategy waitStrategy) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.entries = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = factory.get();
+        }
+        this.mask = capacity - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(capacity);
+        this.available = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            available.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /*
+     * Adds a stage that sees each event after all of dependsOn have (after the producers, when
+     * dependsOn is empty). Stages must be added before start().
+     */
+    @SafeVarargs
+    public final Stage<E> addStage(String name, EventHandler<E> handler, Stage<E>... dependsOn) {
+        if (started) {
+            throw new IllegalStateException("stages must be added before start()");
+        }
+        Sequence[] barrier = new Sequence[dependsOn.length];
+        for (int i = 0; i < dependsOn.length; i++) {
+            barrier[i] = dependsOn[i].sequence;
+            dependsOn[i].hasDependents = true;
+        }
+        Stage<E> stage = new Stage<>(this, name, handler, barrier);
+        stages.add(stage);
+        return stage;
+    }
+
+    /*
+     * Where stage failures go; set before start().
+     */
+    public EventRing<E> onException(ExceptionHandler<E> handler) {
+        if (started) {
+            throw new IllegalStateException("the exception handler must be set before start()");
+        }
+        this.exceptionHandler = handler;
+        return this;
+    }
+
+    public void start() {
+        List<Sequence> terminal = new ArrayList<>();
+        for (Stage<E> stage : stages) {
+            if (!stage.hasDependents) {
+                terminal.add(stage.sequence);
+            }
+        }
+        gating = terminal.toArray(new Sequence[0]);
+        started = true;
+        for (Stage<E> stage : stages) {
+            stage.thread.start();
+        }
+    }
+
+    /*
+     * Claims the next sequence; waits while that would lap the slowest final stage.
+     */
+    public long next() {
+        return next(1);
+    }
+
+    /*
+     * Claims n consecutive sequences and returns the highest.
+     */
+    public long next(int n) {
+        if (n < 1 || n > entries.length) {
+            throw new IllegalArgumentException("n must be between 1 and the capacity: " + n);
+        }
+        int tries = 0;
+        while (true) {
+            long current = cursor.getVolatile();
+            long next = current + n;
+            long wrapPoint = next - entries.length;
+            long cachedGating = gatingCache.getVolatile();
+            if (wrapPoint > cachedGating || cachedGating > current) {
+                long slowest = minimum(gating, current);
+                if (wrapPoint > slowest) {
+                    idle(tries++);
+                    continue;
+                }
+                gatingCache.setRelease(slowest);
+            } else if (cursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & mask];
+    }
+
+    public void publish(long sequence) {
+        available.setRelease((int) sequence & mask, (int) (sequence >>> indexShift));
+    }
+
+    public void publish(long low, long high) {
+        for (long sequence = low; sequence <= high; sequence++) {
+            publish(sequence);
+        }
+    }
+
+    /*
+     * Claims a slot, lets the translator fill in its event and publishes it. A translator that
+     * captures nothing (e.g. a method reference on the event type) keeps this allocation-free.
+     */
+    public <A> void publishEvent(EventTranslator<E, A> translator, A arg) {
+        long sequence = next();
+        try {
+            translator.translateTo(get(sequence), arg);
+        } finally {
+            publish(sequence);
+        }
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    /*
+     * Waits for every stage to finish the events published so far, then stops the stage
+     * threads. Producers must have stopped publishing.
+     */
+    @Override
+    public void close() {
+        long last = cursor.getVolatile();
+        if (started) {
+            for (Stage<E> stage : stages) {
+                int tries = 0;
+                while (stage.sequence.getVolatile() < last && stage.thread.isAlive()) {
+                    idle(tries++);
+                }
+            }
+        }
+        for (Stage<E> stage : stages) {
+            stage.running = false;
+            LockSupport.unpark(stage.thread);
+        }
+        for (Stage<E> stage : stages) {
+            try {
+                stage.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean isPublished(long sequence) {
+        return available.getAcquire((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    /*
+     * Highest sequence from low onwards up to which everything is published; low - 1 if low
+     * itself isn't.
+     */
+    private long highestPublished(long low, long claimed) {
+        for (long sequence = low; sequence <= claimed; sequence++) {
+            if (!isPublished(sequence)) {
+                return sequence - 1;
+            }
+        }
+        return claimed;
+    }
+
+    private static long minimum(Sequence[] sequences, long ceiling) {
+        long min = ceiling;
+        for (Sequence sequence : sequences) {
+            min = Math.min(min, sequence.getVolatile());
+        }
+        return min;
+    }
+
+    private void idle(int tries) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                if (tries < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                break;
+            default:
+                if (tries < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else if (tries < 2 * SPIN_TRIES) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+        }
+    }
+
+    public static final class Stage<E> {
+        private final EventRing<E> ring;
+        private final String name;
+        private final EventHandler<E> handler;
+        private final Sequence[] barrier;
+        private final Sequence sequence = new Sequence(-1);
+        private final Thread thread;
+        private volatile boolean running = true;
+        private boolean hasDependents;
+        // Written by the stage's thread only
+        private volatile long failed;
+
+        Stage(EventRing<E> ring, String name, EventHandler<E> handler, Sequence[] barrier) {
+            this.ring = ring;
+            this.name = name;
+            this.handler = handler;
+            this.barrier = barrier;
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /*
+         * Events whose handler threw.
+         */
+        public long getFailedCount() {
+            return failed;
+        }
+
+        /*
+         * Highest sequence this stage has finished with.
+         */
+        public long getSequence() {
+            return sequence.getVolatile();
+        }
+
+        private void run() {
+            long next = sequence.getVolatile() + 1;
+            while (true) {
+                long available = waitFor(next);
+                if (available < next) {
+                    return;
+                }
+                for (long s = next; s <= available; s++) {
+                    E event = ring.get(s);
+                    try {
+                        handler.onEvent(event, s, s == available);
+                    } catch (Exception e) {
+                        // One bad event must not stall every stage behind this one
+                        failed++;
+                        ring.exceptionHandler.onException(e, event, s, this);
+                    }
+                }
+                sequence.setRelease(available);
+                next = available + 1;
+            }
+        }
+
+        /*
+         * Highest sequence at or after next that this stage may process, or next - 1 once the
+         * ring is closed.
+         */
+        private long waitFor(long next) {
+            int tries = 0;
+            while (true) {
+                long available = barrier.length == 0
+                        ? ring.highestPublished(next, ring.cursor.getVolatile())
+                        : minimum(barrier, Long.MAX_VALUE);
+                if (available >= next) {
+                    return available;
+                }
+                if (!running) {
+                    return next - 1;
+                }
+                ring.idle(tries++);
+            }
+        }
+    }
+}
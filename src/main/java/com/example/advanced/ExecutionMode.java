@@ -0,0 +1,41 @@
+package com.example.advanced;
+
+/*
+ * How the assignment's task runners (Runner, SemaphoreWorker, Reader/Writer, producers and
+ * consumers, the transfer threads) get a thread:
+ * - PLATFORM: a new platform thread per task, as before; each reserves a full stack and a
+ *   kernel thread, which caps a run at a few thousand parties;
+ * - FIXED_POOL: tasks share FIXED_POOL_THREADS platform threads (or fewer, for fewer tasks).
+ *   Tasks past the pool size queue, so parties that wait on each other, like Runners at a
+ *   barrier, deadlock once there are more of them than threads;
+ * - VIRTUAL: a virtual thread per task (Java 21+). Blocking unmounts it from its carrier unless
+ *   it is pinned, e.g. blocking inside synchronized; TaskRunner.detectPinning() reports those.
+ *
+ * Chosen with -DexecutionMode=PLATFORM|FIXED_POOL|VIRTUAL; the default is PLATFORM.
+ */
+public enum ExecutionMode {
+    PLATFORM, FIXED_POOL, VIRTUAL;
+
+    static final int FIXED_POOL_THREADS = Integer.getInteger("executionMode.poolThreads", 64);
+
+    public static ExecutionMode fromProperty() {
+        ExecutionMode mode = valueOf(System.getProperty("executionMode", PLATFORM.name()));
+        if (!mode.isAvailable()) {
+            System.out.println("ExecutionMode: " + mode + " needs Java 21+, running on "
+                    + System.getProperty("java.version") + "; using PLATFORM");
+            return PLATFORM;
+        }
+        return mode;
+    }
+
+    public boolean isAvailable() {
+        return this != VIRTUAL || VirtualThreads.isAvailable();
+    }
+
+    /*
+     * A runner for about `parties` tasks; FIXED_POOL sizes its pool from it.
+     */
+    public TaskRunner newRunner(int parties) {
+        return new TaskRunner(this, parties);
+    }
+}
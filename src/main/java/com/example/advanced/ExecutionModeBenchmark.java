@@ -0,0 +1,235 @@
+package com.example.advanced;
+
+import com.example.basic.Buffer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * What each ExecutionMode costs per party, and which blocking would pin a virtual thread.
+ *
+ * Footprint: for 64, 1k, 10k and 100k parties, every party registers in a PhaseEngine and
+ * waits at phase 0, as Runners wait at a leg barrier. When the last one arrives the phase hook
+ * records the time since the first was started, and heap (after a GC) and resident memory
+ * (VmRSS) against a baseline taken before, so the figures are for that many parties alive and
+ * blocked at once. Every mode that can hold that many parties runs; the rest are printed with
+ * the reason:
+ * - PLATFORM past platformLimit: each is a kernel thread and pid_max / ulimit -u cap them;
+ * - FIXED_POOL past its pool size (64, or -DexecutionMode.poolThreads): queued parties never
+ *   reach the barrier, so it deadlocks. At 64 parties every one gets a pool thread and it runs;
+ * - VIRTUAL before Java 21.
+ * The footprint runs never sample for pinning, even with -DexecutionMode.detectPinning=true,
+ * so the sampler's thread dumps stay out of their times.
+ *
+ * Pinning: the same small workloads run under TaskRunner.detectPinning() in the selected mode:
+ * Bank.transfer on two contended accounts, basic.Buffer producers and consumers, and the
+ * synchronized wait/notify buffer basic.Buffer used to be. Only the last should be reported.
+ *
+ * Usage: ExecutionModeBenchmark [platformLimit] [mode for the pinning runs]
+ * Many platform threads want a smaller stack and a larger limit, e.g. -Xss256k, ulimit -u.
+ */
+public class ExecutionModeBenchmark {
+    private static final int[] PARTY_COUNTS = {64, 1_000, 10_000, 100_000};
+    private static final int PINNING_THREADS = 4;
+    private static final int PINNING_OPS = 100_000;
+
+    private static final class Footprint {
+        long startedAt;
+        double startupMillis;
+        long heapBytes;
+        long rssBytes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int platformLimit = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        ExecutionMode pinningMode = args.length > 1 ? ExecutionMode.valueOf(args[1]) : ExecutionMode.fromProperty();
+
+        // JIT warm-up
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            if (mode.isAvailable()) {
+                footprint(mode, 64);
+            }
+        }
+
+        System.out.printf("Java %s, %d CPU(s), max heap %,d MB%n", System.getProperty("java.version"),
+                Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() >> 20);
+        System.out.printf("%-11s %8s %12s %12s %14s %14s%n", "mode", "parties", "startup ms", "us/party",
+                "heap B/party", "RSS B/party");
+        for (int parties : PARTY_COUNTS) {
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                String skipped = skipReason(mode, parties, platformLimit);
+                if (skipped != null) {
+                    System.out.printf("%-11s %,8d   skipped: %s%n", mode, parties, skipped);
+                    continue;
+                }
+                Footprint f = footprint(mode, parties);
+                System.out.printf("%-11s %,8d %,12.1f %,12.2f %,14d %,14d%n", mode, parties, f.startupMillis,
+                        f.startupMillis * 1e3 / parties, f.heapBytes / parties, f.rssBytes / parties);
+            }
+        }
+
+        System.out.printf("%nPinning hazards, %s mode, %d threads per workload:%n", pinningMode, PINNING_THREADS);
+        pinning("Bank.transfer", pinningMode, ExecutionModeBenchmark::transfers);
+        pinning("basic.Buffer", pinningMode, ExecutionModeBenchmark::ringBuffer);
+        pinning("synchronized buffer", pinningMode, ExecutionModeBenchmark::monitorBuffer);
+    }
+
+    private static String skipReason(ExecutionMode mode, int parties, int platformLimit) {
+        if (!mode.isAvailable()) {
+            return "needs Java 21+";
+        }
+        if (mode == ExecutionMode.PLATFORM && parties > platformLimit) {
+            return "over platformLimit " + platformLimit + " kernel threads";
+        }
+        if (mode == ExecutionMode.FIXED_POOL && parties > ExecutionMode.FIXED_POOL_THREADS) {
+            return "parties past the " + ExecutionMode.FIXED_POOL_THREADS + " pool threads would never arrive";
+        }
+        return null;
+    }
+
+    private static Footprint footprint(ExecutionMode mode, int parties) throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long rssBefore = residentBytes();
+        Footprint f = new Footprint();
+        PhaseEngine<Long> engine = new PhaseEngine<>(0L, Long::sum, (phase, combined, count) -> {
+            f.startupMillis = (System.nanoTime() - f.startedAt) / 1e6;
+            System.gc();
+            f.heapBytes = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+            f.rssBytes = residentBytes() - rssBefore;
+            return true;
+        });
+        f.startedAt = System.nanoTime();
+        try (TaskRunner runner = new TaskRunner(mode, parties, false)) {
+            engine.run(parties, runner, (party, phase) -> 1L);
+        }
+        return f;
+    }
+
+    /*
+     * VmRSS from /proc/self/status, or 0 where there is none.
+     */
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return 0;
+    }
+
+    private interface Workload {
+        /*
+         * Starts the workload's tasks on the runner.
+         */
+        void start(TaskRunner runner);
+    }
+
+    private static void pinning(String label, ExecutionMode mode, Workload workload) throws InterruptedException {
+        System.out.println("-- " + label);
+        long begin = System.nanoTime();
+        try (TaskRunner runner = mode.newRunner(PINNING_THREADS).detectPinning()) {
+            workload.start(runner);
+            runner.joinAll();
+            System.out.printf("   %.0f ms%n", (System.nanoTime() - begin) / 1e6);
+        }
+    }
+
+    // Every transfer takes the same two account locks, so the threads keep contending
+    private static void transfers(TaskRunner runner) {
+        Bank bank = new Bank(false);
+        bank.addAccount(new Account(1, 1_000_000));
+        bank.addAccount(new Account(2, 1_000_000));
+        for (int t = 0; t < PINNING_THREADS; t++) {
+            int direction = t % 2;
+            runner.start("Transfer-" + t, () -> {
+                for (int i = 0; i < PINNING_OPS; i++) {
+                    bank.transfer(1 + direction, 2 - direction, 1);
+                }
+            });
+        }
+    }
+
+    private static void ringBuffer(TaskRunner runner) {
+        Buffer buffer = new Buffer(16);
+        startPairs(runner, buffer::put, buffer::get);
+    }
+
+    private static void monitorBuffer(TaskRunner runner) {
+        MonitorBuffer buffer = new MonitorBuffer(16);
+        startPairs(runner, buffer::put, buffer::get);
+    }
+
+    private interface Put {
+        void put(int value) throws InterruptedException;
+    }
+
+    private interface Get {
+        int get() throws InterruptedException;
+    }
+
+    private static void startPairs(TaskRunner runner, Put put, Get get) {
+        AtomicLong sum = new AtomicLong();
+        for (int p = 0; p < PINNING_THREADS / 2; p++) {
+            runner.start("Producer-" + p, () -> {
+                try {
+                    for (int i = 0; i < PINNING_OPS; i++) {
+                        put.put(i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            runner.start("Consumer-" + p, () -> {
+                try {
+                    for (int i = 0; i < PINNING_OPS; i++) {
+                        sum.addAndGet(get.get());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+
+    /*
+     * The bounded buffer as basic.Buffer was first written: wait/notifyAll on its own monitor.
+     */
+    private static final class MonitorBuffer {
+        private final int[] data;
+        private int head;
+        private int count;
+
+        MonitorBuffer(int size) {
+            data = new int[size];
+        }
+
+        synchronized void put(int value) throws InterruptedException {
+            while (count == data.length) {
+                wait();
+            }
+            data[(head + count++) % data.length] = value;
+            notifyAll();
+        }
+
+        synchronized int get() throws InterruptedException {
+            while (count == 0) {
+                wait();
+            }
+            int value = data[head];
+            head = (head + 1) % data.length;
+            count--;
+            notifyAll();
+            return value;
+        }
+    }
+}
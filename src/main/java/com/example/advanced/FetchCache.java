@@ -0,0 +1,195 @@
+package com.example.advanced;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/*
+ * Response cache in front of a fetch loader (e.g. FetchEngine running UrlFetchers).
+ *
+ * - Single flight: the first request for a URL installs its in-flight future in the map and
+ *   every concurrent request for that URL gets the same future, so one load serves them all.
+ * - Freshness: an entry is served as-is for ttl after it loaded. For a further stale window
+ *   it is still served immediately while one background reload replaces it
+ *   (stale-while-revalidate). After that it counts as a miss.
+ * - Size bound: past maximumSize, a clock hand sweeps the map, samples a few loaded entries
+ *   and evicts the one the TinyLFU frequency sketch rates least popular. Only one thread
+ *   sweeps at a time and the others never wait for it.
+ * Failed loads are not cached.
+ */
+public class FetchCache {
+    private static final int EVICTION_SAMPLE = 8;
+
+    private final Function<String, CompletableFuture<String>> loader;
+    private final int maximumSize;
+    private final long ttlNanos;
+    private final long staleNanos;
+
+    private final ConcurrentHashMap<String, Entry> map = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private Iterator<Map.Entry<String, Entry>> clockHand;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public FetchCache(Function<String, CompletableFuture<String>> loader, int maximumSize,
+                      long ttl, long staleWhileRevalidate, TimeUnit unit) {
+        this.loader = loader;
+        this.maximumSize = maximumSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.staleNanos = unit.toNanos(staleWhileRevalidate);
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    public CompletableFuture<String> get(String url) {
+        sketch.increment(url);
+        while (true) {
+            Entry entry = map.get(url);
+            if (entry != null) {
+                if (!entry.value.isDone()) {
+                    coalesced.increment();
+                    return entry.value;
+                }
+                long age = System.nanoTime() - entry.loadedAt;
+                if (age < ttlNanos) {
+                    hits.increment();
+                    return entry.value;
+                }
+                if (age < ttlNanos + staleNanos) {
+                    staleHits.increment();
+                    refresh(url, entry);
+                    return entry.value;
+                }
+            }
+
+            Entry loading = new Entry();
+            boolean installed = entry == null
+                    ? map.putIfAbsent(url, loading) == null
+                    : map.replace(url, entry, loading);
+            if (!installed) {
+                // Someone else changed the entry first; re-read it, most likely to coalesce
+                continue;
+            }
+            misses.increment();
+            load(url, loading);
+            if (map.size() > maximumSize) {
+                evict();
+            }
+            return loading.value;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    private void load(String url, Entry entry) {
+        callLoader(url).whenComplete((value, error) -> {
+            if (error != null) {
+                map.remove(url, entry);
+                entry.value.completeExceptionally(error);
+            } else {
+                entry.loadedAt = System.nanoTime();
+                entry.value.complete(value);
+            }
+        });
+    }
+
+    private void refresh(String url, Entry stale) {
+        if (!stale.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        callLoader(url).whenComplete((value, error) -> {
+            if (error != null) {
+                stale.refreshing.set(false);
+                return;
+            }
+            Entry fresh = new Entry();
+            fresh.loadedAt = System.nanoTime();
+            fresh.value.complete(value);
+            map.replace(url, stale, fresh);
+        });
+    }
+
+    private CompletableFuture<String> callLoader(String url) {
+        try {
+            return loader.apply(url);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            while (map.size() > maximumSize) {
+                Map.Entry<String, Entry> victim = null;
+                int victimFrequency = Integer.MAX_VALUE;
+                for (int sampled = 0; sampled < EVICTION_SAMPLE; sampled++) {
+                    if (clockHand == null || !clockHand.hasNext()) {
+                        clockHand = map.entrySet().iterator();
+                        if (!clockHand.hasNext()) {
+                            break;
+                        }
+                    }
+                    Map.Entry<String, Entry> candidate = clockHand.next();
+                    if (!candidate.getValue().value.isDone()) {
+                        // Never evict a load others may be coalescing on
+                        continue;
+                    }
+                    int frequency = sketch.frequency(candidate.getKey());
+                    if (frequency < victimFrequency) {
+                        victim = candidate;
+                        victimFrequency = frequency;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                if (map.remove(victim.getKey(), victim.getValue())) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Entry {
+        final CompletableFuture<String> value = new CompletableFuture<>();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile long loadedAt;
+    }
+}
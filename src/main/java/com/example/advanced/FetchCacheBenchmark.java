@@ -0,0 +1,78 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/*
+ * Zipf-distributed URL workload against UrlFetcher, with and without FetchCache in front.
+ * Reports mean request latency and how many fetches actually reached the origin.
+ *
+ * Usage: FetchCacheBenchmark [clients] [requestsPerClient] [urls] [cacheSize]
+ */
+public class FetchCacheBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int urls = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        int cacheSize = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        ZipfGenerator zipf = new ZipfGenerator(urls, 0.99);
+
+        try (FetchEngine engine = new FetchEngine(10_000, 2_000)) {
+            LongAdder originFetches = new LongAdder();
+            Function<String, CompletableFuture<String>> origin = url -> {
+                originFetches.increment();
+                return engine.submit(new UrlFetcher(url, false));
+            };
+
+            System.out.printf("%d clients x %d requests, Zipf(0.99) over %d URLs, cache size %d%n",
+                    clients, requestsPerClient, urls, cacheSize);
+
+            double uncached = run(origin, clients, requestsPerClient, zipf);
+            long uncachedFetches = originFetches.sumThenReset();
+            System.out.printf("%-10s mean latency %6.1f ms, origin fetches %,d%n", "uncached", uncached,
+                    uncachedFetches);
+
+            FetchCache cache = new FetchCache(origin, cacheSize, 3, 10, TimeUnit.SECONDS);
+            double cached = run(cache::get, clients, requestsPerClient, zipf);
+            long cachedFetches = originFetches.sum();
+            System.out.printf("%-10s mean latency %6.1f ms, origin fetches %,d%n", "cached", cached, cachedFetches);
+            System.out.printf("hits %,d, stale hits %,d, misses %,d, coalesced %,d, evictions %,d%n",
+                    cache.getHitCount(), cache.getStaleHitCount(), cache.getMissCount(),
+                    cache.getCoalescedCount(), cache.getEvictionCount());
+            System.out.printf("latency -%.0f%%, origin load -%.0f%%%n", 100 * (1 - cached / uncached),
+                    100 * (1 - (double) cachedFetches / uncachedFetches));
+        }
+    }
+
+    private static double run(Function<String, CompletableFuture<String>> fetch, int clients,
+                              int requestsPerClient, ZipfGenerator zipf) throws InterruptedException {
+        LongAdder totalNanos = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Thread client = new Thread(() -> {
+                for (int i = 0; i < requestsPerClient; i++) {
+                    String url = "someurl" + zipf.next();
+                    long start = System.nanoTime();
+                    try {
+                        fetch.apply(url).join();
+                    } catch (CompletionException e) {
+                        // Timed-out fetches still count towards latency
+                    }
+                    totalNanos.add(System.nanoTime() - start);
+                }
+            }, "Client-" + c);
+            threads.add(client);
+            client.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return totalNanos.sum() / 1e6 / ((long) clients * requestsPerClient);
+    }
+}
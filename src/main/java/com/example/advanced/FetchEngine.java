@@ -0,0 +1,216 @@
+package com.example.advanced;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Asynchronous fetch engine for UrlFetcher-style callables.
+ *
+ * - submit() returns a CompletableFuture immediately; at most maxConcurrency fetches run at
+ *   once and the rest wait in a lock-free pending queue, not on a blocked thread.
+ * - Each fetch gets a deadline counted from the moment it starts. The deadline is a timer
+ *   (CompletableFuture.orTimeout), so nothing sits blocked waiting for it; when it fires
+ *   the fetch is interrupted and its permit goes to the next pending one at once. A fetch
+ *   that ignores the interrupt keeps its thread until it returns, but not its permit.
+ * - Fetches submitted with submitForCompletion() are also handed out by take()/poll() in
+ *   completion order, like an ExecutorCompletionService, so one slow fetch never holds up the
+ *   results behind it. Plain submit() only returns the future, so a caller that never takes
+ *   does not pile up finished fetches.
+ *
+ * By default fetches run on virtual threads (Java 21+) and otherwise on a cached pool.
+ */
+public class FetchEngine implements AutoCloseable {
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int maxConcurrency;
+    private final long deadlineMillis;
+
+    private final ConcurrentLinkedQueue<Task> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final BlockingQueue<CompletableFuture<String>> completed = new LinkedBlockingQueue<>();
+
+    public FetchEngine(int maxConcurrency, long deadlineMillis) {
+        this(VirtualThreads.isAvailable() ? VirtualThreads.newPerTaskExecutor() : Executors.newCachedThreadPool(),
+                true, maxConcurrency, deadlineMillis);
+    }
+
+    public FetchEngine(ExecutorService executor, int maxConcurrency, long deadlineMillis) {
+        this(executor, false, maxConcurrency, deadlineMillis);
+    }
+
+    private FetchEngine(ExecutorService executor, boolean ownsExecutor, int maxConcurrency, long deadlineMillis) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.maxConcurrency = maxConcurrency;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    public CompletableFuture<String> submit(Callable<String> fetcher) {
+        return submit(fetcher, deadlineMillis);
+    }
+
+    /*
+     * Same as submit(fetcher), with a deadline for this fetch instead of the engine default.
+     */
+    public CompletableFuture<String> submit(Callable<String> fetcher, long deadlineMillis) {
+        return submit(fetcher, deadlineMillis, false);
+    }
+
+    /*
+     * Same as submit(fetcher), and the future is also handed out by take()/poll() once done.
+     */
+    public CompletableFuture<String> submitForCompletion(Callable<String> fetcher) {
+        return submit(fetcher, deadlineMillis, true);
+    }
+
+    private CompletableFuture<String> submit(Callable<String> fetcher, long deadlineMillis, boolean forCompletion) {
+        Task task = new Task(fetcher, deadlineMillis);
+        task.result.whenComplete((value, error) -> {
+            // Deadline fired or the caller cancelled: stop the fetch and free its permit now
+            task.interruptRunner();
+            task.releasePermit();
+            if (forCompletion) {
+                completed.add(task.result);
+            }
+        });
+        pending.add(task);
+        dispatch();
+        return task.result;
+    }
+
+    /*
+     * Next fetch submitted with submitForCompletion() to finish, waiting if none has yet.
+     */
+    public CompletableFuture<String> take() throws InterruptedException {
+        return completed.take();
+    }
+
+    public CompletableFuture<String> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return completed.poll(timeout, unit);
+    }
+
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() {
+        Task task;
+        while ((task = pending.poll()) != null) {
+            task.result.cancel(true);
+        }
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void dispatch() {
+        while (!pending.isEmpty()) {
+            int current = running.get();
+            if (current >= maxConcurrency) {
+                // Whoever holds a permit calls dispatch again when it finishes
+                return;
+            }
+            if (!running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Task task = pending.poll();
+            if (task == null || task.result.isDone()) {
+                running.decrementAndGet();
+                continue;
+            }
+            task.start();
+        }
+    }
+
+    private final class Task implements Runnable {
+        final Callable<String> fetcher;
+        final long deadlineMillis;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        // Set once dispatched; the permit is released by whoever clears it
+        private final AtomicBoolean holdsPermit = new AtomicBoolean();
+        // Guarded by this task's monitor, so an interrupt can never hit the thread's next task
+        private Thread runner;
+
+        Task(Callable<String> fetcher, long deadlineMillis) {
+            this.fetcher = fetcher;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        /*
+         * Called from dispatch() only. A task that ends here gives its permit back without
+         * calling dispatch(), whose loop carries on: a rejecting executor would otherwise recurse
+         * once per pending task.
+         */
+        void start() {
+            holdsPermit.set(true);
+            if (result.isDone()) {
+                // Cancelled between dispatch's check and here; whenComplete may have missed the permit
+                returnPermit();
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {
+                returnPermit();
+                result.completeExceptionally(e);
+            }
+        }
+
+        // Called when the result completes, however it does
+        void releasePermit() {
+            if (returnPermit()) {
+                dispatch();
+            }
+        }
+
+        private boolean returnPermit() {
+            if (holdsPermit.compareAndSet(true, false)) {
+                running.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (this) {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    runner = Thread.currentThread();
+                }
+                // The deadline counts from here, not from time spent queued in the executor
+                result.orTimeout(deadlineMillis, TimeUnit.MILLISECONDS);
+                result.complete(fetcher.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // Drop an interrupt that raced with completion before the thread moves on
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        synchronized void interruptRunner() {
+            if (runner != null && runner != Thread.currentThread()) {
+                runner.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.advanced;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * FetchEngine against runTask2's original design (fixed pool of 5, Future.get(400 ms) in
+ * submission order), then FetchEngine at tens of thousands of concurrent simulated fetches.
+ *
+ * Usage: FetchEngineBenchmark [smallRunFetches] [largeRunFetches] [largeRunPermits]
+ */
+public class FetchEngineBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int small = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int large = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int permits = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+
+        System.out.println("Virtual threads available: " + VirtualThreads.isAvailable());
+        System.out.printf("%-34s %10s %10s %12s %14s%n", "mode", "fetches", "timeouts", "wall ms", "fetches/sec");
+
+        fixedPoolInOrder(small);
+        engine("FetchEngine, 5 pool threads", Executors.newFixedThreadPool(5), 5, small, 400);
+        engine("FetchEngine, " + permits + " permits", null, permits, large, 2_000);
+    }
+
+    private static void fixedPoolInOrder(int fetches) {
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        long start = System.nanoTime();
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < fetches; i++) {
+            futures.add(pool.submit(new UrlFetcher("someurl" + i, false)));
+        }
+        int timeouts = 0;
+        for (Future<String> future : futures) {
+            try {
+                future.get(400, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                timeouts++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        report("fixed pool, get(400) in order", fetches, timeouts, System.nanoTime() - start);
+        pool.shutdownNow();
+    }
+
+    private static void engine(String label, ExecutorService pool, int permits, int fetches, long deadlineMillis)
+            throws InterruptedException {
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long start = System.nanoTime();
+        try (FetchEngine engine = pool != null
+                ? new FetchEngine(pool, permits, deadlineMillis)
+                : new FetchEngine(permits, deadlineMillis)) {
+            for (int i = 0; i < fetches; i++) {
+                engine.submitForCompletion(new UrlFetcher("someurl" + i, false));
+            }
+            int timeouts = 0;
+            int peakThreads = 0;
+            for (int i = 0; i < fetches; i++) {
+                CompletableFuture<String> fetch = engine.take();
+                try {
+                    fetch.join();
+                } catch (CompletionException e) {
+                    timeouts++;
+                }
+                if ((i & 1023) == 0) {
+                    peakThreads = Math.max(peakThreads, ManagementFactory.getThreadMXBean().getThreadCount());
+                }
+            }
+            report(label, fetches, timeouts, System.nanoTime() - start);
+            System.out.printf("    platform threads: %d before, %d peak%n", threadsBefore, peakThreads);
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void report(String label, int fetches, int timeouts, long elapsedNanos) {
+        System.out.printf("%-34s %10d %10d %12d %,14.0f%n", label, fetches, timeouts,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), fetches * 1_000_000_000.0 / elapsedNanos);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.advanced;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Streaming SLO instrumentation for fetch jobs: total bytes downloaded, request and failure
+ * counts, and a latency histogram.
+ *
+ * instrument() wraps a fetcher; each call adds its byte count and latency on the way out.
+ * Everything is LongAdders plus one LatencyHistogram increment - no locks and no allocation
+ * per request - and snapshot() can be read at any time while fetches are still running.
+ */
+public class FetchStats {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /*
+     * Wraps a fetcher whose result is the page size in bytes, as UrlFetcher's is.
+     */
+    public Callable<String> instrument(Callable<String> fetcher) {
+        return () -> {
+            long start = System.nanoTime();
+            boolean ok = false;
+            try {
+                String result = fetcher.call();
+                bytes.add(Integer.parseInt(result));
+                ok = true;
+                return result;
+            } finally {
+                record(System.nanoTime() - start, ok);
+            }
+        };
+    }
+
+    public void record(long latencyNanos, boolean succeeded) {
+        requests.increment();
+        totalNanos.add(latencyNanos);
+        latency.record(latencyNanos);
+        if (!succeeded) {
+            failures.increment();
+        }
+    }
+
+    public void addBytes(long count) {
+        bytes.add(count);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(requests.sum(), failures.sum(), bytes.sum(), totalNanos.sum(),
+                latency.valueAtPercentile(50), latency.valueAtPercentile(99), latency.valueAtPercentile(99.9));
+    }
+
+    public static class Snapshot {
+        private final long requests;
+        private final long failures;
+        private final long bytes;
+        private final long totalNanos;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        private final long p999Nanos;
+
+        Snapshot(long requests, long failures, long bytes, long totalNanos, long p50Nanos, long p99Nanos,
+                 long p999Nanos) {
+            this.requests = requests;
+            this.failures = failures;
+            this.bytes = bytes;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.p999Nanos = p999Nanos;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getAverageMillis() {
+            return requests == 0 ? 0 : totalNanos / 1e6 / requests;
+        }
+
+        public long getP50Millis() {
+            return TimeUnit.NANOSECONDS.toMillis(p50Nanos);
+        }
+
+        public long getP99Millis() {
+            return TimeUnit.NANOSECONDS.toMillis(p99Nanos);
+        }
+
+        public long getP999Millis() {
+            return TimeUnit.NANOSECONDS.toMillis(p999Nanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests (%d failed), %,d bytes, avg %.1f ms, p50 %d ms, p99 %d ms, p99.9 %d ms",
+                    requests, failures, bytes, getAverageMillis(), getP50Millis(), getP99Millis(), getP999Millis());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.advanced;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Per-request cost of FetchStats: a fetcher that returns a fixed page size is called in a tight
+ * loop bare and wrapped by instrument(), single-threaded and from several threads at once
+ * sharing one FetchStats. The difference is the instrumentation overhead per request.
+ *
+ * Usage: FetchStatsBenchmark [callsPerThread] [threads]
+ */
+public class FetchStatsBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        Callable<String> fetcher = () -> "1234";
+
+        System.out.printf("%d calls per thread, best of %d rounds%n", calls, ROUNDS);
+        System.out.printf("%8s %12s %14s %12s%n", "threads", "bare ns", "instrumented", "overhead ns");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double bare = Double.MAX_VALUE;
+            double instrumented = Double.MAX_VALUE;
+            FetchStats stats = new FetchStats();
+            Callable<String> wrapped = stats.instrument(fetcher);
+            for (int round = 0; round < ROUNDS; round++) {
+                bare = Math.min(bare, nanosPerCall(fetcher, calls, threads));
+                instrumented = Math.min(instrumented, nanosPerCall(wrapped, calls, threads));
+            }
+            System.out.printf("%8d %12.1f %14.1f %12.1f%n", threads, bare, instrumented, instrumented - bare);
+            if (stats.snapshot().getRequests() != (long) ROUNDS * calls * threads) {
+                System.out.println("    lost updates: " + stats.snapshot());
+            }
+        }
+    }
+
+    private static double nanosPerCall(Callable<String> fetcher, int calls, int threads) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        LongAdder sink = new LongAdder();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    long length = 0;
+                    for (int i = 0; i < calls; i++) {
+                        length += fetcher.call().length();
+                    }
+                    // Keep the JIT from dropping the loop
+                    sink.add(length);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        // Wall-clock time per call across all threads, so contention shows up as a higher cost
+        return (double) (System.nanoTime() - begin) / ((long) calls * threads);
+    }
+}
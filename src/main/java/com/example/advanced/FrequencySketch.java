@@ -0,0 +1,73 @@
+package com.example.advanced;
+
+/*
+ * Count-min sketch of access frequencies, the admission filter of TinyLFU.
+ *
+ * Four rows of 4-bit saturating counters (stored one per byte for clarity). Once the
+ * number of increments reaches ten times the tracked capacity every counter is halved, so
+ * the estimates follow recent popularity instead of all-time counts.
+ *
+ * Updates are deliberately unsynchronized: a lost increment under a race only makes an
+ * estimate slightly low, which a frequency heuristic tolerates, and it keeps the sketch
+ * off every reader's critical path.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final int MAX_COUNT = 15;
+
+    private final byte[] table;
+    private final int width;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        int w = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+        this.width = w;
+        this.table = new byte[SEEDS.length * w];
+        this.sampleSize = 10 * Math.max(maximumSize, 16);
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            frequency = Math.min(frequency, table[indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int index = indexOf(hash, row);
+            if (table[index] < MAX_COUNT) {
+                table[index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (byte) (table[i] >>> 1);
+        }
+        additions = sampleSize / 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return row * width + ((int) h & (width - 1));
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
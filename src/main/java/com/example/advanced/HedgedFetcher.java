@@ -0,0 +1,212 @@
+package com.example.advanced;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Hedged, adaptive-timeout fetching on top of FetchEngine.
+ *
+ * Attempt latencies go into a rolling latency histogram (the current window plus the one
+ * before it). From that:
+ * - the timeout for a request is timeoutMultiplier x the observed p99, clamped to
+ *   [minTimeout, maxTimeout], instead of a hand-picked constant;
+ * - if the first attempt hasn't answered by the hedge percentile (p95 by default) a second
+ *   attempt is sent, whichever answers first wins and the other is cancelled.
+ * The hedge gets only what is left of the request's timeout, counted from fetch(), and that
+ * deadline also runs while the hedge waits behind the engine's concurrency limit, so hedging
+ * never extends a request. Until enough samples exist the timeout is maxTimeout and nothing is
+ * hedged.
+ */
+public class HedgedFetcher implements AutoCloseable {
+    private static final int MIN_SAMPLES = 100;
+    private static final long REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final FetchEngine engine;
+    private final boolean hedging;
+    private final double hedgePercentile;
+    private final double timeoutMultiplier;
+    private final long minTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "HedgedFetcher-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile LatencyHistogram previous = new LatencyHistogram();
+    private volatile long windowStart = System.nanoTime();
+    private volatile Limits limits;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public HedgedFetcher(FetchEngine engine, boolean hedging) {
+        this(engine, hedging, 95, 1.5, 50, 5_000);
+    }
+
+    public HedgedFetcher(FetchEngine engine, boolean hedging, double hedgePercentile, double timeoutMultiplier,
+                         long minTimeoutMillis, long maxTimeoutMillis) {
+        this.engine = engine;
+        this.hedging = hedging;
+        this.hedgePercentile = hedgePercentile;
+        this.timeoutMultiplier = timeoutMultiplier;
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+        this.limits = new Limits(System.nanoTime(), maxTimeoutMillis, 0);
+    }
+
+    public CompletableFuture<String> fetch(String url) {
+        requests.increment();
+        Limits l = limits();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(l.timeoutMillis);
+        CompletableFuture<String> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        attempt(url, l.timeoutMillis, result, outstanding, false);
+
+        if (hedging && l.hedgeDelayMillis > 0 && l.hedgeDelayMillis < l.timeoutMillis) {
+            ScheduledFuture<?> hedge = scheduler.schedule(() -> {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis > 0 && !result.isDone() && outstanding.incrementAndGet() > 1) {
+                    hedges.increment();
+                    attempt(url, remainingMillis, result, outstanding, true);
+                }
+            }, l.hedgeDelayMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, error) -> hedge.cancel(false));
+        }
+        return result;
+    }
+
+    private void attempt(String url, long timeoutMillis, CompletableFuture<String> result,
+                         AtomicInteger outstanding, boolean isHedge) {
+        attempts.increment();
+        long start = System.nanoTime();
+        CompletableFuture<String> attempt = engine.submit(new UrlFetcher(url, false), timeoutMillis);
+        if (isHedge) {
+            // The engine's deadline only starts when the task runs; this one starts now, so a
+            // hedge still queued at the request's deadline fails instead of running late
+            attempt.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        // Whichever attempt finishes first, the other one is cancelled (and interrupted)
+        result.whenComplete((value, error) -> attempt.cancel(true));
+        attempt.whenComplete((value, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof CancellationException) {
+                return;
+            }
+            if (cause instanceof TimeoutException) {
+                // Censored sample: the attempt took at least this long
+                record(TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            } else if (cause == null) {
+                record(System.nanoTime() - start);
+            }
+
+            if (cause == null) {
+                if (result.complete(value) && isHedge) {
+                    hedgeWins.increment();
+                }
+            } else if (outstanding.decrementAndGet() == 0) {
+                if (cause instanceof TimeoutException) {
+                    timeouts.increment();
+                }
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    private void record(long nanos) {
+        long now = System.nanoTime();
+        if (now - windowStart > WINDOW_NANOS) {
+            rotate(now);
+        }
+        current.record(nanos);
+    }
+
+    private synchronized void rotate(long now) {
+        if (now - windowStart > WINDOW_NANOS) {
+            LatencyHistogram oldest = previous;
+            oldest.reset();
+            previous = current;
+            current = oldest;
+            windowStart = now;
+        }
+    }
+
+    private Limits limits() {
+        Limits l = limits;
+        long now = System.nanoTime();
+        if (now - l.computedAt < REFRESH_NANOS) {
+            return l;
+        }
+        LatencyHistogram cur = current;
+        LatencyHistogram prev = previous;
+        if (cur.getCount() + prev.getCount() < MIN_SAMPLES) {
+            l = new Limits(now, maxTimeoutMillis, 0);
+        } else {
+            long p99 = LatencyHistogram.valueAtPercentile(99, cur, prev);
+            long hedgeAt = LatencyHistogram.valueAtPercentile(hedgePercentile, cur, prev);
+            long timeout = Math.round(TimeUnit.NANOSECONDS.toMillis(p99) * timeoutMultiplier);
+            l = new Limits(now, Math.max(minTimeoutMillis, Math.min(maxTimeoutMillis, timeout)),
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(hedgeAt)));
+        }
+        limits = l;
+        return l;
+    }
+
+    public long getTimeoutMillis() {
+        return limits().timeoutMillis;
+    }
+
+    public long getHedgeDelayMillis() {
+        return limits().hedgeDelayMillis;
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getAttemptCount() {
+        return attempts.sum();
+    }
+
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private static class Limits {
+        final long computedAt;
+        final long timeoutMillis;
+        final long hedgeDelayMillis;
+
+        Limits(long computedAt, long timeoutMillis, long hedgeDelayMillis) {
+            this.computedAt = computedAt;
+            this.timeoutMillis = timeoutMillis;
+            this.hedgeDelayMillis = hedgeDelayMillis;
+        }
+    }
+}
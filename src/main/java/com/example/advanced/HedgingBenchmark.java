@@ -0,0 +1,94 @@
+package com.example.advanced;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/*
+ * Tail latency of UrlFetcher requests under runTask2's fixed 400 ms timeout, under an adaptive
+ * timeout, and with hedging on top of the adaptive timeout. Requests arrive open-loop at a
+ * fixed rate. Reports p50/p99/p99.9 of successful requests, the timeout rate and the extra
+ * load hedging adds (attempts per request).
+ *
+ * Usage: HedgingBenchmark [requests] [requestsPerSecond] [hedgePercentile]
+ */
+public class HedgingBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        double hedgePercentile = args.length > 2 ? Double.parseDouble(args[2]) : 95;
+
+        System.out.printf("%d requests at %d/sec%n", requests, rate);
+        System.out.printf("%-26s %8s %8s %8s %9s %8s %7s%n", "mode", "p50 ms", "p99 ms", "p999 ms", "timeouts",
+                "timeout", "load");
+
+        try (FetchEngine engine = new FetchEngine(10_000, 5_000)) {
+            LongAdder fixedAttempts = new LongAdder();
+            run("fixed 400 ms (runTask2)", url -> {
+                fixedAttempts.increment();
+                return engine.submit(new UrlFetcher(url, false), 400);
+            }, requests, rate, "400", fixedAttempts::sum);
+
+            try (HedgedFetcher adaptive = new HedgedFetcher(engine, false)) {
+                run(null, adaptive::fetch, requests / 4, rate, null, null);
+                run("adaptive timeout", adaptive::fetch, requests, rate, adaptive.getTimeoutMillis() + "",
+                        adaptive::getAttemptCount);
+            }
+
+            try (HedgedFetcher hedged = new HedgedFetcher(engine, true, hedgePercentile, 1.5, 50, 5_000)) {
+                run(null, hedged::fetch, requests / 4, rate, null, null);
+                long hedgesBefore = hedged.getHedgeCount();
+                long winsBefore = hedged.getHedgeWinCount();
+                run("hedged at p" + (int) hedgePercentile + " + adaptive", hedged::fetch, requests, rate,
+                        hedged.getTimeoutMillis() + "", hedged::getAttemptCount);
+                System.out.printf("    hedge delay %d ms, %d hedges sent, %d won%n", hedged.getHedgeDelayMillis(),
+                        hedged.getHedgeCount() - hedgesBefore, hedged.getHedgeWinCount() - winsBefore);
+            }
+        }
+    }
+
+    /*
+     * A null label is a warm-up pass that fills the latency histogram and isn't reported.
+     */
+    private static void run(String label, Function<String, CompletableFuture<String>> fetch, int requests,
+                            int rate, String timeout, LongSupplier attempts)
+            throws InterruptedException {
+        long attemptsBefore = attempts == null ? 0 : attempts.getAsLong();
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder failures = new LongAdder();
+        CountDownLatch done = new CountDownLatch(requests);
+        long intervalNanos = 1_000_000_000L / rate;
+        long next = System.nanoTime();
+
+        for (int i = 0; i < requests; i++) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            next += intervalNanos;
+            long start = System.nanoTime();
+            fetch.apply("someurl" + i).whenComplete((value, error) -> {
+                if (error == null) {
+                    latency.record(System.nanoTime() - start);
+                } else {
+                    failures.increment();
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+
+        if (label != null) {
+            System.out.printf("%-26s %8d %8d %8d %8.1f%% %8s %7.2f%n", label,
+                    TimeUnit.NANOSECONDS.toMillis(latency.valueAtPercentile(50)),
+                    TimeUnit.NANOSECONDS.toMillis(latency.valueAtPercentile(99)),
+                    TimeUnit.NANOSECONDS.toMillis(latency.valueAtPercentile(99.9)),
+                    100.0 * failures.sum() / requests, timeout,
+                    (double) (attempts.getAsLong() - attemptsBefore) / requests);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.advanced;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Source of unique 64-bit IDs for producers. IDs travel through the pipeline as primitive longs
+ * and are turned into text only where a person or an external system needs it, with format().
+ *
+ * - snowflake(): 41 bits of milliseconds since 2024-01-01, a 10-bit worker id and a 12-bit
+ *   sequence. Every thread that asks for IDs leases a worker id of its own, so there is no
+ *   shared counter; IDs sort roughly by creation time and stay unique across restarts.
+ * - blocks(blockSize): each thread reserves a block of consecutive numbers from one shared
+ *   counter and hands them out locally, touching the counter once per block. IDs are dense but
+ *   only unique within this process.
+ * Both allocate nothing per ID.
+ */
+public abstract class IdGenerator {
+    private static final long EPOCH_MILLIS = 1_704_067_200_000L;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    public abstract long nextId();
+
+    /*
+     * A thread keeps its worker id until it dies; the id then passes to the next new thread,
+     * together with its clock, so IDs stay unique however many threads come and go. More than
+     * 1024 live threads asking for IDs at once is an error: the 1025th gets an
+     * IllegalStateException rather than a worker id that is still in use.
+     */
+    public static IdGenerator snowflake() {
+        return new Snowflake();
+    }
+
+    public static IdGenerator blocks(int blockSize) {
+        return new Blocks(blockSize);
+    }
+
+    /*
+     * "ID-" followed by the ID in 13 Crockford base-32 digits, so text IDs sort like the numbers.
+     */
+    public static String format(long id) {
+        char[] text = new char[16];
+        text[0] = 'I';
+        text[1] = 'D';
+        text[2] = '-';
+        for (int i = 15; i >= 3; i--) {
+            text[i] = DIGITS[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(text);
+    }
+
+    private static final class Snowflake extends IdGenerator {
+        private static final int MAX_WORKERS = 1 << WORKER_BITS;
+
+        // Guarded by this. Owners are held strongly (at most MAX_WORKERS of them) so that
+        // isAlive() returning false orders the dead owner's last use before our reuse
+        private final Worker[] leased = new Worker[MAX_WORKERS];
+        private final Thread[] owners = new Thread[MAX_WORKERS];
+        private int created;
+        private int reclaimFrom;
+        private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(this::lease);
+
+        /*
+         * A fresh worker id while any are left, then the id of a thread that has died. The reused
+         * Worker keeps lastMillis, so a millisecond its old owner borrowed is not issued twice.
+         */
+        private synchronized Worker lease() {
+            Thread me = Thread.currentThread();
+            if (created < MAX_WORKERS) {
+                leased[created] = new Worker(created);
+                owners[created] = me;
+                return leased[created++];
+            }
+            for (int n = 0; n < MAX_WORKERS; n++) {
+                int i = (reclaimFrom + n) & (MAX_WORKERS - 1);
+                if (!owners[i].isAlive()) {
+                    owners[i] = me;
+                    reclaimFrom = i + 1;
+                    return leased[i];
+                }
+            }
+            throw new IllegalStateException("All " + MAX_WORKERS + " snowflake worker ids are held by live threads");
+        }
+
+        @Override
+        public long nextId() {
+            Worker worker = workers.get();
+            long now = System.currentTimeMillis() - EPOCH_MILLIS;
+            if (now > worker.lastMillis) {
+                worker.lastMillis = now;
+                worker.sequence = 0;
+            } else if (++worker.sequence > SEQUENCE_MASK) {
+                // 4096 IDs in one millisecond, or the clock stepped back: borrow the next
+                // millisecond rather than wait, so IDs keep increasing
+                worker.lastMillis++;
+                worker.sequence = 0;
+            }
+            return worker.lastMillis << (WORKER_BITS + SEQUENCE_BITS)
+                    | (long) worker.id << SEQUENCE_BITS
+                    | worker.sequence;
+        }
+
+        private static final class Worker {
+            final int id;
+            long lastMillis = -1;
+            long sequence;
+
+            Worker(int id) {
+                this.id = id;
+            }
+        }
+    }
+
+    private static final class Blocks extends IdGenerator {
+        private final int blockSize;
+        private final AtomicLong nextBlock = new AtomicLong();
+        private final ThreadLocal<long[]> blocks = ThreadLocal.withInitial(() -> new long[]{0, 0});
+
+        Blocks(int blockSize) {
+            if (blockSize < 1) {
+                throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+            }
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        public long nextId() {
+            // [0] is the next ID to hand out, [1] the end of this thread's block
+            long[] block = blocks.get();
+            if (block[0] == block[1]) {
+                block[0] = nextBlock.getAndAdd(blockSize);
+                block[1] = block[0] + blockSize;
+            }
+            return block[0]++;
+        }
+    }
+}
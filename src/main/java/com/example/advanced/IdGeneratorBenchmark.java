@@ -0,0 +1,109 @@
+package com.example.advanced;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/*
+ * IDs/sec and bytes allocated per ID for AdvancedProducer's old UUID-based text IDs against
+ * IdGenerator's snowflake and block generators, as raw longs and formatted to text, from 1 and
+ * 4 threads. Also checks that IDs from several threads never collide.
+ *
+ * Usage: IdGeneratorBenchmark [idsPerThread]
+ */
+public class IdGeneratorBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws InterruptedException {
+        int idsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        checkUnique("snowflake", IdGenerator.snowflake());
+        checkUnique("blocks(1024)", IdGenerator.blocks(1024));
+
+        System.out.printf("%,d IDs per thread%n", idsPerThread);
+        System.out.printf("%-26s %8s %14s %12s%n", "generator", "threads", "IDs/sec", "bytes/ID");
+        for (int round = 0; round < 2; round++) {
+            // The first round is JIT warm-up
+            boolean report = round == 1;
+            for (int threads : new int[]{1, 4}) {
+                run("UUID text (old)", threads, idsPerThread, report, () -> {
+                    String id = "ID-" + Thread.currentThread().getName() + "-"
+                            + UUID.randomUUID().toString().substring(0, 8);
+                    return id.length();
+                });
+                IdGenerator snowflake = IdGenerator.snowflake();
+                run("snowflake long", threads, idsPerThread, report, snowflake::nextId);
+                run("snowflake formatted", threads, idsPerThread, report,
+                        () -> IdGenerator.format(snowflake.nextId()).length());
+                IdGenerator blocks = IdGenerator.blocks(1024);
+                run("blocks(1024) long", threads, idsPerThread, report, blocks::nextId);
+                run("blocks(1024) formatted", threads, idsPerThread, report,
+                        () -> IdGenerator.format(blocks.nextId()).length());
+            }
+        }
+    }
+
+    private static void run(String label, int threads, int idsPerThread, boolean report, LongSupplier generator)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong allocated = new AtomicLong();
+        AtomicLong sink = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long before = THREADS.getCurrentThreadAllocatedBytes();
+                long sum = 0;
+                for (int i = 0; i < idsPerThread; i++) {
+                    sum += generator.getAsLong();
+                }
+                allocated.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - before);
+                // Keep the JIT from dropping the loop
+                sink.addAndGet(sum);
+            }, "Producer-" + t));
+        }
+        workers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        long total = (long) threads * idsPerThread;
+        if (report) {
+            System.out.printf("%-26s %8d %,14.0f %12.1f%n", label, threads, total * 1e9 / elapsed,
+                    (double) allocated.get() / total);
+        }
+    }
+
+    private static void checkUnique(String label, IdGenerator generator) throws InterruptedException {
+        ConcurrentHashMap<Long, Boolean> seen = new ConcurrentHashMap<>();
+        AtomicLong duplicates = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < 250_000; i++) {
+                    if (seen.putIfAbsent(generator.nextId(), Boolean.TRUE) != null) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        System.out.printf("%s: %,d IDs from 4 threads, %d duplicates%n", label, seen.size(), duplicates.get());
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.advanced;
+
+/*
+ * Reusable event for an EventRing carrying produced IDs. Producers overwrite it in place with
+ * setId; stages can keep per-event results in the value field. The ID stays a primitive long;
+ * IdGenerator.format() turns it into text where needed.
+ */
+public class ItemEvent {
+    private long id;
+    private long publishedNanos;
+    private long value;
+
+    public void setId(long id) {
+        this.id = id;
+        this.publishedNanos = System.nanoTime();
+        this.value = 0;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getPublishedNanos() {
+        return publishedNanos;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public void setValue(long value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.advanced;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * Transfers/sec with the write-ahead journal at several group-commit sizes, next to the
+ * in-memory path. Every journaled run is closed, recovered from disk and compared account by
+ * account with the live bank, with checkpoints running in the background.
+ *
+ * Usage: JournalBenchmark [threads] [transfersPerThread] [directory]
+ * Without a directory the journals go to a temporary one that is deleted afterwards.
+ */
+public class JournalBenchmark {
+    private static final int[] GROUP_COMMIT_SIZES = {1, 16, 128, 1024};
+    private static final int ACCOUNTS = 10_000;
+    private static final int INITIAL_BALANCE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int transfersPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        Path root = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("transfer-journal");
+        try {
+            run(root, threads, transfersPerThread);
+        } finally {
+            if (args.length <= 2) {
+                try (Stream<Path> files = Files.walk(root)) {
+                    for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run(Path root, int threads, int transfersPerThread) throws Exception {
+        System.out.printf("%d threads, %d transfers per thread, journal under %s%n", threads, transfersPerThread, root);
+        System.out.printf("%-14s %16s %14s %12s%n", "path", "transfers/sec", "recovery ms", "recovered ok");
+
+        double inMemory = run(newBank(), threads, transfersPerThread);
+        System.out.printf("%-14s %,16.0f %14s %12s%n", "in-memory", inMemory, "-", "-");
+
+        for (int groupSize : GROUP_COMMIT_SIZES) {
+            Path dir = root.resolve("group-" + groupSize);
+            Bank bank = newBank();
+            double rate;
+            try (TransferJournal journal = TransferJournal.open(dir, bank, groupSize)) {
+                journal.scheduleCheckpoints(bank, 200, TimeUnit.MILLISECONDS);
+                rate = run(bank, threads, transfersPerThread);
+            }
+
+            long start = System.nanoTime();
+            Bank recovered = TransferJournal.recover(dir, false);
+            long recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            System.out.printf("%-14s %,16.0f %14d %12s%n", "group " + groupSize, rate, recoveryMillis,
+                    sameBalances(bank.snapshot(), recovered.snapshot()));
+        }
+    }
+
+    private static Bank newBank() {
+        Bank bank = new Bank(false);
+        for (int i = 1; i <= ACCOUNTS; i++) {
+            bank.addAccount(new Account(i, INITIAL_BALANCE));
+        }
+        return bank;
+    }
+
+    private static double run(Bank bank, int threads, int transfersPerThread) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < transfersPerThread; i++) {
+                    int fromId = rand.nextInt(ACCOUNTS) + 1;
+                    int toId = rand.nextInt(ACCOUNTS - 1) + 1;
+                    if (toId >= fromId) {
+                        toId++;
+                    }
+                    bank.transfer(fromId, toId, rand.nextInt(200) + 1);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (double) threads * transfersPerThread * 1_000_000_000L / (System.nanoTime() - startTime);
+    }
+
+    private static boolean sameBalances(BankSnapshot expected, BankSnapshot actual) throws IOException {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        Map<Integer, Long> balances = new HashMap<>();
+        for (int i = 0; i < actual.size(); i++) {
+            balances.put(actual.getAccountId(i), actual.getBalance(i));
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (!Long.valueOf(expected.getBalance(i)).equals(balances.get(expected.getAccountId(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
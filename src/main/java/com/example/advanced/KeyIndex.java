@@ -0,0 +1,148 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Dense array of a cache's keys (or entries), so random picks cost O(1) and samples O(k)
+ * without copying the map.
+ *
+ * Writers are serialized on this object; readers take no lock. The array and the count are
+ * volatile and add() stores the element before publishing the count that covers it, so a
+ * reader sees every element below the count it read. removeAt() fills the hole with the last
+ * element; a reader racing it may see the slot's old element, its new one or null, and draws
+ * again on null.
+ */
+final class KeyIndex<E> {
+    private volatile Object[] elements = new Object[16];
+    private volatile int count;
+
+    /*
+     * Returns the element's position, for removeAt().
+     */
+    synchronized int add(E element) {
+        Object[] a = elements;
+        int n = count;
+        if (n == a.length) {
+            a = Arrays.copyOf(a, n * 2);
+            elements = a;
+        }
+        a[n] = element;
+        count = n + 1;
+        return n;
+    }
+
+    /*
+     * Moves the last element into the hole and returns it, or null if index was the last.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized E removeAt(int index) {
+        Object[] a = elements;
+        int last = count - 1;
+        E moved = index == last ? null : (E) a[last];
+        a[index] = moved;
+        a[last] = null;
+        count = last;
+        return moved;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /*
+     * Uniformly random element, or null if the index is empty.
+     */
+    @SuppressWarnings("unchecked")
+    E random() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            int n = count;
+            if (n == 0) {
+                return null;
+            }
+            E element = (E) elements[random.nextInt(n)];
+            if (element != null) {
+                return element;
+            }
+        }
+    }
+
+    /*
+     * Up to k distinct elements, chosen uniformly (Floyd's algorithm over positions).
+     */
+    @SuppressWarnings("unchecked")
+    List<E> sample(int k) {
+        int n = count;
+        Object[] a = elements;
+        List<E> result = new ArrayList<>(Math.min(k, n));
+        if (k >= n) {
+            for (int i = 0; i < n; i++) {
+                if (a[i] != null) {
+                    result.add((E) a[i]);
+                }
+            }
+            return result;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Set<Integer> chosen = new HashSet<>(k * 2);
+        for (int j = n - k; j < n; j++) {
+            int position = random.nextInt(j + 1);
+            if (!chosen.add(position)) {
+                chosen.add(j);
+            }
+        }
+        for (int position : chosen) {
+            if (a[position] != null) {
+                result.add((E) a[position]);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Weakly consistent: sees the elements present when it was created, unless they are
+     * removed first, and may or may not see later ones. Never throws
+     * ConcurrentModificationException.
+     */
+    Iterator<E> iterator() {
+        int n = count;
+        Object[] a = elements;
+        return new Iterator<E>() {
+            private int position;
+            private E next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                E current = next;
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+                next = advance();
+                return current;
+            }
+
+            @SuppressWarnings("unchecked")
+            private E advance() {
+                while (position < n) {
+                    Object element = a[position++];
+                    if (element != null) {
+                        return (E) element;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+}
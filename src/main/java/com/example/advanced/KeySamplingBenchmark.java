@@ -0,0 +1,111 @@
+package com.example.advanced;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Cost of picking a random key and reading it, as Reader does, as the cache grows from 10 to
+ * 10M keys:
+ * - keySet copy: the old Reader, keySet() copied again into an ArrayList for each pick;
+ * - randomKey: ReadWriteCache.randomKey();
+ * - sample(16) and keyIterator() (create it, take one key) for comparison.
+ * A writer thread keeps adding and overwriting keys throughout; every picked key must still
+ * read back a value (misses counts those that did not). Reports ns and bytes allocated per
+ * operation.
+ *
+ * 10M keys need a larger heap: java -Xmx3g ... KeySamplingBenchmark [maxKeys] [mode]
+ */
+public class KeySamplingBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final long BUDGET_NANOS = 200_000_000L;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxKeys = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        ReadWriteCache.Mode mode = args.length > 1 ? ReadWriteCache.Mode.valueOf(args[1])
+                : ReadWriteCache.Mode.READ_WRITE_LOCK;
+
+        System.out.printf("mode %s, one writer running throughout%n", mode);
+        System.out.printf("%12s %-14s %12s %14s %10s%n", "keys", "operation", "ns/op", "bytes/op", "misses");
+        boolean warmedUp = false;
+        for (int keys = 10; keys <= maxKeys; keys *= 10) {
+            ReadWriteCache cache = new ReadWriteCache(mode, false);
+            for (int i = 0; i < keys; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            if (!warmedUp) {
+                // JIT warm-up on the smallest cache
+                measure(cache, keys, false);
+                warmedUp = true;
+            }
+            measure(cache, keys, true);
+        }
+    }
+
+    private static void measure(ReadWriteCache cache, int keys, boolean report) throws InterruptedException {
+        Thread writer = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int next = keys; !Thread.currentThread().isInterrupted(); next++) {
+                // Half new keys, half overwrites
+                int key = random.nextBoolean() ? next : random.nextInt(keys);
+                cache.put("key" + key, "value" + next);
+                Thread.yield();
+            }
+        });
+        writer.start();
+        try {
+            // Capped: the copying variant takes about a second per pick at 10M keys
+            run("keySet copy", keys, report, Math.max(1, 100_000_000 / keys), () -> {
+                Set<String> all = cache.keySet();
+                String key = new ArrayList<>(all).get(ThreadLocalRandom.current().nextInt(all.size()));
+                return cache.get(key) == null ? 1 : 0;
+            });
+            run("randomKey", keys, report, Long.MAX_VALUE, () -> cache.get(cache.randomKey()) == null ? 1 : 0);
+            run("sample(16)", keys, report, Long.MAX_VALUE, () -> {
+                int missing = 0;
+                for (String key : cache.sample(16)) {
+                    missing += cache.get(key) == null ? 1 : 0;
+                }
+                return missing;
+            });
+            run("keyIterator", keys, report, Long.MAX_VALUE, () -> {
+                Iterator<String> iterator = cache.keyIterator();
+                return cache.get(iterator.next()) == null ? 1 : 0;
+            });
+        } finally {
+            writer.interrupt();
+            writer.join();
+        }
+    }
+
+    private interface Operation {
+        /*
+         * Returns the number of picked keys that read back no value.
+         */
+        int run();
+    }
+
+    private static void run(String label, int keys, boolean report, long maxOperations, Operation operation) {
+        int batch = (int) Math.min(64, maxOperations);
+        long misses = 0;
+        long operations = 0;
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long begin = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < batch; i++) {
+                misses += operation.run();
+                operations++;
+            }
+            elapsed = System.nanoTime() - begin;
+        } while (elapsed < BUDGET_NANOS && operations < maxOperations);
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        if (report) {
+            System.out.printf("%,12d %-14s %,12.0f %,14.0f %,10d%n", keys, label, (double) elapsed / operations,
+                    (double) allocated / operations, misses);
+        }
+    }
+}
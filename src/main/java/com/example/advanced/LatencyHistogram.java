@@ -0,0 +1,93 @@
+package com.example.advanced;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Log-bucketed (HDR-style) histogram of non-negative long values such as latencies in nanos.
+ *
+ * Values below 32 get a bucket each. Above that every power of two is split into 16 linear
+ * sub-buckets, so a reported value is within ~6% of the real one across the whole long range,
+ * using a fixed array of under a thousand counters. Recording is a bucket computation and one
+ * atomic increment - no locks and no allocation - and percentiles can be read while
+ * recording continues.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int HALF = 1 << (SUB_BUCKET_BITS - 1);
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * HALF + HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(value, 0)));
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /*
+     * Upper bound of the bucket holding the given percentile (0-100), or 0 when empty.
+     */
+    public long valueAtPercentile(double percentile) {
+        return valueAtPercentile(percentile, this);
+    }
+
+    /*
+     * Percentile over the union of several histograms, without merging them first.
+     */
+    static long valueAtPercentile(double percentile, LatencyHistogram... histograms) {
+        long total = 0;
+        for (LatencyHistogram histogram : histograms) {
+            total += histogram.getCount();
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            for (LatencyHistogram histogram : histograms) {
+                seen += histogram.counts.get(i);
+            }
+            if (seen >= rank) {
+                return highestValueIn(i);
+            }
+        }
+        return highestValueIn(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    static int indexOf(long value) {
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = Math.max(0, highestBit - (SUB_BUCKET_BITS - 1));
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    static long lowestValueIn(int index) {
+        if (index < 2 * HALF) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        return (long) (index - shift * HALF) << shift;
+    }
+
+    static long highestValueIn(int index) {
+        if (index < 2 * HALF) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long next = (long) (index - shift * HALF + 1) << shift;
+        // The top bucket's upper bound overflows a long
+        return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+}
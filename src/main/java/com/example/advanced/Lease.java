@@ -0,0 +1,52 @@
+package com.example.advanced;
+
+/*
+ * A resource borrowed from a ResourcePool. Closing the lease returns the resource; use it in
+ * try-with-resources. A lease belongs to the thread that acquired it and must not be used after
+ * close.
+ */
+public final class Lease<T> implements AutoCloseable {
+    private final ResourcePool<T> pool;
+    private final ResourcePool.Entry<T> entry;
+    // Set in adaptive mode
+    private final AdaptiveLimiter.Permit permit;
+    private boolean closed;
+
+    Lease(ResourcePool<T> pool, ResourcePool.Entry<T> entry, AdaptiveLimiter.Permit permit) {
+        this.pool = pool;
+        this.entry = entry;
+        this.permit = permit;
+    }
+
+    public T get() {
+        if (closed) {
+            throw new IllegalStateException("Lease is closed");
+        }
+        return entry.resource;
+    }
+
+    /*
+     * Destroys the resource instead of returning it, e.g. after it failed mid-use.
+     */
+    public void invalidate() {
+        if (!closed) {
+            closed = true;
+            pool.invalidate(entry);
+            // A broken resource says nothing about load
+            if (permit != null) {
+                permit.ignore();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            pool.release(entry);
+            if (permit != null) {
+                permit.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.advanced;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Ledger is a lock-free alternative to the per-Account lock transfer path in Bank, used by a
+ * Bank built with one (see Bank(boolean, Ledger)). Balances live in a primitive
+ * AtomicLongArray indexed by account id, so a transfer is a CAS on the source slot followed
+ * by a CAS on the destination slot - no monitors, no Account objects and no allocation.
+ *
+ * The source is always debited before the destination is credited, so a balance can
+ * never go negative and money is never created. Like Bank, the total is exact once
+ * transfers have quiesced (which is what runTask1 checks).
+ *
+ * A withdraw that keeps losing its CAS (a hot account) gives up after the retry budget
+ * and falls back to a striped lock covering both accounts. The lock queues the hot
+ * writers up instead of letting them burn CPU in a CAS storm. Under the stripe locks the
+ * fallback freezes both slots (swaps in FROZEN), moves the money and writes both back, so
+ * its debit and credit are seen together: lock-free writers and readers that meet a frozen
+ * slot spin until it is written back. Only fallbacks freeze, and they are ordered by the
+ * stripe locks, so freezing cannot deadlock.
+ */
+public class Ledger {
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int DEFAULT_RETRY_BUDGET = 16;
+    // A frozen slot; never a real balance, as balances are not negative
+    private static final long FROZEN = Long.MIN_VALUE;
+
+    private final AtomicLongArray balances;
+    private final ReentrantLock[] stripes;
+    private final int stripeMask;
+    private final int retryBudget;
+    private final LongAdder lockFallbacks = new LongAdder();
+
+    public Ledger(int maxAccountId) {
+        this(maxAccountId, DEFAULT_STRIPES, DEFAULT_RETRY_BUDGET);
+    }
+
+    public Ledger(int maxAccountId, int stripeCount, int retryBudget) {
+        if (Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("stripeCount must be a power of two: " + stripeCount);
+        }
+        this.balances = new AtomicLongArray(maxAccountId + 1);
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.stripeMask = stripeCount - 1;
+        this.retryBudget = retryBudget;
+    }
+
+    public void addAccount(Account account) {
+        balances.set(account.getAccountId(), account.getBalance());
+    }
+
+    public boolean transfer(int fromId, int toId, int amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("amount must not be negative: " + amount);
+        }
+        if (fromId == toId) {
+            return getBalance(fromId) >= amount;
+        }
+
+        int result = tryWithdraw(fromId, amount);
+        if (result < 0) {
+            return transferUnderStripeLocks(fromId, toId, amount);
+        }
+        if (result == 0) {
+            return false;
+        }
+        deposit(toId, amount);
+        return true;
+    }
+
+    /*
+     * Returns 1 if the amount was withdrawn, 0 if the balance is too low and -1 if the
+     * CAS was lost (or the slot was frozen) more than retryBudget times.
+     */
+    private int tryWithdraw(int accountId, int amount) {
+        for (int attempt = 0; attempt <= retryBudget; attempt++) {
+            long balance = balances.get(accountId);
+            if (balance == FROZEN) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (balance < amount) {
+                return 0;
+            }
+            if (balances.compareAndSet(accountId, balance, balance - amount)) {
+                return 1;
+            }
+        }
+        return -1;
+    }
+
+    // The money is already debited, so the credit has to land: it waits out a frozen slot
+    private void deposit(int accountId, int amount) {
+        while (true) {
+            long balance = balances.get(accountId);
+            if (balance == FROZEN) {
+                Thread.onSpinWait();
+            } else if (balances.compareAndSet(accountId, balance, balance + amount)) {
+                return;
+            }
+        }
+    }
+
+    private boolean transferUnderStripeLocks(int fromId, int toId, int amount) {
+        lockFallbacks.increment();
+        int a = fromId & stripeMask;
+        int b = toId & stripeMask;
+        // Ordered locking on stripe index, same rule as Bank uses on account id
+        ReentrantLock first = stripes[Math.min(a, b)];
+        ReentrantLock second = stripes[Math.max(a, b)];
+        first.lock();
+        try {
+            second.lock();
+            try {
+                // No other fallback can hold these slots, and lock-free writers' CASes fail
+                // against FROZEN, so from here until the write-back the slots are ours
+                long fromBalance = balances.getAndSet(fromId, FROZEN);
+                long toBalance = balances.getAndSet(toId, FROZEN);
+                boolean success = fromBalance >= amount;
+                if (success) {
+                    fromBalance -= amount;
+                    toBalance += amount;
+                }
+                balances.set(toId, toBalance);
+                balances.set(fromId, fromBalance);
+                return success;
+            } finally {
+                second.unlock();
+            }
+        } finally {
+            first.unlock();
+        }
+    }
+
+    public long getBalance(int accountId) {
+        long balance;
+        while ((balance = balances.get(accountId)) == FROZEN) {
+            Thread.onSpinWait();
+        }
+        return balance;
+    }
+
+    public long getTotalBalance() {
+        long total = 0;
+        for (int i = 0; i < balances.length(); i++) {
+            total += getBalance(i);
+        }
+        return total;
+    }
+
+    public long getLockFallbacks() {
+        return lockFallbacks.sum();
+    }
+}
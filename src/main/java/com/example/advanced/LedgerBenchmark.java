@@ -0,0 +1,88 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Contention benchmark: Bank's ordered-locking transfer path vs a Bank running on the
+ * lock-free Ledger.
+ * A small number of accounts keeps them hot, so the threads really fight over them.
+ *
+ * Usage: LedgerBenchmark [accounts] [transfersPerThread]
+ */
+public class LedgerBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+    private static final int INITIAL_BALANCE = 1000;
+
+    interface TransferPath {
+        boolean transfer(int fromId, int toId, int amount);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int transfersPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        long expectedTotal = (long) accounts * INITIAL_BALANCE;
+
+        System.out.printf("%d accounts, %d transfers per thread%n", accounts, transfersPerThread);
+        System.out.printf("%-8s %-14s %16s %10s%n", "threads", "path", "transfers/sec", "total ok");
+
+        for (int threads : THREAD_COUNTS) {
+            Bank bank = new Bank(false);
+            Ledger ledger = new Ledger(accounts);
+            Bank ledgerBank = new Bank(false, ledger);
+            for (int i = 1; i <= accounts; i++) {
+                bank.addAccount(new Account(i, INITIAL_BALANCE));
+                ledgerBank.addAccount(new Account(i, INITIAL_BALANCE));
+            }
+
+            // Warm both paths up before measuring
+            run(bank::transfer, 4, transfersPerThread / 4, accounts);
+            run(ledgerBank::transfer, 4, transfersPerThread / 4, accounts);
+
+            double bankRate = run(bank::transfer, threads, transfersPerThread, accounts);
+            double ledgerRate = run(ledgerBank::transfer, threads, transfersPerThread, accounts);
+
+            System.out.printf("%-8d %-14s %,16.0f %10s%n", threads, "ordered-lock", bankRate,
+                    bank.getTotalBalance() == expectedTotal);
+            System.out.printf("%-8d %-14s %,16.0f %10s   (%d lock fallbacks)%n", threads, "ledger", ledgerRate,
+                    ledgerBank.getTotalBalance() == expectedTotal, ledger.getLockFallbacks());
+        }
+    }
+
+    private static double run(TransferPath path, int threads, int transfersPerThread, int accounts)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < transfersPerThread; i++) {
+                    int fromId = rand.nextInt(accounts) + 1;
+                    int toId = rand.nextInt(accounts - 1) + 1;
+                    if (toId >= fromId) {
+                        toId++;
+                    }
+                    path.transfer(fromId, toId, rand.nextInt(200) + 1);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+        return (double) threads * transfersPerThread * 1_000_000_000L / elapsed;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.advanced;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/*
+ * Heap footprint and GC pauses of the on-heap CONCURRENT cache against OFF_HEAP, same entries:
+ * - load: put entries with fresh key and value Strings; then report heap and direct memory held
+ *   after a full GC, and how long that full GC took with the cache live;
+ * - mixed: 2 threads, 90% reads (get(key) on heap, zero-copy get(key, buffer) off heap) and
+ *   10% overwrites, for a fixed time; report ops/sec and the stop-the-world pauses.
+ * Modes run one after the other in this JVM, with a full GC in between; for clean numbers run
+ * each mode separately.
+ *
+ * Usage: OffHeapBenchmark [entries] [valueBytes] [seconds] [CONCURRENT|OFF_HEAP]
+ */
+public class OffHeapBenchmark {
+    private static final int THREADS = 2;
+
+    private static final List<Long> pauses = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int valueBytes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        List<ReadWriteCache.Mode> modes = args.length > 3 ? List.of(ReadWriteCache.Mode.valueOf(args[3]))
+                : List.of(ReadWriteCache.Mode.CONCURRENT, ReadWriteCache.Mode.OFF_HEAP);
+
+        listenForPauses();
+        String[] keys = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            keys[i] = "key" + i;
+        }
+        char[] padding = new char[valueBytes];
+        Arrays.fill(padding, 'v');
+        String pad = new String(padding);
+
+        System.out.printf("%,d entries, %d-byte values, %d s mixed phase%n", entries, valueBytes, seconds);
+        System.out.printf("%-11s %10s %12s %12s %12s %14s %10s %12s%n", "mode", "heap MB", "direct MB",
+                "full GC ms", "load s", "mixed ops/s", "pauses", "max pause ms");
+        for (ReadWriteCache.Mode mode : modes) {
+            System.gc();
+            long baseline = heapUsed();
+            long begin = System.nanoTime();
+            ReadWriteCache cache = new ReadWriteCache(mode, false);
+            for (int i = 0; i < entries; i++) {
+                cache.put("key" + i, (i + pad).substring(0, valueBytes));
+            }
+            double loadSeconds = (System.nanoTime() - begin) / 1e9;
+
+            long gcBegin = System.nanoTime();
+            System.gc();
+            double fullGcMillis = (System.nanoTime() - gcBegin) / 1e6;
+            double heapMb = (heapUsed() - baseline) / 1e6;
+            double directMb = directUsed() / 1e6;
+
+            synchronized (pauses) {
+                pauses.clear();
+            }
+            double opsPerSecond = mixed(cache, keys, pad, valueBytes, seconds);
+            long count;
+            long max;
+            synchronized (pauses) {
+                count = pauses.size();
+                max = pauses.stream().mapToLong(Long::longValue).max().orElse(0);
+            }
+            System.out.printf("%-11s %,10.0f %,12.0f %,12.0f %12.1f %,14.0f %,10d %,12d%n", mode, heapMb, directMb,
+                    fullGcMillis, loadSeconds, opsPerSecond, count, max);
+            // Keep the cache live through the measurements
+            Reference.reachabilityFence(cache);
+        }
+    }
+
+    private static double mixed(ReadWriteCache cache, String[] keys, String pad, int valueBytes, int seconds)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder operations = new LongAdder();
+        long[] deadline = new long[1];
+        boolean offHeap = cache.getMode() == ReadWriteCache.Mode.OFF_HEAP;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                ByteBuffer buffer = ByteBuffer.allocateDirect(valueBytes);
+                long done = 0;
+                long missing = 0;
+                while (System.nanoTime() < deadline[0]) {
+                    for (int n = 0; n < 64; n++) {
+                        int i = random.nextInt(keys.length);
+                        if (random.nextInt(10) != 0) {
+                            if (offHeap) {
+                                buffer.clear();
+                                missing += cache.get(keys[i], buffer) < 0 ? 1 : 0;
+                            } else {
+                                missing += cache.get(keys[i]) == null ? 1 : 0;
+                            }
+                        } else {
+                            cache.put(keys[i], (random.nextInt() + pad).substring(0, valueBytes));
+                        }
+                    }
+                    done += 64;
+                }
+                if (missing > 0) {
+                    System.out.printf("    %d reads found no value%n", missing);
+                }
+                operations.add(done);
+            }));
+        }
+        workers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        deadline[0] = begin + seconds * 1_000_000_000L;
+        // The latch publishes the deadline to the workers
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.sum() * 1e9 / (System.nanoTime() - begin);
+    }
+
+    /*
+     * Records the duration of every stop-the-world collection; concurrent cycles are skipped.
+     */
+    private static void listenForPauses() {
+        NotificationListener listener = (notification, handback) -> {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            if (!info.getGcName().contains("Concurrent")) {
+                synchronized (pauses) {
+                    pauses.add(info.getGcInfo().getDuration());
+                }
+            }
+        };
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) bean).addNotificationListener(listener, null, null);
+        }
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long directUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
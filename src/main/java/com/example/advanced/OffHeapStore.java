@@ -0,0 +1,507 @@
+package com.example.advanced;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+ * ReadWriteCache engine that keeps keys and values off the Java heap, so millions of entries
+ * add almost nothing for the garbage collector to trace.
+ *
+ * - Storage: 1 MB direct ByteBuffer slabs, memcached style. Each slab is cut into equal chunks
+ *   of one size class (64 bytes, growing by 1.25x); an entry goes into the smallest class that
+ *   fits [key length][value length][key UTF-8][value UTF-8]. Freed chunks go on their class's
+ *   free list and are reused before any new slab is allocated.
+ * - Index: per segment, an open-addressing table of key hash -> chunk address held in two
+ *   primitive arrays, at most half full: 24 to 48 bytes of heap per entry and no objects.
+ * - Concurrency: keys hash to one of SEGMENTS segments, each with its own StampedLock. Writers
+ *   take the write lock. Readers use an optimistic stamp as a seqlock: copy the value, then
+ *   validate; a concurrent write makes them retry under the read lock. A torn read may see
+ *   garbage lengths, so every length is clamped to the chunk and any exception is treated as
+ *   a failed validation.
+ * - get(key, target) copies the value bytes straight from the slab into the caller's buffer;
+ *   get(key) decodes them into a new String.
+ */
+final class OffHeapStore implements ReadWriteCache.Store {
+    static final int SLAB_SIZE = 1 << 20;
+    private static final int SEGMENTS = 16;
+    private static final int HEADER = 8;
+    private static final int[] CHUNK_SIZES = chunkSizes();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long capacityBytes;
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    OffHeapStore(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public String get(String key) {
+        int hash = spread(key.hashCode());
+        return segmentFor(hash).get(hash, key);
+    }
+
+    /*
+     * Copies the value into target at its position and advances it. Returns the value's length,
+     * or -1 if the key is absent. Throws BufferOverflowException, copying nothing, if the value
+     * does not fit.
+     */
+    @Override
+    public int get(String key, ByteBuffer target) {
+        int hash = spread(key.hashCode());
+        return segmentFor(hash).get(hash, key, target);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        int hash = spread(key.hashCode());
+        segmentFor(hash).put(hash, key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public Set<String> keySet() {
+        Set<String> keys = new HashSet<>();
+        keyIterator().forEachRemaining(keys::add);
+        return keys;
+    }
+
+    @Override
+    public String randomKey() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (size() == 0) {
+            return null;
+        }
+        // Tables are at most half full, so this takes about two draws
+        while (true) {
+            String key = segments[random.nextInt(SEGMENTS)].keyAt(random.nextInt(Integer.MAX_VALUE));
+            if (key != null) {
+                return key;
+            }
+            if (size() == 0) {
+                return null;
+            }
+        }
+    }
+
+    /*
+     * Up to k distinct keys from random draws; gives up early, with fewer, if it keeps drawing
+     * keys it already has.
+     */
+    @Override
+    public List<String> sample(int k) {
+        int target = Math.min(k, size());
+        Set<String> sampled = new HashSet<>(target * 2);
+        for (int repeats = 0; sampled.size() < target && repeats < 4 * target + 16; ) {
+            String key = randomKey();
+            if (key == null || !sampled.add(key)) {
+                repeats++;
+            }
+        }
+        return new ArrayList<>(sampled);
+    }
+
+    /*
+     * Walks each segment's table in place, reading one slot at a time under its read lock.
+     */
+    @Override
+    public Iterator<String> keyIterator() {
+        return new Iterator<String>() {
+            private int segment;
+            private int slot;
+            private String next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                String current = next;
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+                next = advance();
+                return current;
+            }
+
+            private String advance() {
+                while (segment < SEGMENTS) {
+                    Segment s = segments[segment];
+                    int length = s.tableLength();
+                    while (slot < length) {
+                        String key = s.keyAt(slot++);
+                        if (key != null) {
+                            return key;
+                        }
+                    }
+                    segment++;
+                    slot = 0;
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    private Segment segmentFor(int hash) {
+        // The index uses the low bits, segments the high ones
+        return segments[hash >>> 28];
+    }
+
+    private static int[] chunkSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (int size = 64; size < SLAB_SIZE; size = ((int) (size * 1.25) + 7) & ~7) {
+            sizes.add(size);
+        }
+        sizes.add(SLAB_SIZE);
+        return sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int sizeClass(int recordSize) {
+        int i = Arrays.binarySearch(CHUNK_SIZES, recordSize);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private static int spread(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private final class Segment {
+        private final StampedLock lock = new StampedLock();
+
+        // Guarded by lock; readers may see them mid-write and must validate
+        private int[] hashes = new int[64];
+        private long[] addresses = new long[64];
+        volatile int count;
+        private ByteBuffer[] slabs = new ByteBuffer[4];
+        private int slabCount;
+        private final long[][] freeChunks = new long[CHUNK_SIZES.length][];
+        private final int[] freeCounts = new int[CHUNK_SIZES.length];
+        // Per class: the slab being cut into chunks and the next unused offset in it
+        private final int[] carveSlab = new int[CHUNK_SIZES.length];
+        private final int[] carveOffset = new int[CHUNK_SIZES.length];
+
+        Segment() {
+            Arrays.fill(carveSlab, -1);
+        }
+
+        String get(int hash, String key) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    long address = find(hash, key);
+                    byte[] value = address == 0 ? null : readValue(address);
+                    if (lock.validate(stamp)) {
+                        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+                    }
+                } catch (RuntimeException e) {
+                    // A torn read; retry under the lock
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                long address = find(hash, key);
+                return address == 0 ? null : new String(readValue(address), StandardCharsets.UTF_8);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        int get(int hash, String key, ByteBuffer target) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    int length = copyValue(hash, key, target);
+                    if (lock.validate(stamp)) {
+                        return finishCopy(length, target);
+                    }
+                } catch (RuntimeException e) {
+                    // A torn read; retry under the lock
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return finishCopy(copyValue(hash, key, target), target);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /*
+         * Copies without moving target's position. Returns the length, -1 if absent, or
+         * -2 - length if the value does not fit.
+         */
+        private int copyValue(int hash, String key, ByteBuffer target) {
+            long address = find(hash, key);
+            if (address == 0) {
+                return -1;
+            }
+            ByteBuffer slab = slabs[slabOf(address)];
+            int offset = offsetOf(address);
+            int keyLength = clamp(slab.getInt(offset), SLAB_SIZE);
+            int valueLength = clamp(slab.getInt(offset + 4), SLAB_SIZE - keyLength);
+            if (valueLength > target.remaining()) {
+                return -2 - valueLength;
+            }
+            target.put(target.position(), slab, offset + HEADER + keyLength, valueLength);
+            return valueLength;
+        }
+
+        private int finishCopy(int length, ByteBuffer target) {
+            if (length < -1) {
+                throw new BufferOverflowException();
+            }
+            if (length > 0) {
+                target.position(target.position() + length);
+            }
+            return length;
+        }
+
+        void put(int hash, byte[] key, byte[] value) {
+            int recordSize = HEADER + key.length + value.length;
+            if (recordSize > SLAB_SIZE) {
+                throw new IllegalArgumentException("Entry of " + recordSize + " bytes does not fit a "
+                        + SLAB_SIZE + "-byte slab");
+            }
+            int sizeClass = sizeClass(recordSize);
+            long stamp = lock.writeLock();
+            try {
+                int mask = addresses.length - 1;
+                int i = hash & mask;
+                for (long address; (address = addresses[i]) != 0; i = (i + 1) & mask) {
+                    if (hashes[i] == hash && keyEquals(address, key)) {
+                        if (sizeClass(recordSizeAt(address)) == sizeClass) {
+                            // Same chunk size: overwrite in place
+                            write(address, key, value);
+                        } else {
+                            long moved = allocate(sizeClass);
+                            write(moved, key, value);
+                            addresses[i] = moved;
+                            free(address);
+                        }
+                        return;
+                    }
+                }
+                long address = allocate(sizeClass);
+                write(address, key, value);
+                hashes[i] = hash;
+                addresses[i] = address;
+                count = count + 1;
+                if (count * 2 > addresses.length) {
+                    resize();
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int tableLength() {
+            long stamp = lock.readLock();
+            try {
+                return addresses.length;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /*
+         * The key in the given slot (taken modulo the table length), or null if it is empty.
+         */
+        String keyAt(int slot) {
+            long stamp = lock.readLock();
+            try {
+                long address = addresses[slot & (addresses.length - 1)];
+                if (address == 0) {
+                    return null;
+                }
+                ByteBuffer slab = slabs[slabOf(address)];
+                int offset = offsetOf(address);
+                byte[] key = new byte[slab.getInt(offset)];
+                slab.get(offset + HEADER, key);
+                return new String(key, StandardCharsets.UTF_8);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private long find(int hash, String key) {
+            long[] addresses = this.addresses;
+            int[] hashes = this.hashes;
+            int mask = Math.min(addresses.length, hashes.length) - 1;
+            // At most one probe per slot, even if the table is read mid-write
+            for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                long address = addresses[i];
+                if (address == 0) {
+                    return 0;
+                }
+                if (hashes[i] == hash && keyEquals(address, key)) {
+                    return address;
+                }
+            }
+            return 0;
+        }
+
+        private boolean keyEquals(long address, String key) {
+            ByteBuffer slab = slabs[slabOf(address)];
+            int offset = offsetOf(address) + HEADER;
+            int length = slab.getInt(offset - HEADER);
+            int n = key.length();
+            if (length != n) {
+                // Equal only if the key has non-ASCII characters
+                return length > n && keyEquals(address, key.getBytes(StandardCharsets.UTF_8));
+            }
+            for (int i = 0; i < n; i++) {
+                char c = key.charAt(i);
+                if (c >= 0x80) {
+                    return keyEquals(address, key.getBytes(StandardCharsets.UTF_8));
+                }
+                if (slab.get(offset + i) != (byte) c) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean keyEquals(long address, byte[] key) {
+            ByteBuffer slab = slabs[slabOf(address)];
+            int offset = offsetOf(address);
+            if (slab.getInt(offset) != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (slab.get(offset + HEADER + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private byte[] readValue(long address) {
+            ByteBuffer slab = slabs[slabOf(address)];
+            int offset = offsetOf(address);
+            int keyLength = clamp(slab.getInt(offset), SLAB_SIZE);
+            byte[] value = new byte[clamp(slab.getInt(offset + 4), SLAB_SIZE - keyLength)];
+            slab.get(offset + HEADER + keyLength, value);
+            return value;
+        }
+
+        private int recordSizeAt(long address) {
+            ByteBuffer slab = slabs[slabOf(address)];
+            int offset = offsetOf(address);
+            return HEADER + slab.getInt(offset) + slab.getInt(offset + 4);
+        }
+
+        private void write(long address, byte[] key, byte[] value) {
+            ByteBuffer slab = slabs[slabOf(address)];
+            int offset = offsetOf(address);
+            slab.putInt(offset, key.length);
+            slab.putInt(offset + 4, value.length);
+            slab.put(offset + HEADER, key);
+            slab.put(offset + HEADER + key.length, value);
+        }
+
+        private long allocate(int sizeClass) {
+            if (freeCounts[sizeClass] > 0) {
+                return freeChunks[sizeClass][--freeCounts[sizeClass]];
+            }
+            int chunk = CHUNK_SIZES[sizeClass];
+            if (carveSlab[sizeClass] < 0 || carveOffset[sizeClass] + chunk > SLAB_SIZE) {
+                if (allocatedBytes.addAndGet(SLAB_SIZE) > capacityBytes) {
+                    allocatedBytes.addAndGet(-SLAB_SIZE);
+                    throw new IllegalStateException("Off-heap store is full: " + capacityBytes + " bytes");
+                }
+                if (slabCount == slabs.length) {
+                    slabs = Arrays.copyOf(slabs, slabCount * 2);
+                }
+                try {
+                    slabs[slabCount] = ByteBuffer.allocateDirect(SLAB_SIZE);
+                } catch (OutOfMemoryError e) {
+                    // -XX:MaxDirectMemorySize is below capacityBytes, or other buffers use it up
+                    allocatedBytes.addAndGet(-SLAB_SIZE);
+                    throw new IllegalStateException("Off-heap store is full: no direct memory for another slab", e);
+                }
+                carveSlab[sizeClass] = slabCount++;
+                carveOffset[sizeClass] = 0;
+            }
+            long address = addressOf(carveSlab[sizeClass], carveOffset[sizeClass]);
+            carveOffset[sizeClass] += chunk;
+            return address;
+        }
+
+        private void free(long address) {
+            int sizeClass = sizeClass(recordSizeAt(address));
+            long[] stack = freeChunks[sizeClass];
+            if (stack == null) {
+                stack = freeChunks[sizeClass] = new long[16];
+            } else if (freeCounts[sizeClass] == stack.length) {
+                stack = freeChunks[sizeClass] = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[freeCounts[sizeClass]++] = address;
+        }
+
+        private void resize() {
+            int[] oldHashes = hashes;
+            long[] oldAddresses = addresses;
+            int[] newHashes = new int[oldHashes.length * 2];
+            long[] newAddresses = new long[oldAddresses.length * 2];
+            int mask = newAddresses.length - 1;
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] != 0) {
+                    int j = oldHashes[i] & mask;
+                    while (newAddresses[j] != 0) {
+                        j = (j + 1) & mask;
+                    }
+                    newHashes[j] = oldHashes[i];
+                    newAddresses[j] = oldAddresses[i];
+                }
+            }
+            hashes = newHashes;
+            addresses = newAddresses;
+        }
+    }
+
+    // Slab numbers start at 1 so that address 0 can mean "empty"
+    private static long addressOf(int slab, int offset) {
+        return (long) (slab + 1) << 32 | offset;
+    }
+
+    private static int slabOf(long address) {
+        return (int) (address >>> 32) - 1;
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private static int clamp(int length, int max) {
+        return Math.max(0, Math.min(length, max));
+    }
+}
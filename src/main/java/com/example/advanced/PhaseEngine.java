@@ -0,0 +1,235 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+
+/*
+ * Bulk-synchronous phases for any number of parties, on a tree of Phasers: every party does its
+ * step, contributes a result and waits for the others; once all have arrived the hook sees the
+ * phase's combined result and decides whether to run another phase.
+ *
+ * Parties are spread over leaf phasers of at most `fanout` parties. The first leaf is the root
+ * itself, so a small engine is one plain Phaser; the next fanout - 1 leaves are children of the
+ * root, and later ones are grouped fanout to a group under the root. A leaf only reaches up to
+ * its parent when its last party arrives, so no single phaser state is hammered by thousands of
+ * parties arriving at once.
+ *
+ * Results are combined per leaf with a CAS on the leaf's accumulator (combine must be
+ * associative and free of side effects, as it may be retried) and the root's onAdvance folds the
+ * leaves and resets them before the phase advances, so aggregation takes no lock.
+ *
+ * Parties may register and leave at any time. A party registered while a phase is running takes
+ * part in that phase. The engine terminates when the hook says so or the last party leaves.
+ */
+public class PhaseEngine<R> {
+    private final int fanout;
+    private final R identity;
+    private final BinaryOperator<R> combine;
+    private final PhaseHook<R> hook;
+    private final Phaser root;
+    private final List<Leaf<R>> leaves = new CopyOnWriteArrayList<>();
+    // Guarded by registration, a ReentrantLock rather than synchronized: Phaser.register() blocks
+    // while a phase advances, which inside synchronized would pin a virtual thread
+    private final ReentrantLock registration = new ReentrantLock();
+    private final List<Phaser> groups = new ArrayList<>();
+    private int nextSlot;
+    private final AtomicInteger parties = new AtomicInteger();
+
+    public interface PhaseHook<R> {
+        /*
+         * Called once per phase by the last party to arrive, before any party moves on. Returns
+         * true to stop after this phase.
+         */
+        boolean onPhase(int phase, R combined, int parties);
+    }
+
+    private static final class Leaf<R> {
+        final Phaser phaser;
+        final AtomicReference<R> accumulator;
+
+        Leaf(Phaser phaser, R identity) {
+            this.phaser = phaser;
+            this.accumulator = new AtomicReference<>(identity);
+        }
+    }
+
+    public PhaseEngine(R identity, BinaryOperator<R> combine, PhaseHook<R> hook) {
+        this(32, identity, combine, hook);
+    }
+
+    public PhaseEngine(int fanout, R identity, BinaryOperator<R> combine, PhaseHook<R> hook) {
+        if (fanout < 2) {
+            throw new IllegalArgumentException("fanout must be at least 2");
+        }
+        this.fanout = fanout;
+        this.identity = identity;
+        this.combine = combine;
+        this.hook = hook;
+        this.root = new Phaser() {
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                R combined = identity;
+                for (Leaf<R> leaf : leaves) {
+                    combined = combine.apply(combined, leaf.accumulator.getAndSet(identity));
+                }
+                boolean stop = hook.onPhase(phase, combined, parties.get());
+                return stop || registeredParties == 0;
+            }
+        };
+        leaves.add(new Leaf<>(root, identity));
+    }
+
+    /*
+     * Adds a party; it joins the phase in progress.
+     */
+    public Party register() {
+        registration.lock();
+        try {
+            if (root.isTerminated()) {
+                throw new IllegalStateException("PhaseEngine has terminated");
+            }
+            int leafIndex = nextSlot++ / fanout;
+            while (leaves.size() <= leafIndex) {
+                leaves.add(new Leaf<>(new Phaser(parentOf(leaves.size())), identity));
+            }
+            Leaf<R> leaf = leaves.get(leafIndex);
+            parties.incrementAndGet();
+            leaf.phaser.register();
+            return new Party(leaf);
+        } finally {
+            registration.unlock();
+        }
+    }
+
+    private Phaser parentOf(int leafIndex) {
+        if (leafIndex < fanout) {
+            return root;
+        }
+        int group = (leafIndex - fanout) / fanout;
+        while (groups.size() <= group) {
+            groups.add(new Phaser(root));
+        }
+        return groups.get(group);
+    }
+
+    /*
+     * One party's handle; use it from one thread at a time.
+     */
+    public final class Party {
+        private final Leaf<R> leaf;
+        private boolean left;
+
+        private Party(Leaf<R> leaf) {
+            this.leaf = leaf;
+        }
+
+        /*
+         * Contributes this party's result and waits for the phase to complete. Returns the next
+         * phase number, or a negative number once the engine has terminated.
+         */
+        public int arriveAndAwait(R result) {
+            contribute(result);
+            return leaf.phaser.arriveAndAwaitAdvance();
+        }
+
+        /*
+         * Contributes a last result and leaves without waiting.
+         */
+        public void arriveAndLeave(R result) {
+            contribute(result);
+            leave();
+        }
+
+        /*
+         * Leaves without contributing to the current phase.
+         */
+        public void leave() {
+            if (!left) {
+                left = true;
+                parties.decrementAndGet();
+                leaf.phaser.arriveAndDeregister();
+            }
+        }
+
+        private void contribute(R result) {
+            if (left) {
+                throw new IllegalStateException("Party has left");
+            }
+            leaf.accumulator.accumulateAndGet(result, combine);
+        }
+    }
+
+    public interface Step<R> {
+        /*
+         * One party's work in one phase.
+         */
+        R run(int party, int phase) throws Exception;
+    }
+
+    /*
+     * Runs `count` parties, one platform thread each, through phases until the hook stops the
+     * engine or a step fails (that party leaves and the others carry on). Returns when all
+     * parties are done.
+     */
+    public void run(int count, Step<R> step) throws InterruptedException {
+        run(count, ExecutionMode.PLATFORM, step);
+    }
+
+    /*
+     * As run(count, step), with the parties' threads from the given mode. A FIXED_POOL smaller
+     * than count deadlocks: the queued parties never arrive.
+     */
+    public void run(int count, ExecutionMode mode, Step<R> step) throws InterruptedException {
+        try (TaskRunner runner = mode.newRunner(count)) {
+            run(count, runner, step);
+        }
+    }
+
+    /*
+     * As run(count, mode, step), on a runner the caller owns and closes.
+     */
+    void run(int count, TaskRunner runner, Step<R> step) throws InterruptedException {
+        // Register everyone first, or the first parties could finish a phase on their own
+        List<Party> registered = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            registered.add(register());
+        }
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            Party party = registered.get(i);
+            runner.start("PhaseEngine-party-" + i, () -> {
+                int phase = getPhase();
+                while (phase >= 0) {
+                    R result;
+                    try {
+                        result = step.run(index, phase);
+                    } catch (Exception e) {
+                        System.out.printf("PhaseEngine: party %d failed in phase %d: %s%n", index, phase, e);
+                        party.leave();
+                        return;
+                    }
+                    phase = party.arriveAndAwait(result);
+                }
+            });
+        }
+        runner.joinAll();
+    }
+
+    public int getPhase() {
+        return root.getPhase();
+    }
+
+    public int getParties() {
+        return parties.get();
+    }
+
+    public boolean isTerminated() {
+        return root.isTerminated();
+    }
+}
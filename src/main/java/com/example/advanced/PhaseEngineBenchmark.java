@@ -0,0 +1,135 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Phaser;
+
+/*
+ * Barrier-crossing latency with 4, 1k and 10k parties: a CyclicBarrier, one flat Phaser and a
+ * PhaseEngine (tiered Phasers, fanout 32, summing a long per party per phase). Each party thread
+ * crosses the barrier repeatedly with no work in between; the barrier action / onAdvance hook
+ * records the time since the previous phase completed, so a sample is one full crossing of all
+ * parties. Threads get 256 KB stacks so 10k of them fit.
+ *
+ * Usage: PhaseEngineBenchmark [crossingsBudget]
+ */
+public class PhaseEngineBenchmark {
+    private static final int[] PARTY_COUNTS = {4, 1_000, 10_000};
+
+    private interface Barrier {
+        /*
+         * Crosses the barrier as party `party`; returns false once the run is over.
+         */
+        boolean cross(int party) throws Exception;
+    }
+
+    private static final class Timer {
+        final LatencyHistogram crossings = new LatencyHistogram();
+        long start;
+        long last;
+
+        // Called by exactly one thread per phase, inside the barrier
+        void tick() {
+            long now = System.nanoTime();
+            crossings.record(now - last);
+            last = now;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long budget = args.length > 0 ? Long.parseLong(args[0]) : 200_000;
+
+        // JIT warm-up
+        for (String kind : new String[]{"CyclicBarrier", "Phaser", "PhaseEngine"}) {
+            run(kind, 4, 2_000);
+        }
+
+        System.out.printf("%-14s %8s %8s %12s %12s %12s%n", "barrier", "parties", "phases", "mean us", "p50 us",
+                "p99 us");
+        for (int parties : PARTY_COUNTS) {
+            int phases = (int) Math.max(10, budget / parties);
+            for (String kind : new String[]{"CyclicBarrier", "Phaser", "PhaseEngine"}) {
+                Timer timer = run(kind, parties, phases);
+                System.out.printf("%-14s %,8d %,8d %,12.1f %,12.1f %,12.1f%n", kind, parties, phases,
+                        timer.crossings.getCount() == 0 ? 0 : mean(timer) / 1e3,
+                        timer.crossings.valueAtPercentile(50) / 1e3, timer.crossings.valueAtPercentile(99) / 1e3);
+            }
+        }
+    }
+
+    private static double mean(Timer timer) {
+        // Includes the first crossing, which waits for all threads to start
+        return (double) (timer.last - timer.start) / timer.crossings.getCount();
+    }
+
+    private static Timer run(String kind, int parties, int phases) throws InterruptedException {
+        Timer timer = new Timer();
+        Barrier barrier;
+        switch (kind) {
+            case "CyclicBarrier": {
+                int[] phase = new int[1];
+                CyclicBarrier cyclic = new CyclicBarrier(parties, () -> {
+                    timer.tick();
+                    phase[0]++;
+                });
+                // phase[0] is written in the barrier action, before any party is released
+                barrier = party -> {
+                    cyclic.await();
+                    return phase[0] < phases;
+                };
+                break;
+            }
+            case "Phaser": {
+                Phaser phaser = new Phaser(parties) {
+                    @Override
+                    protected boolean onAdvance(int phase, int registeredParties) {
+                        timer.tick();
+                        return phase + 1 >= phases;
+                    }
+                };
+                barrier = party -> phaser.arriveAndAwaitAdvance() >= 0;
+                break;
+            }
+            default: {
+                PhaseEngine<Long> engine = new PhaseEngine<>(0L, Long::sum, (phase, sum, count) -> {
+                    timer.tick();
+                    if (sum != count) {
+                        throw new IllegalStateException("phase " + phase + " summed " + sum + " of " + count);
+                    }
+                    return phase + 1 >= phases;
+                });
+                List<PhaseEngine<Long>.Party> handles = new ArrayList<>(parties);
+                for (int i = 0; i < parties; i++) {
+                    handles.add(engine.register());
+                }
+                barrier = party -> handles.get(party).arriveAndAwait(1L) >= 0;
+                break;
+            }
+        }
+
+        List<Thread> threads = new ArrayList<>(parties);
+        for (int i = 0; i < parties; i++) {
+            int party = i;
+            threads.add(new Thread(null, () -> {
+                try {
+                    while (barrier.cross(party)) {
+                        // Nothing to do between crossings
+                    }
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "party-" + i, 256 * 1024));
+        }
+        timer.start = System.nanoTime();
+        timer.last = timer.start;
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return timer;
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.advanced;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+/*
+ * Finds the places where a task blocks in a way that pins a virtual thread to its carrier
+ * (Java 21): blocking while holding a monitor (sleep, park or I/O inside synchronized),
+ * Object.wait(), and waiting to enter a contended synchronized block. A pinned virtual thread
+ * keeps its carrier blocked too, so a few of them can stall every other virtual thread.
+ *
+ * - In VIRTUAL mode the JVM reports pinning itself: the monitor subscribes to JFR's
+ *   jdk.VirtualThreadPinned events (pinned for 1 ms or more) and records each one's first
+ *   frame outside the JDK.
+ * - In PLATFORM and FIXED_POOL modes nothing is pinned yet, so it predicts instead: every
+ *   SAMPLE_MILLIS it takes the task threads' stacks and locked monitors from ThreadMXBean and
+ *   records each frame where one of the patterns above shows up. Running a workload on platform
+ *   threads this way shows what it would do on virtual threads, also on Java 17.
+ *
+ * Findings are counted per place: samples for the prediction, events for JFR.
+ */
+final class PinningMonitor implements AutoCloseable {
+    private static final long SAMPLE_MILLIS = 10;
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final List<Thread> threads;
+    private final Map<String, LongAdder> findings = new ConcurrentHashMap<>();
+    private final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    private final Thread sampler;
+    private final RecordingStream events;
+
+    PinningMonitor(ExecutionMode mode, List<Thread> threads) {
+        this.threads = threads;
+        if (mode == ExecutionMode.VIRTUAL) {
+            sampler = null;
+            events = new RecordingStream();
+            events.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(1)).withStackTrace();
+            events.onEvent(PINNED_EVENT, event -> record("pinned at " + firstOwnFrame(event.getStackTrace())));
+            events.startAsync();
+        } else {
+            events = null;
+            sampler = new Thread(this::sampleLoop, "PinningMonitor");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+    }
+
+    private void sampleLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            sample();
+            try {
+                Thread.sleep(SAMPLE_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void sample() {
+        List<Thread> live = new ArrayList<>(threads);
+        long[] ids = new long[live.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = live.get(i).getId();
+        }
+        if (ids.length == 0) {
+            return;
+        }
+        for (ThreadInfo info : bean.getThreadInfo(ids, bean.isObjectMonitorUsageSupported(), false)) {
+            if (info == null || info.getStackTrace().length == 0) {
+                continue;
+            }
+            StackTraceElement top = info.getStackTrace()[0];
+            switch (info.getThreadState()) {
+                case BLOCKED:
+                    record("waits to enter synchronized in " + frame(firstOwn(info.getStackTrace())));
+                    break;
+                case WAITING:
+                case TIMED_WAITING:
+                    if (top.getClassName().equals("java.lang.Object") && top.getMethodName().equals("wait")) {
+                        record("Object.wait() in " + frame(firstOwn(info.getStackTrace())));
+                        break;
+                    }
+                    MonitorInfo[] held = info.getLockedMonitors();
+                    if (held.length > 0) {
+                        record("blocks in " + frame(firstOwn(info.getStackTrace())) + " holding the monitor taken in "
+                                + frame(held[held.length - 1].getLockedStackFrame()));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void record(String finding) {
+        findings.computeIfAbsent(finding, f -> new LongAdder()).increment();
+    }
+
+    private static StackTraceElement firstOwn(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            if (!isJdk(element.getClassName())) {
+                return element;
+            }
+        }
+        return stack[0];
+    }
+
+    private static String firstOwnFrame(RecordedStackTrace stack) {
+        if (stack == null || stack.getFrames().isEmpty()) {
+            return "an unknown frame";
+        }
+        for (RecordedFrame frame : stack.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (!isJdk(type)) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        RecordedFrame top = stack.getFrames().get(0);
+        return top.getMethod().getType().getName() + "." + top.getMethod().getName();
+    }
+
+    private static boolean isJdk(String className) {
+        return className.startsWith("java.") || className.startsWith("jdk.") || className.startsWith("sun.");
+    }
+
+    private static String frame(StackTraceElement element) {
+        return element.getClassName() + "." + element.getMethodName() + ":" + element.getLineNumber();
+    }
+
+    /*
+     * Findings with their counts, most frequent first.
+     */
+    List<String> report() {
+        List<Map.Entry<String, LongAdder>> sorted = new ArrayList<>(findings.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, LongAdder> finding : sorted) {
+            lines.add(String.format("%,6d x %s", finding.getValue().sum(), finding.getKey()));
+        }
+        return lines;
+    }
+
+    @Override
+    public void close() {
+        if (sampler != null) {
+            sampler.interrupt();
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (events != null) {
+            events.close();
+        }
+    }
+}
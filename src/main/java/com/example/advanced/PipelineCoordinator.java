@@ -0,0 +1,137 @@
+package com.example.advanced;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Shutdown and backpressure for a producer-consumer queue, without poison pills.
+ *
+ * - Completion: every producer is a party of a Phaser and deregisters when it is done (in a
+ *   finally, so a crashed producer counts as done). When the last one leaves, the phaser
+ *   terminates and wakes idle consumers; they keep draining and next() returns null once the
+ *   queue is empty.
+ * - Backpressure: producers need a credit per item in flight, queued or being processed.
+ *   offer() waits at most the given timeout for one and reports a rejection otherwise, so
+ *   producers never hang on dead or stalled consumers. Credits return when a consumer is done
+ *   with an item.
+ * Credits bound the queue, so it is a lock-free ConcurrentLinkedQueue. An idle consumer parks
+ * and the next offer unparks exactly one of them. Nothing is allocated or compared per item
+ * beyond the queue's own node.
+ */
+public class PipelineCoordinator<T> {
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Thread> idleConsumers = new ConcurrentLinkedQueue<>();
+    private final Semaphore credits;
+    private final Phaser producers;
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public interface ItemHandler<T> {
+        void handle(T item) throws InterruptedException;
+    }
+
+    public PipelineCoordinator(int producerCount, int credits) {
+        // With no producers the phaser would never terminate and consumers would wait forever
+        if (producerCount < 1) {
+            throw new IllegalArgumentException("producerCount must be at least 1: " + producerCount);
+        }
+        this.credits = new Semaphore(credits);
+        this.producers = new Phaser(producerCount);
+    }
+
+    /*
+     * Returns false, and counts a rejection, if no credit frees up within the timeout.
+     */
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        offered.increment();
+        if (!credits.tryAcquire(timeout, unit)) {
+            rejected.increment();
+            return false;
+        }
+        queue.add(item);
+        // Both sides update a concurrent queue before checking the other, so either we see the
+        // idle consumer here or it sees our item before parking
+        Thread idle = idleConsumers.poll();
+        if (idle != null) {
+            LockSupport.unpark(idle);
+        }
+        return true;
+    }
+
+    /*
+     * Called once by each producer when it will offer nothing more.
+     */
+    public void producerDone() {
+        producers.arriveAndDeregister();
+        if (producers.isTerminated()) {
+            for (Thread idle; (idle = idleConsumers.poll()) != null; ) {
+                LockSupport.unpark(idle);
+            }
+        }
+    }
+
+    public boolean isProductionDone() {
+        return producers.isTerminated();
+    }
+
+    /*
+     * Next item to process, or null once all producers are done and the queue is drained.
+     * The caller must call release() after processing each item it gets.
+     */
+    public T next() throws InterruptedException {
+        Thread me = Thread.currentThread();
+        while (true) {
+            T item = queue.poll();
+            if (item != null) {
+                return item;
+            }
+            idleConsumers.add(me);
+            item = queue.poll();
+            if (item != null || producers.isTerminated()) {
+                idleConsumers.remove(me);
+                // Producers add before they deregister, so one more look is conclusive
+                return item != null ? item : queue.poll();
+            }
+            LockSupport.park(this);
+            // Still queued means nobody dequeued us (spurious wakeup); don't leave a stale entry
+            idleConsumers.remove(me);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    public void release() {
+        credits.release();
+    }
+
+    /*
+     * Runs the handler on items until the pipeline is drained, returning its credit after each.
+     */
+    public void consume(ItemHandler<T> handler) throws InterruptedException {
+        for (T item; (item = next()) != null; ) {
+            try {
+                handler.handle(item);
+            } finally {
+                release();
+            }
+        }
+    }
+
+    public long getOfferedCount() {
+        return offered.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public double getRejectionRate() {
+        long total = offered.sum();
+        return total == 0 ? 0 : (double) rejected.sum() / total;
+    }
+}
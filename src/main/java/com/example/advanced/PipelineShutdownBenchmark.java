@@ -0,0 +1,234 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * runTask6's 3 producers / 2 consumers with the poison-pill protocol against PipelineCoordinator:
+ * - saturated: items/sec with the same in-flight limit, and how long consumers take to stop
+ *   after the last producer finishes;
+ * - overload: consumers slower than producers, producers offering with a 1 ms timeout; the
+ *   coordinator reports how much it rejects;
+ * - dead consumers: consumers that quit early. Poison-pill producers hang on put(); coordinator
+ *   producers finish and report rejections.
+ *
+ * Usage: PipelineShutdownBenchmark [items] [inFlight]
+ */
+public class PipelineShutdownBenchmark {
+    private static final int PRODUCERS = 3;
+    private static final int CONSUMERS = 2;
+    private static final String POISON_PILL = "POISON_PILL";
+    // Producers still running after this long are reported as hung
+    private static final int HANG_SECONDS = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 3_000_000;
+        int inFlight = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        String[] ids = new String[1024];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "ID-" + i;
+        }
+
+        System.out.printf("%d producers, %d consumers, %,d items, %d in flight%n", PRODUCERS, CONSUMERS, items,
+                inFlight);
+        for (int round = 0; round < 2; round++) {
+            // The first round is JIT warm-up
+            Result pills = poisonPills(ids, items, inFlight, 0, Long.MAX_VALUE);
+            Result coordinated = coordinated(ids, items, inFlight, 0, Long.MAX_VALUE, Long.MAX_VALUE);
+            if (round == 1) {
+                System.out.printf("%-20s %,14.0f items/sec, consumers stopped %,d us after the last producer%n",
+                        "poison pills", pills.itemsPerSecond, pills.stopMicros);
+                System.out.printf("%-20s %,14.0f items/sec, consumers stopped %,d us after the last producer%n",
+                        "coordinator", coordinated.itemsPerSecond, coordinated.stopMicros);
+            }
+        }
+
+        int overloadItems = 30_000;
+        Result overload = coordinated(ids, overloadItems, 64, 50_000, Long.MAX_VALUE, 1);
+        System.out.printf("overload (consumers ~50 us/item, 1 ms offer timeout): %.1f%% rejected%n",
+                100 * overload.rejectionRate);
+
+        Result deadPills = poisonPills(ids, overloadItems, 64, 0, 1_000);
+        System.out.println("dead consumers, poison pills: "
+                + (deadPills.hung ? "producers hung on put()" : "finished"));
+        Result deadCoordinated = coordinated(ids, overloadItems, 64, 0, 1_000, 1);
+        System.out.printf("dead consumers, coordinator: %s, %.1f%% rejected%n",
+                deadCoordinated.hung ? "producers hung" : "producers finished", 100 * deadCoordinated.rejectionRate);
+    }
+
+    /*
+     * Poison pills done correctly: one pill per consumer once every producer has finished.
+     * (AdvancedConsumer's pass-the-pill scheme stops all consumers at the first producer's pill,
+     * stranding the other producers on a full queue.)
+     */
+    private static Result poisonPills(String[] ids, int items, int capacity, long workNanos, long consumerLimit)
+            throws InterruptedException {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>(capacity);
+        return run(items, workNanos, consumerLimit, new Pipeline() {
+            @Override
+            public boolean produce(int i) throws InterruptedException {
+                queue.put(ids[i & (ids.length - 1)]);
+                return true;
+            }
+
+            @Override
+            public void producerDone() {
+            }
+
+            @Override
+            public void allProducersDone() throws InterruptedException {
+                for (int c = 0; c < CONSUMERS; c++) {
+                    queue.put(POISON_PILL);
+                }
+            }
+
+            @Override
+            public String next() throws InterruptedException {
+                String item = queue.take();
+                return POISON_PILL.equals(item) ? null : item;
+            }
+
+            @Override
+            public void release() {
+            }
+
+            @Override
+            public double rejectionRate() {
+                return 0;
+            }
+        });
+    }
+
+    private static Result coordinated(String[] ids, int items, int credits, long workNanos, long consumerLimit,
+                                      long offerTimeoutMillis) throws InterruptedException {
+        PipelineCoordinator<String> coordinator = new PipelineCoordinator<>(PRODUCERS, credits);
+        return run(items, workNanos, consumerLimit, new Pipeline() {
+            @Override
+            public boolean produce(int i) throws InterruptedException {
+                return coordinator.offer(ids[i & (ids.length - 1)], offerTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void producerDone() {
+                coordinator.producerDone();
+            }
+
+            @Override
+            public void allProducersDone() {
+            }
+
+            @Override
+            public String next() throws InterruptedException {
+                return coordinator.next();
+            }
+
+            @Override
+            public void release() {
+                coordinator.release();
+            }
+
+            @Override
+            public double rejectionRate() {
+                return coordinator.getRejectionRate();
+            }
+        });
+    }
+
+    private static Result run(int items, long workNanos, long consumerLimit, Pipeline pipeline)
+            throws InterruptedException {
+        int perProducer = items / PRODUCERS;
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder consumed = new LongAdder();
+        AtomicLong lastProducerDone = new AtomicLong();
+        List<Thread> producers = new ArrayList<>();
+        List<Thread> consumers = new ArrayList<>();
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            producers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        pipeline.produce(i);
+                    }
+                    lastProducerDone.accumulateAndGet(System.nanoTime(), Math::max);
+                    pipeline.producerDone();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            consumers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (long n = 0; n < consumerLimit && pipeline.next() != null; n++) {
+                        if (workNanos > 0) {
+                            long until = System.nanoTime() + workNanos;
+                            while (System.nanoTime() < until) {
+                                Thread.onSpinWait();
+                            }
+                        }
+                        consumed.increment();
+                        pipeline.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        producers.forEach(Thread::start);
+        consumers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        Result result = new Result();
+        long deadline = begin + TimeUnit.SECONDS.toNanos(HANG_SECONDS);
+        for (Thread producer : producers) {
+            producer.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (producer.isAlive()) {
+                result.hung = true;
+            }
+        }
+        if (result.hung) {
+            producers.forEach(Thread::interrupt);
+            consumers.forEach(Thread::interrupt);
+            return result;
+        }
+        pipeline.allProducersDone();
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        long end = System.nanoTime();
+        result.itemsPerSecond = consumed.sum() * 1e9 / (end - begin);
+        result.stopMicros = TimeUnit.NANOSECONDS.toMicros(end - lastProducerDone.get());
+        result.rejectionRate = pipeline.rejectionRate();
+        return result;
+    }
+
+    private interface Pipeline {
+        boolean produce(int i) throws InterruptedException;
+
+        void producerDone();
+
+        void allProducersDone() throws InterruptedException;
+
+        String next() throws InterruptedException;
+
+        void release();
+
+        double rejectionRate();
+    }
+
+    private static class Result {
+        double itemsPerSecond;
+        long stopMicros;
+        double rejectionRate;
+        boolean hung;
+    }
+}
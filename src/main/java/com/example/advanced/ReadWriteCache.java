@@ -1,43 +1,488 @@
 package com.example.advanced;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
+/*
+ * String cache with a choice of engine, so read paths can be compared:
+ * - READ_WRITE_LOCK: HashMap under a ReentrantReadWriteLock. Every read CASes the lock's shared
+ *   state word, which bounces between cores once many readers run.
+ * - CONCURRENT: ConcurrentHashMap. Reads take no lock, writes lock one bin.
+ * - COPY_ON_WRITE: reads go to an immutable HashMap behind a volatile reference; each write copies
+ *   the map under a monitor and publishes the copy. Cheapest reads, writes cost O(size).
+ * - OPTIMISTIC: open-addressing table under a StampedLock. Reads probe without locking and
+ *   validate the stamp afterwards, retrying under the read lock only if a write got in between.
+ * - OFF_HEAP: keys and values serialized into direct-memory slabs, indexed by primitive arrays
+ *   (OffHeapStore), so a large cache adds little to the heap the GC has to trace.
+ * Logging, when enabled, happens after the lock is released.
+ *
+ * The on-heap engines also keep their keys in a KeyIndex, so randomKey(), sample(k) and
+ * keyIterator() work in O(1), O(k) and O(1) per key, without copying the map the way keySet()
+ * does. OFF_HEAP has no such index; it samples and iterates over its own hash tables.
+ *
+ * READ_WRITE_LOCK, CONCURRENT, COPY_ON_WRITE and OPTIMISTIC grow without limit, OFF_HEAP up
+ * to the direct memory it may allocate. Given a maximum size instead, the cache is a
+ * BoundedStore (Mode.BOUNDED): ConcurrentHashMap reads plus LRU, LFU or W-TinyLFU eviction and
+ * optional expiry.
+ */
 public class ReadWriteCache {
-    private final Map<String, String> map = new HashMap<>();
-    private final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+    // BOUNDED is what getMode() reports for the bounded constructor; it cannot be passed in
+    public enum Mode {READ_WRITE_LOCK, CONCURRENT, COPY_ON_WRITE, OPTIMISTIC, OFF_HEAP, BOUNDED}
 
-    public void put(String key, String value) {
-        rw.writeLock().lock();
-        try {
-            map.put(key, value);
-            System.out.println(LocalDateTime.now() + " [WRITE] key=" + key + " value=" + value);
-        } finally {
-            rw.writeLock().unlock();
+    public enum Eviction {LRU, LFU, W_TINY_LFU}
+
+    private final Mode mode;
+    private final Store store;
+    private final boolean logOperations;
+    private volatile CachePersistence persistence;
+
+    public ReadWriteCache() {
+        this(Mode.READ_WRITE_LOCK, true);
+    }
+
+    public ReadWriteCache(Mode mode, boolean logOperations) {
+        this.mode = mode;
+        this.logOperations = logOperations;
+        switch (mode) {
+            case READ_WRITE_LOCK:
+                store = new LockedStore();
+                break;
+            case CONCURRENT:
+                store = new ConcurrentStore();
+                break;
+            case COPY_ON_WRITE:
+                store = new CopyOnWriteStore();
+                break;
+            case OPTIMISTIC:
+                store = new OptimisticStore();
+                break;
+            case OFF_HEAP:
+                // The JDK's default -XX:MaxDirectMemorySize; OffHeapStore copes with a lower one
+                store = new OffHeapStore(Runtime.getRuntime().maxMemory());
+                break;
+            case BOUNDED:
+                throw new IllegalArgumentException("A bounded cache needs a maximum size and an eviction policy");
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + mode);
         }
     }
 
+    /*
+     * Bounded cache; maintenance runs on the common ForkJoinPool. A ttl of 0 means entries
+     * never expire.
+     */
+    public ReadWriteCache(int maximumSize, Eviction eviction, long ttl, TimeUnit unit, boolean logOperations) {
+        this.mode = Mode.BOUNDED;
+        this.logOperations = logOperations;
+        this.store = new BoundedStore(maximumSize, eviction, unit.toNanos(ttl), ForkJoinPool.commonPool());
+    }
+
+    public void put(String key, String value) {
+        store.put(key, value);
+        persisted(key);
+        log(key, value);
+    }
+
+    /*
+     * Overrides the cache's ttl for this entry. The unbounded engines never expire anything and
+     * ignore the ttl, so this is then the same as put(key, value).
+     */
+    public void put(String key, String value, long ttl, TimeUnit unit) {
+        store.put(key, value, unit.toNanos(ttl));
+        persisted(key);
+        log(key, value);
+    }
+
     public String get(String key) {
-        rw.readLock().lock();
-        try {
-            String v = map.get(key);
+        String v = store.get(key);
+        if (logOperations) {
             System.out.println(LocalDateTime.now() + " [READ]  key=" + key + " value=" + v);
-            return v;
-        } finally {
-            rw.readLock().unlock();
         }
+        return v;
+    }
+
+    /*
+     * Copies the value's UTF-8 bytes into target at its position, without creating a String, and
+     * advances the position. Returns the number of bytes, or -1 if the key is absent; throws
+     * BufferOverflowException if they do not fit. Only OFF_HEAP reads without allocating.
+     */
+    public int get(String key, ByteBuffer target) {
+        return store.get(key, target);
     }
 
+    /*
+     * Copies every key; prefer randomKey(), sample() or keyIterator().
+     */
     public Set<String> keySet() {
-        rw.readLock().lock();
-        try {
+        return store.keySet();
+    }
+
+    /*
+     * A uniformly random key, or null if the cache is empty.
+     */
+    public String randomKey() {
+        return store.randomKey();
+    }
+
+    /*
+     * Up to k distinct keys, chosen uniformly.
+     */
+    public List<String> sample(int k) {
+        return store.sample(k);
+    }
+
+    /*
+     * Weakly consistent: never throws ConcurrentModificationException and sees at least the keys
+     * present when it was created and not removed since.
+     */
+    public Iterator<String> keyIterator() {
+        return store.keyIterator();
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    public long getEvictionCount() {
+        return store.evictionCount();
+    }
+
+    /*
+     * Applies pending eviction and expiry now instead of in the background.
+     */
+    public void cleanUp() {
+        store.cleanUp();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /*
+     * Called by CachePersistence; null detaches it.
+     */
+    void attachPersistence(CachePersistence persistence) {
+        this.persistence = persistence;
+    }
+
+    /*
+     * For CachePersistence: no logging, no dirty marking.
+     */
+    String getQuietly(String key) {
+        return store.get(key);
+    }
+
+    void putQuietly(String key, String value) {
+        store.put(key, value);
+    }
+
+    private void persisted(String key) {
+        CachePersistence p = persistence;
+        if (p != null) {
+            p.markDirty(key);
+        }
+    }
+
+    private void log(String key, String value) {
+        if (logOperations) {
+            System.out.println(LocalDateTime.now() + " [WRITE] key=" + key + " value=" + value);
+        }
+    }
+
+    interface Store {
+        String get(String key);
+
+        default int get(String key, ByteBuffer target) {
+            String value = get(key);
+            if (value == null) {
+                return -1;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            target.put(bytes);
+            return bytes.length;
+        }
+
+        void put(String key, String value);
+
+        // Only BoundedStore expires entries
+        default void put(String key, String value, long ttlNanos) {
+            put(key, value);
+        }
+
+        Set<String> keySet();
+
+        String randomKey();
+
+        List<String> sample(int k);
+
+        Iterator<String> keyIterator();
+
+        int size();
+
+        default long evictionCount() {
+            return 0;
+        }
+
+        default void cleanUp() {
+        }
+    }
+
+    /*
+     * Keys are never removed from these engines, so the index only grows. A key joins it after
+     * its value is in the map, so a sampled key can always be read.
+     */
+    private abstract static class IndexedStore implements Store {
+        final KeyIndex<String> keys = new KeyIndex<>();
+
+        @Override
+        public String randomKey() {
+            return keys.random();
+        }
+
+        @Override
+        public List<String> sample(int k) {
+            return keys.sample(k);
+        }
+
+        @Override
+        public Iterator<String> keyIterator() {
+            return keys.iterator();
+        }
+    }
+
+    private static final class LockedStore extends IndexedStore {
+        private final Map<String, String> map = new HashMap<>();
+        private final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+
+        @Override
+        public String get(String key) {
+            rw.readLock().lock();
+            try {
+                return map.get(key);
+            } finally {
+                rw.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void put(String key, String value) {
+            rw.writeLock().lock();
+            try {
+                boolean added = !map.containsKey(key);
+                map.put(key, value);
+                if (added) {
+                    keys.add(key);
+                }
+            } finally {
+                rw.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public Set<String> keySet() {
+            rw.readLock().lock();
+            try {
+                return new HashSet<>(map.keySet());
+            } finally {
+                rw.readLock().unlock();
+            }
+        }
+
+        @Override
+        public int size() {
+            rw.readLock().lock();
+            try {
+                return map.size();
+            } finally {
+                rw.readLock().unlock();
+            }
+        }
+    }
+
+    private static final class ConcurrentStore extends IndexedStore {
+        private final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>();
+
+        @Override
+        public String get(String key) {
+            return map.get(key);
+        }
+
+        @Override
+        public void put(String key, String value) {
+            if (map.put(key, value) == null) {
+                keys.add(key);
+            }
+        }
+
+        @Override
+        public Set<String> keySet() {
             return new HashSet<>(map.keySet());
-        } finally {
-            rw.readLock().unlock();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+    }
+
+    private static final class CopyOnWriteStore extends IndexedStore {
+        // Never modified once published
+        private volatile Map<String, String> map = new HashMap<>();
+
+        @Override
+        public String get(String key) {
+            return map.get(key);
+        }
+
+        @Override
+        public synchronized void put(String key, String value) {
+            Map<String, String> copy = new HashMap<>(map);
+            boolean added = !copy.containsKey(key);
+            copy.put(key, value);
+            map = copy;
+            if (added) {
+                keys.add(key);
+            }
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return new HashSet<>(map.keySet());
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+    }
+
+    /*
+     * Linear probing over one array of alternating keys and values, grown at half full. Keys are
+     * never removed, so a probe always ends at the key or at an empty slot; a torn read during a
+     * concurrent write can only give a wrong answer, which validate() then rejects.
+     */
+    private static final class OptimisticStore extends IndexedStore {
+        private final StampedLock lock = new StampedLock();
+        private String[] table = new String[32];
+        private int size;
+
+        @Override
+        public String get(String key) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                String v = find(table, key);
+                if (lock.validate(stamp)) {
+                    return v;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return find(table, key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @Override
+        public void put(String key, String value) {
+            long stamp = lock.writeLock();
+            try {
+                if (insert(table, key, value)) {
+                    keys.add(key);
+                    if (++size * 4 > table.length) {
+                        resize();
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        @Override
+        public Set<String> keySet() {
+            long stamp = lock.readLock();
+            try {
+                Set<String> result = new HashSet<>();
+                for (int i = 0; i < table.length; i += 2) {
+                    if (table[i] != null) {
+                        result.add(table[i]);
+                    }
+                }
+                return result;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @Override
+        public int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private static String find(String[] table, String key) {
+            int mask = table.length - 2;
+            // At most one probe per slot, even if the table is read mid-write
+            for (int i = (spread(key.hashCode()) << 1) & mask, probes = 0; probes < table.length / 2;
+                 i = (i + 2) & mask, probes++) {
+                String k = table[i];
+                if (k == null) {
+                    return null;
+                }
+                if (k.equals(key)) {
+                    return table[i + 1];
+                }
+            }
+            return null;
+        }
+
+        /*
+         * Returns true if the key was new.
+         */
+        private static boolean insert(String[] table, String key, String value) {
+            int mask = table.length - 2;
+            for (int i = (spread(key.hashCode()) << 1) & mask; ; i = (i + 2) & mask) {
+                String k = table[i];
+                if (k == null) {
+                    table[i + 1] = value;
+                    table[i] = key;
+                    return true;
+                }
+                if (k.equals(key)) {
+                    table[i + 1] = value;
+                    return false;
+                }
+            }
+        }
+
+        private void resize() {
+            String[] grown = new String[table.length * 2];
+            for (int i = 0; i < table.length; i += 2) {
+                if (table[i] != null) {
+                    insert(grown, table[i], table[i + 1]);
+                }
+            }
+            table = grown;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
         }
     }
 }
@@ -0,0 +1,109 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Read ops/sec of each ReadWriteCache mode with 1 to 64 threads, at 99/1, 90/10 and 50/50
+ * read/write mixes over a fixed key set. Every thread runs the same mix for a fixed time; keys
+ * and values are created up front so the loop measures the cache, not allocation.
+ *
+ * Usage: ReadWriteCacheBenchmark [keys] [millisPerRun]
+ */
+public class ReadWriteCacheBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int[] READ_PERCENTS = {99, 90, 50};
+
+    public static void main(String[] args) throws InterruptedException {
+        int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_024;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 200;
+
+        String[] keys = new String[keyCount];
+        String[] values = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key" + i;
+            values[i] = "value" + i;
+        }
+
+        // BOUNDED is measured by BoundedCacheBenchmark
+        List<ReadWriteCache.Mode> modes = new ArrayList<>(List.of(ReadWriteCache.Mode.values()));
+        modes.remove(ReadWriteCache.Mode.BOUNDED);
+
+        // JIT warm-up
+        for (ReadWriteCache.Mode mode : modes) {
+            run(mode, keys, values, 4, 90, millis);
+        }
+
+        System.out.printf("%,d keys, %d ms per run, read ops/sec%n", keyCount, millis);
+        for (int readPercent : READ_PERCENTS) {
+            System.out.printf("%n%d/%d read/write%n", readPercent, 100 - readPercent);
+            System.out.printf("%-16s", "mode \\ threads");
+            for (int threads : THREAD_COUNTS) {
+                System.out.printf(" %12d", threads);
+            }
+            System.out.println();
+            for (ReadWriteCache.Mode mode : modes) {
+                System.out.printf("%-16s", mode);
+                for (int threads : THREAD_COUNTS) {
+                    System.out.printf(" %,12.0f", run(mode, keys, values, threads, readPercent, millis));
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    private static double run(ReadWriteCache.Mode mode, String[] keys, String[] values, int threads,
+                              int readPercent, long millis) throws InterruptedException {
+        ReadWriteCache cache = new ReadWriteCache(mode, false);
+        for (int i = 0; i < keys.length; i++) {
+            cache.put(keys[i], values[i]);
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder reads = new LongAdder();
+        long[] window = new long[2];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+                int misses = 0;
+                while (System.nanoTime() < window[1]) {
+                    // Check the clock only every 64 operations
+                    for (int i = 0; i < 64; i++) {
+                        int k = random.nextInt(keys.length);
+                        if (random.nextInt(100) < readPercent) {
+                            if (cache.get(keys[k]) == null) {
+                                misses++;
+                            }
+                            done++;
+                        } else {
+                            cache.put(keys[k], values[random.nextInt(keys.length)]);
+                        }
+                    }
+                }
+                if (misses > 0) {
+                    System.out.printf("    %s: %d reads found no value%n", mode, misses);
+                }
+                reads.add(done);
+            }));
+        }
+        workers.forEach(Thread::start);
+        window[0] = System.nanoTime();
+        window[1] = window[0] + millis * 1_000_000;
+        // The latch publishes the window to the workers
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return reads.sum() * 1e9 / (System.nanoTime() - window[0]);
+    }
+}
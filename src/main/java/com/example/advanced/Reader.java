@@ -1,8 +1,6 @@
 package com.example.advanced;
 
-import java.util.ArrayList;
 import java.util.Random;
-import java.util.Set;
 
 public class Reader implements Runnable {
     private final ReadWriteCache cache;
@@ -19,14 +17,12 @@ public class Reader implements Runnable {
         try {
             // Each reader performs 30 reads
             for (int i = 0; i < 30; i++) {
-                // choose a key randomly from available keys
-                Set<String> keys = cache.keySet();
-                if (keys.isEmpty()) {
+                // choose a key randomly from available keys, without copying them
+                String key = cache.randomKey();
+                if (key == null) {
                     Thread.sleep(50);
                     continue;
                 }
-                int idx = rand.nextInt(keys.size());
-                String key = new ArrayList<>(keys).get(idx);
                 String value = cache.get(key);
                 System.out.println("Reader-" + id + " read '" + key + "' => '" + value + "'");
                 Thread.sleep(rand.nextInt(50, 151));
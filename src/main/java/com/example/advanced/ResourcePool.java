@@ -1,19 +1,680 @@
 package com.example.advanced;
 
-import java.util.concurrent.Semaphore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
-public class ResourcePool {
-    private final Semaphore semaphore;
+/*
+ * A pool of up to maxSize resources built by a factory, handed out as Leases:
+ *
+ *     try (Lease<Connection> lease = pool.acquire()) {
+ *         lease.get().send(...);
+ *     }
+ *
+ * Borrowing follows HikariCP's ConcurrentBag and takes no lock:
+ * 1. the calling thread's own list of resources it returned recently (affinity, no contention);
+ * 2. a scan of the shared list, stealing any resource whose state CASes from NOT_IN_USE to IN_USE;
+ * 3. otherwise the pool asks the background thread to create one (below maxSize) and the caller
+ *    waits on a SynchronousQueue, to which release() and the creator hand resources while
+ *    anyone is waiting.
+ * The resource stays in the shared list while leased; only its state changes. A fair pool skips
+ * steps 1 and 2 while anyone is waiting, so resources go to waiters in arrival order; an unfair
+ * one lets a thread that just released a resource take it back ahead of them, which is faster.
+ *
+ * minIdle resources are created in the background at construction (pre-warming), and the same
+ * thread later closes resources idle for longer than idleTimeout while more than minIdle exist.
+ * A resource idle for more than VALIDATION_INTERVAL_NANOS is checked with the validator before it
+ * is leased again; one that fails is destroyed and borrowing goes on.
+ *
+ * Instrumentation stays off the fast path: leases are counted in a plain field of the entry
+ * the borrower owns, wait time is only measured once a thread has to wait, and leak detection
+ * stamps the lease with the coarse clock and leaves the scanning to the housekeeper. The
+ * acquiring stack, which costs microseconds to capture, is taken only for sampled leases.
+ */
+public class ResourcePool<T> implements AutoCloseable {
+    private static final int NOT_IN_USE = 0;
+    private static final int IN_USE = 1;
+    private static final int RESERVED = 2;
+    private static final int REMOVED = -1;
 
-    public ResourcePool(int maxResources){
-        this.semaphore = new Semaphore(maxResources);
+    private static final int AFFINITY_CACHE_SIZE = 16;
+    private static final long VALIDATION_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long CLOCK_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long CREATE_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Supplier<T> factory;
+    private final Predicate<T> validator;
+    private final Consumer<T> destroyer;
+    private final int minIdle;
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final boolean fair;
+
+    private final CopyOnWriteArrayList<Entry<T>> shared = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ArrayList<Entry<T>>> affinity =
+            ThreadLocal.withInitial(() -> new ArrayList<>(AFFINITY_CACHE_SIZE));
+    private final SynchronousQueue<Entry<T>> handoff = new SynchronousQueue<>(true);
+    private final AtomicInteger waiters = new AtomicInteger();
+    // Resources created plus those being created
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    // System.nanoTime() as of the last tick; a lease would otherwise pay for two clock reads
+    private volatile long clock = System.nanoTime();
+
+    // Handed to waiters by close() to wake them
+    private final Entry<T> closedSignal = new Entry<>(null, 0);
+
+    private volatile AdaptiveLimiter limiter;
+    private volatile long leakThresholdNanos;
+    private volatile int stackSampleEvery;
+
+    // Leases of entries already removed; live entries count their own
+    private final LongAdder retiredLeases = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    /*
+     * One pooled resource and its state. The other fields are plain and only written by the
+     * thread holding the entry, ordered by the state CAS and write around them; the housekeeper
+     * and describeLeases() read them racily. borrowedAt is 0 while the entry is not leased (it is
+     * cleared before the release publishes the entry), so a reader never mistakes the previous
+     * lease's stamp for the current one.
+     */
+    static final class Entry<T> {
+        final T resource;
+        final AtomicInteger state = new AtomicInteger(NOT_IN_USE);
+        Thread borrower;
+        long lastReturned;
+        long leases;
+        long borrowedAt;
+        Throwable acquiredAt;
+        // borrowedAt of the lease last reported as a leak
+        long leakReported;
+
+        Entry(T resource, long now) {
+            this.resource = resource;
+            this.lastReturned = now;
+        }
+    }
+
+    public ResourcePool(Supplier<T> factory, int minIdle, int maxSize) {
+        this(factory, minIdle, maxSize, false);
+    }
+
+    public ResourcePool(Supplier<T> factory, int minIdle, int maxSize, boolean fair) {
+        this(factory, resource -> true, resource -> { }, minIdle, maxSize, 10, TimeUnit.MINUTES, fair);
+    }
+
+    public ResourcePool(Supplier<T> factory, Predicate<T> validator, Consumer<T> destroyer, int minIdle,
+                        int maxSize, long idleTimeout, TimeUnit unit, boolean fair) {
+        if (maxSize <= 0 || minIdle < 0 || minIdle > maxSize) {
+            throw new IllegalArgumentException("Need 0 <= minIdle <= maxSize and maxSize > 0");
+        }
+        this.factory = factory;
+        this.validator = validator;
+        this.destroyer = destroyer;
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.fair = fair;
+        closedSignal.state.set(REMOVED);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ResourcePool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleAtFixedRate(this::tick, CLOCK_TICK_NANOS, CLOCK_TICK_NANOS, TimeUnit.NANOSECONDS);
+        long period = Math.max(TimeUnit.SECONDS.toNanos(1), idleTimeoutNanos / 2);
+        housekeeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.NANOSECONDS);
+        fillToMinIdle();
+    }
+
+    /*
+     * Reports every lease held longer than threshold, once, with the borrowing thread. With
+     * stackSampleEvery = n > 0, one lease in n (picked at random) also records where it was
+     * acquired, and the report prints that stack; 0 records none. A threshold of 0 turns leak
+     * detection off.
+     */
+    public ResourcePool<T> detectLeaks(long threshold, TimeUnit unit, int stackSampleEvery) {
+        this.stackSampleEvery = stackSampleEvery;
+        this.leakThresholdNanos = unit.toNanos(threshold);
+        return this;
+    }
+
+    /*
+     * Adaptive mode: every acquire first takes a permit from the limiter and is shed at once when
+     * it has none left, however many resources are idle. The lease hands the permit back on close
+     * with the time it was held (timing out in the pool counts as a drop), so the
+     * limiter settles on the concurrency the resources sustain without their latency climbing.
+     * maxSize remains the hard cap.
+     */
+    public ResourcePool<T> limitWith(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+        return this;
+    }
+
+    /*
+     * Blocks until a resource is available. In adaptive mode it throws RejectedExecutionException
+     * instead when the limiter sheds the call.
+     */
+    public Lease<T> acquire() throws InterruptedException {
+        Lease<T> lease = tryAcquire(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        if (lease == null) {
+            throw new RejectedExecutionException("ResourcePool is at its adaptive limit of "
+                    + limiter.getLimit());
+        }
+        return lease;
+    }
+
+    /*
+     * Returns null if no resource became available within the timeout, or at once in adaptive
+     * mode when the limiter sheds the call.
+     */
+    public Lease<T> tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("ResourcePool is closed");
+        }
+        AdaptiveLimiter.Permit permit = null;
+        AdaptiveLimiter adaptive = limiter;
+        if (adaptive != null) {
+            permit = adaptive.tryAcquire();
+            if (permit == null) {
+                shed.increment();
+                return null;
+            }
+        }
+        Entry<T> entry;
+        try {
+            entry = borrow(unit.toNanos(timeout));
+        } catch (InterruptedException e) {
+            if (permit != null) {
+                permit.ignore();
+            }
+            throw e;
+        }
+        if (entry == null) {
+            if (closed) {
+                if (permit != null) {
+                    permit.ignore();
+                }
+                throw new IllegalStateException("ResourcePool is closed");
+            }
+            if (permit != null) {
+                permit.drop();
+            }
+            timeouts.increment();
+            return null;
+        }
+        entry.leases++;
+        entry.borrower = Thread.currentThread();
+        entry.borrowedAt = clock;
+        int sampleEvery = stackSampleEvery;
+        entry.acquiredAt = sampleEvery > 0 && ThreadLocalRandom.current().nextInt(sampleEvery) == 0
+                ? new Throwable("Lease acquired here") : null;
+        return new Lease<>(this, entry, permit);
+    }
+
+    private Entry<T> borrow(long timeoutNanos) throws InterruptedException {
+        if (!fair || waiters.get() == 0) {
+            ArrayList<Entry<T>> recent = affinity.get();
+            for (int i = recent.size() - 1; i >= 0; i--) {
+                Entry<T> entry = recent.remove(i);
+                if (take(entry)) {
+                    return entry;
+                }
+            }
+        }
+
+        int waiting = waiters.incrementAndGet();
+        try {
+            if (!fair || waiting == 1) {
+                for (Entry<T> entry : shared) {
+                    if (take(entry)) {
+                        // Another thread is waiting and may have missed this one: grow for it
+                        if (waiting > 1) {
+                            requestCreate();
+                        }
+                        return entry;
+                    }
+                }
+            }
+            requestCreate();
+
+            long begin = System.nanoTime();
+            try {
+                long remaining = timeoutNanos;
+                while (!closed) {
+                    Entry<T> entry = handoff.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (entry == null) {
+                        return null;
+                    }
+                    if (take(entry)) {
+                        return entry;
+                    }
+                    if (timeoutNanos != Long.MAX_VALUE) {
+                        remaining = timeoutNanos - (System.nanoTime() - begin);
+                        if (remaining <= 0) {
+                            return null;
+                        }
+                    }
+                }
+                return null;
+            } finally {
+                waited.increment();
+                waitTime.record(System.nanoTime() - begin);
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /*
+     * Claims the entry if it is free and still valid.
+     */
+    private boolean take(Entry<T> entry) {
+        if (!entry.state.compareAndSet(NOT_IN_USE, IN_USE)) {
+            return false;
+        }
+        if (clock - entry.lastReturned > VALIDATION_INTERVAL_NANOS && !isValid(entry)) {
+            remove(entry);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Called by Lease.close(). Hands the resource straight to a waiting thread if there is one,
+     * otherwise remembers it in this thread's affinity list.
+     */
+    void release(Entry<T> entry) {
+        entry.borrower = null;
+        entry.borrowedAt = 0;
+        entry.acquiredAt = null;
+        entry.lastReturned = clock;
+        if (closed) {
+            remove(entry);
+            return;
+        }
+        entry.state.set(NOT_IN_USE);
+        for (int i = 0; waiters.get() > 0; i++) {
+            if (entry.state.get() != NOT_IN_USE || handoff.offer(entry)) {
+                return;
+            }
+            if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(10_000);
+            } else {
+                Thread.yield();
+            }
+        }
+        ArrayList<Entry<T>> recent = affinity.get();
+        if (recent.size() < AFFINITY_CACHE_SIZE) {
+            recent.add(entry);
+        }
+    }
+
+    /*
+     * Called by Lease.invalidate(): the resource is broken and must not be leased again.
+     */
+    void invalidate(Entry<T> entry) {
+        entry.borrower = null;
+        entry.borrowedAt = 0;
+        remove(entry);
+    }
+
+    private boolean isValid(Entry<T> entry) {
+        try {
+            return validator.test(entry.resource);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /*
+     * The entry must be IN_USE or RESERVED by the caller.
+     */
+    private void remove(Entry<T> entry) {
+        entry.state.set(REMOVED);
+        if (shared.remove(entry)) {
+            total.decrementAndGet();
+            retiredLeases.add(entry.leases);
+            destroy(entry.resource);
+        }
+        if (!closed) {
+            fillToMinIdle();
+            // The removed resource may have been what a waiter was counting on
+            if (waiters.get() > 0) {
+                requestCreate();
+            }
+        }
     }
 
-    public void acquire() throws InterruptedException{
-        semaphore.acquire();
+    private void destroy(T resource) {
+        try {
+            destroyer.accept(resource);
+        } catch (RuntimeException e) {
+            System.out.println("ResourcePool: destroying a resource failed: " + e);
+        }
     }
 
-    public void release(){
-        semaphore.release();
-    }   
+    /*
+     * Creates one resource in the background unless the pool is full or enough creations are
+     * already on the way for the threads waiting.
+     */
+    private void requestCreate() {
+        while (true) {
+            int current = total.get();
+            if (current >= maxSize || closed || pending.get() >= waiters.get()) {
+                return;
+            }
+            if (total.compareAndSet(current, current + 1)) {
+                startCreate();
+                return;
+            }
+        }
+    }
+
+    private void fillToMinIdle() {
+        while (true) {
+            int current = total.get();
+            if (current >= minIdle || closed) {
+                return;
+            }
+            if (total.compareAndSet(current, current + 1)) {
+                startCreate();
+            }
+        }
+    }
+
+    /*
+     * The caller has already counted the resource in total.
+     */
+    private void startCreate() {
+        pending.incrementAndGet();
+        try {
+            housekeeper.execute(this::create);
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile
+            pending.decrementAndGet();
+            total.decrementAndGet();
+        }
+    }
+
+    private void create() {
+        try {
+            Entry<T> entry = new Entry<>(factory.get(), clock);
+            if (closed) {
+                total.decrementAndGet();
+                destroy(entry.resource);
+                return;
+            }
+            shared.add(entry);
+            // close() may have swept shared between the check above and the add
+            if (closed) {
+                if (entry.state.compareAndSet(NOT_IN_USE, RESERVED)) {
+                    remove(entry);
+                }
+                return;
+            }
+            while (waiters.get() > 0 && entry.state.get() == NOT_IN_USE && !handoff.offer(entry)) {
+                Thread.yield();
+            }
+        } catch (RuntimeException e) {
+            total.decrementAndGet();
+            System.out.println("ResourcePool: creating a resource failed: " + e);
+            try {
+                housekeeper.schedule(this::requestCreate, CREATE_RETRY_NANOS, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException closedMeanwhile) {
+                // Nothing to retry for
+            }
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        clock = now;
+        long threshold = leakThresholdNanos;
+        if (threshold > 0) {
+            reportLeaks(now, threshold);
+        }
+    }
+
+    private void reportLeaks(long now, long threshold) {
+        for (Entry<T> entry : shared) {
+            long borrowedAt = entry.borrowedAt;
+            if (borrowedAt == 0 || entry.leakReported == borrowedAt || now - borrowedAt <= threshold) {
+                continue;
+            }
+            Thread borrower = entry.borrower;
+            Throwable acquiredAt = entry.acquiredAt;
+            if (entry.state.get() != IN_USE || entry.borrowedAt != borrowedAt) {
+                continue;
+            }
+            entry.leakReported = borrowedAt;
+            leaks.increment();
+            System.out.printf("ResourcePool: %s held by %s for %,d ms, possible leak%s%n", entry.resource,
+                    borrower == null ? "an unknown thread" : borrower.getName(),
+                    TimeUnit.NANOSECONDS.toMillis(now - borrowedAt),
+                    acquiredAt == null ? "" : "; acquired at:");
+            if (acquiredAt != null) {
+                acquiredAt.printStackTrace(System.out);
+            }
+        }
+    }
+
+    /*
+     * Closes resources idle longer than idleTimeout, oldest first, down to minIdle.
+     */
+    private void evictIdle() {
+        List<Entry<T>> idle = new ArrayList<>();
+        long now = clock;
+        for (Entry<T> entry : shared) {
+            if (entry.state.get() == NOT_IN_USE && now - entry.lastReturned > idleTimeoutNanos) {
+                idle.add(entry);
+            }
+        }
+        idle.sort((a, b) -> Long.compare(a.lastReturned, b.lastReturned));
+        for (Entry<T> entry : idle) {
+            if (total.get() <= minIdle) {
+                break;
+            }
+            if (entry.state.compareAndSet(NOT_IN_USE, RESERVED)) {
+                remove(entry);
+            }
+        }
+        fillToMinIdle();
+    }
+
+    /*
+     * Threads holding a lease right now, by resource.
+     */
+    public List<String> describeLeases() {
+        List<String> leases = new ArrayList<>();
+        for (Entry<T> entry : shared) {
+            Thread borrower = entry.borrower;
+            if (entry.state.get() == IN_USE && borrower != null) {
+                leases.add(entry.resource + " -> " + borrower.getName());
+            }
+        }
+        return leases;
+    }
+
+    public int getTotalCount() {
+        return shared.size();
+    }
+
+    public int getIdleCount() {
+        int idle = 0;
+        for (Entry<T> entry : shared) {
+            if (entry.state.get() == NOT_IN_USE) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    public int getActiveCount() {
+        int active = 0;
+        for (Entry<T> entry : shared) {
+            if (entry.state.get() == IN_USE) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    public int getWaitingCount() {
+        return waiters.get();
+    }
+
+    public Metrics metrics() {
+        long acquires = retiredLeases.sum();
+        for (Entry<T> entry : shared) {
+            acquires += entry.leases;
+        }
+        return new Metrics(getTotalCount(), getActiveCount(), getIdleCount(), getWaitingCount(), acquires,
+                waited.sum(), timeouts.sum(), shed.sum(), leaks.sum(), waitTime.valueAtPercentile(50),
+                waitTime.valueAtPercentile(99), waitTime.valueAtPercentile(100));
+    }
+
+    /*
+     * Counts since the pool was created. Wait percentiles cover only the acquires that had to
+     * wait (waited of them); the rest found a resource without waiting.
+     */
+    public static class Metrics {
+        private final int total;
+        private final int active;
+        private final int idle;
+        private final int waiting;
+        private final long acquires;
+        private final long waited;
+        private final long timeouts;
+        private final long shed;
+        private final long leaks;
+        private final long waitP50Nanos;
+        private final long waitP99Nanos;
+        private final long waitMaxNanos;
+
+        Metrics(int total, int active, int idle, int waiting, long acquires, long waited, long timeouts, long shed,
+                long leaks, long waitP50Nanos, long waitP99Nanos, long waitMaxNanos) {
+            this.total = total;
+            this.active = active;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.acquires = acquires;
+            this.waited = waited;
+            this.timeouts = timeouts;
+            this.shed = shed;
+            this.leaks = leaks;
+            this.waitP50Nanos = waitP50Nanos;
+            this.waitP99Nanos = waitP99Nanos;
+            this.waitMaxNanos = waitMaxNanos;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getAcquires() {
+            return acquires;
+        }
+
+        public long getWaited() {
+            return waited;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        /*
+         * Share of tryAcquire calls that gave up.
+         */
+        public double getTimeoutRate() {
+            return acquires + timeouts == 0 ? 0 : (double) timeouts / (acquires + timeouts);
+        }
+
+        /*
+         * Calls turned away by the adaptive limiter.
+         */
+        public long getShed() {
+            return shed;
+        }
+
+        public long getLeaks() {
+            return leaks;
+        }
+
+        public long getWaitP50Nanos() {
+            return waitP50Nanos;
+        }
+
+        public long getWaitP99Nanos() {
+            return waitP99Nanos;
+        }
+
+        public long getWaitMaxNanos() {
+            return waitMaxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d resources (%d active, %d idle), %d waiting; %,d acquires, %,d waited "
+                            + "(p50 %,d us, p99 %,d us, max %,d us), %,d timeouts (%.2f%%), %,d shed, %d leaks", total,
+                    active, idle, waiting, acquires, waited, waitP50Nanos / 1_000, waitP99Nanos / 1_000,
+                    waitMaxNanos / 1_000, timeouts, getTimeoutRate() * 100, shed, leaks);
+        }
+    }
+
+    /*
+     * Destroys the idle resources now; leased ones are destroyed as their leases close.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        for (Entry<T> entry : shared) {
+            if (entry.state.compareAndSet(NOT_IN_USE, RESERVED)) {
+                remove(entry);
+            }
+        }
+        // Wake the waiters; each sees closed on its way out
+        try {
+            while (waiters.get() > 0) {
+                handoff.offer(closedSignal, 1, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
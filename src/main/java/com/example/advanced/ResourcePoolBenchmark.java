@@ -0,0 +1,153 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Acquire/release throughput of ResourcePool against the bare Semaphore it replaced. Each thread
+ * acquires, does a little work with what it got (the Semaphore hands out nothing, so its threads
+ * pick a slot from a shared array), releases, and repeats for a fixed time.
+ * - uncontended: one thread, ns per lease (best of 3 runs), for the plain pool and with each
+ *   optional feature turned on, to show what fairness, leak detection and stack sampling add;
+ * - contended: 1 to 256 threads on the same number of resources, leases/sec, followed by the
+ *   pools' own metrics.
+ *
+ * Usage: ResourcePoolBenchmark [resources] [workPerLease] [millisPerRun]
+ */
+public class ResourcePoolBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64, 256};
+
+    private interface Contender {
+        /*
+         * Acquires, works on the resource and releases; returns something derived from it.
+         */
+        long lease(int work) throws InterruptedException;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int resources = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int work = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 500;
+
+        Semaphore semaphore = new Semaphore(resources);
+        long[][] slots = new long[resources][8];
+        Contender bare = w -> {
+            semaphore.acquire();
+            try {
+                long[] slot = slots[ThreadLocalRandom.current().nextInt(slots.length)];
+                return touch(slot, w);
+            } finally {
+                semaphore.release();
+            }
+        };
+        ResourcePool<long[]> unfair = new ResourcePool<>(() -> new long[8], resources, resources);
+        ResourcePool<long[]> fair = new ResourcePool<>(() -> new long[8], resources, resources, true);
+        ResourcePool<long[]> leakDetecting = new ResourcePool<long[]>(() -> new long[8], resources, resources)
+                .detectLeaks(10, TimeUnit.SECONDS, 0);
+        ResourcePool<long[]> sampling = new ResourcePool<long[]>(() -> new long[8], resources, resources)
+                .detectLeaks(10, TimeUnit.SECONDS, 1_000);
+
+        Map<String, Contender> uncontended = new LinkedHashMap<>();
+        uncontended.put("Semaphore", bare);
+        uncontended.put("ResourcePool", leasing(unfair));
+        uncontended.put("fair", leasing(fair));
+        uncontended.put("leak detection", leasing(leakDetecting));
+        uncontended.put("+ stacks 1/1000", leasing(sampling));
+
+        // JIT warm-up
+        for (Contender contender : uncontended.values()) {
+            run(contender, 4, work, millis);
+        }
+
+        System.out.printf("%d resources, %d units of work per lease, %d ms per run%n", resources, work, millis);
+        System.out.printf("%nuncontended, 1 thread%n%-16s %10s%n", "pool", "ns/lease");
+        for (Map.Entry<String, Contender> contender : uncontended.entrySet()) {
+            double best = 0;
+            for (int round = 0; round < 3; round++) {
+                best = Math.max(best, run(contender.getValue(), 1, work, millis));
+            }
+            System.out.printf("%-16s %10.1f%n", contender.getKey(), 1e9 / best);
+        }
+
+        Map<String, Contender> contended = new LinkedHashMap<>();
+        contended.put("Semaphore", bare);
+        contended.put("ResourcePool", uncontended.get("ResourcePool"));
+        contended.put("fair", uncontended.get("fair"));
+        System.out.printf("%ncontended, leases/sec%n%-16s", "pool \\ threads");
+        for (int threads : THREAD_COUNTS) {
+            System.out.printf(" %12d", threads);
+        }
+        System.out.println();
+        for (Map.Entry<String, Contender> contender : contended.entrySet()) {
+            System.out.printf("%-16s", contender.getKey());
+            for (int threads : THREAD_COUNTS) {
+                System.out.printf(" %,12.0f", run(contender.getValue(), threads, work, millis));
+            }
+            System.out.println();
+        }
+        System.out.println();
+        System.out.println("unfair pool: " + unfair.metrics());
+        System.out.println("fair pool:   " + fair.metrics());
+        for (ResourcePool<long[]> pool : List.of(unfair, fair, leakDetecting, sampling)) {
+            pool.close();
+        }
+    }
+
+    private static Contender leasing(ResourcePool<long[]> pool) {
+        return w -> {
+            try (Lease<long[]> lease = pool.acquire()) {
+                return touch(lease.get(), w);
+            }
+        };
+    }
+
+    private static long touch(long[] resource, int work) {
+        long sum = 0;
+        for (int i = 0; i < work; i++) {
+            sum += ++resource[i & 7];
+        }
+        return sum;
+    }
+
+    private static double run(Contender contender, int threads, int work, long millis) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder leases = new LongAdder();
+        long[] deadline = new long[1];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    long done = 0;
+                    long sink = 0;
+                    while (System.nanoTime() < deadline[0]) {
+                        // Check the clock only every 64 leases
+                        for (int i = 0; i < 64; i++) {
+                            sink += contender.lease(work);
+                        }
+                        done += 64;
+                    }
+                    leases.add(done + (sink == 42 ? 1 : 0));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000;
+        // The latch publishes the deadline to the workers
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return leases.sum() * 1e9 / (System.nanoTime() - begin);
+    }
+}
@@ -2,10 +2,15 @@ package com.example.advanced;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SemaphoreMainClass {
     public static void main(String[] args) {
-        ResourcePool resourcePool = new ResourcePool(5);
+        // 5 named resources, created up front
+        AtomicInteger resourceIds = new AtomicInteger();
+        ResourcePool<String> resourcePool = new ResourcePool<>(() -> "resource-" + resourceIds.incrementAndGet(), 5, 5)
+                .detectLeaks(1, TimeUnit.SECONDS, 0);
         List<Thread> workers = new ArrayList<>();
 
         for (int i = 1; i <= 10; i++) {
@@ -21,6 +26,8 @@ public class SemaphoreMainClass {
             e.printStackTrace();
         }
        }
+       System.out.println(resourcePool.metrics());
+       resourcePool.close();
     }
 
 }
@@ -3,11 +3,11 @@ package com.example.advanced;
 import java.util.Random;
 
 public class SemaphoreWorker implements Runnable {
-    private final ResourcePool resourcePool;
+    private final ResourcePool<String> resourcePool;
     private final int workerId;
     private final Random random = new Random();
 
-    public SemaphoreWorker(ResourcePool resourcePool, int workerId) {
+    public SemaphoreWorker(ResourcePool<String> resourcePool, int workerId) {
         this.resourcePool = resourcePool;
         this.workerId = workerId;
     }
@@ -17,18 +17,18 @@ public class SemaphoreWorker implements Runnable {
         // The README requires each worker to acquire/release 3 times.
         for (int i = 0; i < 3; i++) {
             try {
-                // First, acquire a permit. This may block or be interrupted.
-                resourcePool.acquire();
+                // First, acquire a lease. This may block or be interrupted.
+                Lease<String> lease = resourcePool.acquire();
+                String resource = lease.get();
 
-                // If acquire succeeds, enter the try-finally block to guarantee release.
-                try {
-                    System.out.println("Worker " + workerId + " acquired a resource (run " + (i + 1) + "/3)");
+                // try-with-resources guarantees the release.
+                try (lease) {
+                    System.out.println("Worker " + workerId + " acquired " + resource + " (run " + (i + 1) + "/3)");
                     // Simulate doing work with the resource.
                     Thread.sleep(getRandomDurationinMilliseconds());
                 } finally {
-                    // This is guaranteed to be called after the work is done or an exception occurs.
-                    System.out.println("Worker " + workerId + " released a resource (run " + (i + 1) + "/3)");
-                    resourcePool.release();
+                    // Runs once the lease is closed, whether or not the work was interrupted.
+                    System.out.println("Worker " + workerId + " released " + resource + " (run " + (i + 1) + "/3)");
                 }
             } catch (InterruptedException e) {
                 // This catch block handles interruption during acquire() or sleep().
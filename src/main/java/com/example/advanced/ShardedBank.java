@@ -0,0 +1,292 @@
+package com.example.advanced;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Bank partitioned across N shards, each owned by a single writer thread.
+ *
+ * Account id maps to shard id % N and slot id / N in that shard's primitive balance array.
+ * Only the owning thread ever touches a shard's balances, so nothing is locked: callers
+ * send messages to the shard's queue and get a CompletableFuture back.
+ *
+ * Intra-shard transfers are applied directly by the owner. Cross-shard transfers run a
+ * two-phase reserve/commit over the queues:
+ *   1. RESERVE at the source shard debits the account and counts the amount as in flight
+ *   2. CREDIT at the destination shard deposits it (or bounces it if the account is unknown)
+ *   3. CONFIRM (or ABORT, which refunds) back at the source clears the in-flight amount
+ * A transfer travels as one message object that is handed from shard to shard, so there is
+ * one allocation per transfer. Balances plus in-flight amounts always add up to the
+ * conserved total; getTotalBalance() is exact once the bank is quiescent.
+ *
+ * close() stops accepting requests (their futures fail with IllegalStateException) and lets the
+ * shards finish every request already sent, cross-shard legs included, before they stop.
+ */
+public class ShardedBank implements AutoCloseable {
+    private static final int SPINS_BEFORE_PARK = 200;
+
+    private final Shard[] shards;
+    private final int maxAccountId;
+    // Requests sent and not yet answered; close() waits for this to reach zero
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean closed;
+
+    public ShardedBank(int shardCount, int maxAccountId) {
+        this.shards = new Shard[shardCount];
+        this.maxAccountId = maxAccountId;
+        int slotsPerShard = maxAccountId / shardCount + 1;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, slotsPerShard);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    public CompletableFuture<Boolean> addAccount(Account account) {
+        checkAccountId(account.getAccountId());
+        Message message = new Message(Message.OPEN, account.getAccountId(), account.getAccountId(),
+                account.getBalance());
+        submit(shardOf(account.getAccountId()), message);
+        return message.result;
+    }
+
+    public CompletableFuture<Boolean> transfer(int fromId, int toId, int amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("amount must not be negative: " + amount);
+        }
+        checkAccountId(fromId);
+        checkAccountId(toId);
+        Shard source = shardOf(fromId);
+        int type = source == shardOf(toId) ? Message.LOCAL_TRANSFER : Message.RESERVE;
+        Message message = new Message(type, fromId, toId, amount);
+        submit(source, message);
+        return message.result;
+    }
+
+    /*
+     * Sum of every shard's balances plus the amounts in flight between shards. Each shard
+     * answers from its own thread, so the figure is exact once transfers have quiesced.
+     */
+    public long getTotalBalance() {
+        Message[] queries = new Message[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            queries[i] = new Message(Message.TOTAL, 0, 0, 0);
+            submit(shards[i], queries[i]);
+        }
+        long total = 0;
+        for (Message query : queries) {
+            query.result.join();
+            total += query.total;
+        }
+        return total;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /*
+     * Rejects new requests, waits until every accepted one is answered, then stops the shards.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        while (pending.get() > 0) {
+            LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /*
+     * Counts the request before looking at closed, so close() either sees it pending or the
+     * request sees closed and is rejected.
+     */
+    private void submit(Shard shard, Message message) {
+        pending.incrementAndGet();
+        if (closed) {
+            pending.decrementAndGet();
+            message.result.completeExceptionally(new IllegalStateException("ShardedBank is closed"));
+            return;
+        }
+        shard.send(message);
+    }
+
+    // Checked on the caller's side: a bad id must never reach a shard's balance array
+    private void checkAccountId(int accountId) {
+        if (accountId < 0 || accountId > maxAccountId) {
+            throw new IllegalArgumentException("account id must be in [0, " + maxAccountId + "]: " + accountId);
+        }
+    }
+
+    private Shard shardOf(int accountId) {
+        return shards[accountId % shards.length];
+    }
+
+    private int slotOf(int accountId) {
+        return accountId / shards.length;
+    }
+
+    private static class Message {
+        static final int OPEN = 0;
+        static final int LOCAL_TRANSFER = 1;
+        static final int RESERVE = 2;
+        static final int CREDIT = 3;
+        static final int CONFIRM = 4;
+        static final int ABORT = 5;
+        static final int TOTAL = 6;
+
+        int type;
+        final int fromId;
+        final int toId;
+        final int amount;
+        long total;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Message(int type, int fromId, int toId, int amount) {
+            this.type = type;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.amount = amount;
+        }
+    }
+
+    private class Shard implements Runnable {
+        final Thread thread;
+        final ConcurrentLinkedQueue<Message> inbox = new ConcurrentLinkedQueue<>();
+        volatile boolean parked;
+        volatile boolean running = true;
+
+        // Owned by this shard's thread only
+        final long[] balances;
+        final boolean[] open;
+        long inFlight;
+
+        Shard(int index, int slots) {
+            this.balances = new long[slots];
+            this.open = new boolean[slots];
+            this.thread = new Thread(this, "Shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void send(Message message) {
+            inbox.offer(message);
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idleSpins = 0;
+            while (running) {
+                Message message = inbox.poll();
+                if (message != null) {
+                    // A failing message must not stop the shard: every later one would hang
+                    boolean answered;
+                    try {
+                        answered = handle(message);
+                    } catch (RuntimeException e) {
+                        message.result.completeExceptionally(e);
+                        answered = true;
+                    }
+                    if (answered) {
+                        pending.decrementAndGet();
+                    }
+                    idleSpins = 0;
+                } else if (++idleSpins < SPINS_BEFORE_PARK) {
+                    Thread.onSpinWait();
+                } else {
+                    parked = true;
+                    if (inbox.isEmpty() && running) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                }
+            }
+        }
+
+        /*
+         * Returns true if this completed the request, false if it was passed to another shard.
+         */
+        private boolean handle(Message m) {
+            switch (m.type) {
+                case Message.OPEN: {
+                    int slot = slotOf(m.fromId);
+                    open[slot] = true;
+                    balances[slot] = m.amount;
+                    m.result.complete(true);
+                    return true;
+                }
+                case Message.LOCAL_TRANSFER: {
+                    int from = slotOf(m.fromId);
+                    int to = slotOf(m.toId);
+                    boolean ok = open[from] && open[to] && balances[from] >= m.amount;
+                    if (ok) {
+                        balances[from] -= m.amount;
+                        balances[to] += m.amount;
+                    }
+                    m.result.complete(ok);
+                    return true;
+                }
+                case Message.RESERVE: {
+                    int from = slotOf(m.fromId);
+                    if (!open[from] || balances[from] < m.amount) {
+                        m.result.complete(false);
+                        return true;
+                    }
+                    balances[from] -= m.amount;
+                    inFlight += m.amount;
+                    m.type = Message.CREDIT;
+                    shardOf(m.toId).send(m);
+                    return false;
+                }
+                case Message.CREDIT: {
+                    int to = slotOf(m.toId);
+                    if (open[to]) {
+                        balances[to] += m.amount;
+                        m.type = Message.CONFIRM;
+                    } else {
+                        m.type = Message.ABORT;
+                    }
+                    shardOf(m.fromId).send(m);
+                    return false;
+                }
+                case Message.CONFIRM:
+                    inFlight -= m.amount;
+                    m.result.complete(true);
+                    return true;
+                case Message.ABORT:
+                    balances[slotOf(m.fromId)] += m.amount;
+                    inFlight -= m.amount;
+                    m.result.complete(false);
+                    return true;
+                case Message.TOTAL: {
+                    long total = inFlight;
+                    for (long balance : balances) {
+                        total += balance;
+                    }
+                    m.total = total;
+                    m.result.complete(true);
+                    return true;
+                }
+                default:
+                    throw new IllegalStateException("Unknown message type " + m.type);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * runTask1's conservation check scaled up: 1M accounts and millions of random transfers
+ * through ShardedBank at increasing shard counts. Each client keeps a bounded window of
+ * transfers outstanding so the queues stay small.
+ *
+ * Usage: ShardedBankBenchmark [accounts] [transfers] [clients] [maxShards]
+ */
+public class ShardedBankBenchmark {
+    private static final int INITIAL_BALANCE = 1000;
+    private static final int WINDOW = 4096;
+
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int transfers = args.length > 1 ? Integer.parseInt(args[1]) : 4_000_000;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int maxShards = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long expected = (long) accounts * INITIAL_BALANCE;
+
+        System.out.printf("%,d accounts, %,d transfers, %d clients, %d cores%n", accounts, transfers, clients,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %16s %14s%n", "shards", "transfers/sec", "conserved");
+
+        for (int shards = 1; shards <= maxShards; shards *= 2) {
+            try (ShardedBank bank = new ShardedBank(shards, accounts)) {
+                CompletableFuture<?>[] opened = new CompletableFuture<?>[accounts];
+                for (int i = 1; i <= accounts; i++) {
+                    opened[i - 1] = bank.addAccount(new Account(i, INITIAL_BALANCE));
+                }
+                CompletableFuture.allOf(opened).join();
+
+                long start = System.nanoTime();
+                runClients(bank, accounts, transfers, clients);
+                long elapsed = System.nanoTime() - start;
+
+                long total = bank.getTotalBalance();
+                System.out.printf("%-8d %,16.0f %14s%n", shards, transfers * 1_000_000_000.0 / elapsed,
+                        total == expected ? "✓ $" + total : "✗ $" + total);
+            }
+        }
+    }
+
+    private static void runClients(ShardedBank bank, int accounts, int transfers, int clients)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int share = transfers / clients + (c < transfers % clients ? 1 : 0);
+            Thread client = new Thread(() -> {
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                Semaphore window = new Semaphore(WINDOW);
+                try {
+                    for (int i = 0; i < share; i++) {
+                        window.acquire();
+                        int fromId = rand.nextInt(accounts) + 1;
+                        int toId = rand.nextInt(accounts) + 1;
+                        bank.transfer(fromId, toId, rand.nextInt(200) + 1).thenRun(window::release);
+                    }
+                    // Wait for this client's outstanding transfers to settle
+                    window.acquire(WINDOW);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Client-" + c);
+            threads.add(client);
+            client.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.advanced;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Epoch bookkeeping behind Bank.snapshot().
+ *
+ * Writers enter the current epoch while they hold their account locks and exit it before
+ * releasing them. A snapshot bumps the epoch and waits only for the writers still inside
+ * the previous epoch - i.e. the transfers already in flight - to leave. From then on every
+ * writer is in the new epoch and saves an account's pre-image before its first change
+ * (Account.preserveFor), so the snapshot can read the pre-bump state of every account while
+ * transfers keep running.
+ *
+ * Writers never wait for a snapshot; snapshots are serialized among themselves because the
+ * pre-images of the current epoch are only valid until the next bump.
+ */
+class SnapshotEpochs {
+    private static final int STRIPES = 64;
+    // 16 longs = 128 bytes between counters, so stripes never share a cache line
+    private static final int PAD = 16;
+
+    private volatile long epoch;
+    // Writers in flight per epoch parity, striped by thread so entering doesn't contend
+    private final AtomicLongArray active = new AtomicLongArray(2 * STRIPES * PAD);
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    long enter() {
+        int stripe = stripe();
+        while (true) {
+            long e = epoch;
+            int slot = slot(e, stripe);
+            active.incrementAndGet(slot);
+            if (epoch == e) {
+                return e;
+            }
+            // A snapshot bumped the epoch under us; retry in the new one
+            active.decrementAndGet(slot);
+        }
+    }
+
+    void exit(long e) {
+        active.decrementAndGet(slot(e, stripe()));
+    }
+
+    long beginSnapshot() {
+        snapshotLock.lock();
+        long e = epoch + 1;
+        epoch = e;
+        while (inFlight(e - 1) != 0) {
+            Thread.onSpinWait();
+        }
+        return e;
+    }
+
+    void endSnapshot() {
+        snapshotLock.unlock();
+    }
+
+    private long inFlight(long e) {
+        long count = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            count += active.get(slot(e, stripe));
+        }
+        return count;
+    }
+
+    private static int slot(long e, int stripe) {
+        return ((int) (e & 1) * STRIPES + stripe) * PAD;
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.advanced;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/*
+ * Consumer pool without a shared queue head: items go into lanes (mailboxes), lanes are run as
+ * tasks on a work-stealing ForkJoinPool.
+ *
+ * - submit(key, item) hashes the key to a lane. A lane is scheduled at most once at a time, so
+ *   items with the same key are handled one after another in submission order.
+ * - A lane handles up to BATCH items per run and then, if it has more, re-forks itself. Forked
+ *   from a worker, it goes onto that worker's own deque, so a busy worker keeps its lanes local
+ *   while idle workers steal lanes from the other end of its deque.
+ * - There are many more lanes than workers, so load spreads even when a few keys are hot.
+ * Producers contend only on the lane they hit, never on one queue shared by all consumers.
+ *
+ * When to use it: when items with the same key must be handled in order and no two at once
+ * (a shared queue loses that as soon as there are two consumers), or on many cores where the
+ * shared queue's head lock is the bottleneck. Per item it costs a lane lookup and, once per
+ * batch, a fork; on a single CPU StealingPoolBenchmark measured it at 1.7-1.9M items/s against
+ * 2.2-2.5M for a shared LinkedBlockingQueue, so for unordered work on few cores the shared
+ * queue is simpler and faster.
+ */
+public class StealingConsumerPool<T> implements AutoCloseable {
+    private static final int LANES_PER_CONSUMER = 16;
+    private static final int BATCH = 64;
+
+    private final ForkJoinPool pool;
+    private final Lane<T>[] lanes;
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    public StealingConsumerPool(int consumers, Consumer<T> handler) {
+        // asyncMode: each worker runs its own deque FIFO, which suits never-joined event tasks
+        this.pool = new ForkJoinPool(consumers, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        int laneCount = Integer.highestOneBit(consumers * LANES_PER_CONSUMER - 1) << 1;
+        @SuppressWarnings("unchecked")
+        Lane<T>[] lanes = (Lane<T>[]) new Lane<?>[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane<>(pool, handler);
+        }
+        this.lanes = lanes;
+    }
+
+    /*
+     * Items submitted with equal keys are handled in submission order, never concurrently.
+     */
+    public void submit(Object key, T item) {
+        int h = key.hashCode();
+        lanes[(h ^ (h >>> 16)) & (lanes.length - 1)].add(item);
+    }
+
+    /*
+     * Items without a key are spread round-robin and may be handled in any order.
+     */
+    public void submit(T item) {
+        lanes[roundRobin.getAndIncrement() & (lanes.length - 1)].add(item);
+    }
+
+    /*
+     * Waits until every submitted item has been handled. Producers must have stopped.
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) {
+        return pool.awaitQuiescence(timeout, unit);
+    }
+
+    public int getConsumerCount() {
+        return pool.getParallelism();
+    }
+
+    public long getStealCount() {
+        return pool.getStealCount();
+    }
+
+    /*
+     * Drains everything already submitted, then stops the workers.
+     */
+    @Override
+    public void close() {
+        pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Lane<T> implements Runnable {
+        private final ForkJoinPool pool;
+        private final Consumer<T> handler;
+        private final ConcurrentLinkedQueue<T> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Lane(ForkJoinPool pool, Consumer<T> handler) {
+            this.pool = pool;
+            this.handler = handler;
+        }
+
+        void add(T item) {
+            mailbox.add(item);
+            if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            T item;
+            for (int handled = 0; handled < BATCH && (item = mailbox.poll()) != null; handled++) {
+                try {
+                    handler.accept(item);
+                } catch (RuntimeException e) {
+                    // One bad item must not stall the rest of its lane
+                    e.printStackTrace();
+                }
+            }
+            if (!mailbox.isEmpty()) {
+                // Still owned by us; back onto this worker's deque, behind the lanes already there
+                pool.execute(this);
+                return;
+            }
+            scheduled.set(false);
+            // An add() that saw us still scheduled relies on this re-check
+            if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+    }
+}
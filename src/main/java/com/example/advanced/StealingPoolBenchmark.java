@@ -0,0 +1,185 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * Keyed items from 3 producers handled by N consumers, N = 2, 8 and 32:
+ * - shared queue: AdvancedConsumer's design, N threads taking from one LinkedBlockingQueue;
+ * - stealing pool: StealingConsumerPool with N workers.
+ * Each item carries its key's sequence number; the handler counts items seen out of key order.
+ * Reports items/sec, ordering violations and, for the pool, steals.
+ *
+ * Usage: StealingPoolBenchmark [items] [keys] [workNanos]
+ */
+public class StealingPoolBenchmark {
+    private static final int PRODUCERS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 3_000_000;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        long workNanos = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+        System.out.printf("%d producers, %,d items over %,d keys, ~%d ns of work per item%n", PRODUCERS, items, keys,
+                workNanos);
+        System.out.printf("%-15s %9s %14s %14s %10s%n", "design", "consumers", "items/sec", "out of order",
+                "steals");
+        for (int round = 0; round < 2; round++) {
+            // The first round is JIT warm-up
+            for (int consumers : new int[]{2, 8, 32}) {
+                Result shared = sharedQueue(items, keys, workNanos, consumers);
+                Result stealing = stealingPool(items, keys, workNanos, consumers);
+                if (round == 1) {
+                    System.out.printf("%-15s %9d %,14.0f %,14d %10s%n", "shared queue", consumers,
+                            shared.itemsPerSecond, shared.outOfOrder, "-");
+                    System.out.printf("%-15s %9d %,14.0f %,14d %,10d%n", "stealing pool", consumers,
+                            stealing.itemsPerSecond, stealing.outOfOrder, stealing.steals);
+                }
+            }
+        }
+    }
+
+    private static Result sharedQueue(int items, int keys, long workNanos, int consumers)
+            throws InterruptedException {
+        BlockingQueue<Item> queue = new LinkedBlockingQueue<>(1024);
+        Item done = new Item(-1, -1);
+        Checker checker = new Checker(keys, workNanos);
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (Item item; (item = queue.take()) != done; ) {
+                        checker.handle(item);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        long elapsed = produce(items, keys, item -> {
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> {
+            for (int c = 0; c < consumers; c++) {
+                queue.put(done);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        });
+        return checker.result(items, elapsed, 0);
+    }
+
+    private static Result stealingPool(int items, int keys, long workNanos, int consumers)
+            throws InterruptedException {
+        Checker checker = new Checker(keys, workNanos);
+        StealingConsumerPool<Item> pool = new StealingConsumerPool<>(consumers, checker::handle);
+        long elapsed = produce(items, keys, item -> pool.submit(item.key, item), pool::close);
+        return checker.result(items, elapsed, pool.getStealCount());
+    }
+
+    /*
+     * Producer p cycles through keys p, p + 3, p + 6, ... so each key comes from a single
+     * producer and its sequence numbers are submitted in order. Returns nanos until finish
+     * completes.
+     */
+    private static long produce(int items, int keys, Consumer<Item> sink, Finish finish)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            producers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                int keysPerProducer = keys / PRODUCERS;
+                for (int j = 0; j < items / PRODUCERS; j++) {
+                    int key = producer + PRODUCERS * (j % keysPerProducer);
+                    sink.accept(new Item(key, j / keysPerProducer));
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        finish.run();
+        return System.nanoTime() - begin;
+    }
+
+    private interface Finish {
+        void run() throws InterruptedException;
+    }
+
+    private static class Item {
+        final int key;
+        final long sequence;
+
+        Item(int key, long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Checker {
+        private final AtomicLongArray lastSeen;
+        private final long workNanos;
+        private final LongAdder handled = new LongAdder();
+        private final LongAdder outOfOrder = new LongAdder();
+
+        Checker(int keys, long workNanos) {
+            this.lastSeen = new AtomicLongArray(keys);
+            for (int i = 0; i < keys; i++) {
+                lastSeen.set(i, -1);
+            }
+            this.workNanos = workNanos;
+        }
+
+        void handle(Item item) {
+            long previous = lastSeen.getAndSet(item.key, item.sequence);
+            if (previous > item.sequence) {
+                outOfOrder.increment();
+            }
+            long until = System.nanoTime() + workNanos;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            handled.increment();
+        }
+
+        Result result(int items, long elapsedNanos, long steals) {
+            Result result = new Result();
+            long expected = items / PRODUCERS * PRODUCERS;
+            if (handled.sum() != expected) {
+                System.out.printf("    lost items: handled %d of %d%n", handled.sum(), expected);
+            }
+            result.itemsPerSecond = items * 1e9 / elapsedNanos;
+            result.outOfOrder = outOfOrder.sum();
+            result.steals = steals;
+            return result;
+        }
+    }
+
+    private static class Result {
+        double itemsPerSecond;
+        long outOfOrder;
+        long steals;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Starts named tasks under an ExecutionMode and waits for them, in place of the
+ * new Thread(...) / start() / join() loops:
+ *
+ *     try (TaskRunner runner = mode.newRunner(10)) {
+ *         runner.start("Worker-" + i, worker);
+ *         runner.joinAll();
+ *     }
+ *
+ * In pooled and virtual modes the task runs under its name (the thread is renamed for the
+ * duration), and a failure is printed by joinAll() as an uncaught exception would be.
+ * start() and joinAll() are meant for the one thread that owns the runner.
+ *
+ * With -DexecutionMode.detectPinning=true (or detectPinning()) a PinningMonitor watches the
+ * tasks and close() prints what it found.
+ */
+public class TaskRunner implements AutoCloseable {
+    private final ExecutionMode mode;
+    private final ExecutorService executor;
+    private final List<Thread> threads = new ArrayList<>();
+    private final List<Future<?>> futures = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    // Platform threads running the tasks, for the pinning monitor to sample
+    private final List<Thread> carriers = new CopyOnWriteArrayList<>();
+    private PinningMonitor pinning;
+
+    TaskRunner(ExecutionMode mode, int parties) {
+        this(mode, parties, Boolean.getBoolean("executionMode.detectPinning"));
+    }
+
+    /*
+     * For measurements the pinning sampler would skew: detectPinning false ignores the property.
+     */
+    TaskRunner(ExecutionMode mode, int parties, boolean detectPinning) {
+        this.mode = mode;
+        switch (mode) {
+            case PLATFORM:
+                executor = null;
+                break;
+            case FIXED_POOL:
+                executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parties,
+                        ExecutionMode.FIXED_POOL_THREADS)), r -> {
+                    Thread t = new Thread(r, "TaskRunner-pool");
+                    carriers.add(t);
+                    return t;
+                });
+                break;
+            case VIRTUAL:
+                executor = VirtualThreads.newPerTaskExecutor();
+                break;
+            default:
+                throw new IllegalStateException("Unknown mode " + mode);
+        }
+        if (detectPinning) {
+            detectPinning();
+        }
+    }
+
+    public TaskRunner detectPinning() {
+        if (pinning == null) {
+            pinning = new PinningMonitor(mode, carriers);
+        }
+        return this;
+    }
+
+    public void start(String name, Runnable task) {
+        if (executor == null) {
+            Thread thread = new Thread(task, name);
+            threads.add(thread);
+            carriers.add(thread);
+            thread.start();
+            return;
+        }
+        names.add(name);
+        futures.add(executor.submit(() -> {
+            Thread current = Thread.currentThread();
+            String previous = current.getName();
+            current.setName(name);
+            try {
+                task.run();
+            } finally {
+                current.setName(previous);
+            }
+        }));
+    }
+
+    /*
+     * Waits for every task started so far.
+     */
+    public void joinAll() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                System.out.println("Exception in task \"" + names.get(i) + "\" " + e.getCause());
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /*
+     * What the pinning monitor has seen so far, most frequent first; empty when not detecting.
+     */
+    public List<String> getPinningReport() {
+        return pinning == null ? List.of() : pinning.report();
+    }
+
+    /*
+     * Lets queued and running tasks finish but accepts no more, and prints the pinning report.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (pinning != null) {
+            pinning.close();
+            List<String> report = pinning.report();
+            if (report.isEmpty()) {
+                System.out.println("TaskRunner (" + mode + "): no pinning hazards seen");
+            } else {
+                System.out.println("TaskRunner (" + mode + "): pinning hazards, would stall a virtual thread's carrier:");
+                report.forEach(line -> System.out.println("  " + line));
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.advanced;
+
+/*
+ * One entry of a Bank.transferBatch call.
+ */
+public final class Transfer {
+    private final int fromId;
+    private final int toId;
+    private final int amount;
+
+    public Transfer(int fromId, int toId, int amount) {
+        this.fromId = fromId;
+        this.toId = toId;
+        this.amount = amount;
+    }
+
+    public int getFromId() {
+        return fromId;
+    }
+
+    public int getToId() {
+        return toId;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return "Transfer[" + fromId + " → " + toId + ": $" + amount + "]";
+    }
+}
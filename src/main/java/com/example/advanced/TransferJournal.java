@@ -0,0 +1,488 @@
+package com.example.advanced;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+/*
+ * Append-only write-ahead journal of successful Bank transfers.
+ *
+ * Records are fixed-width (32 bytes, so none straddles a page) and live in memory-mapped
+ * segment files. An appender reserves a sequence number with one atomic increment, writes its
+ * record and a CRC32C of it straight into the mapping and publishes it by writing the record
+ * marker last, so appending never takes a lock. The marker only orders the writes in memory: a
+ * record that was never forced can reach the disk torn, so replay also checks the CRC and
+ * stops at the first record that fails it.
+ * A committer thread forces the contiguous run of published records to disk - one force for
+ * however many transfers arrived since the last one (group commit) - and wakes the appenders
+ * waiting on that run. Bank appends while holding the account locks but waits for durability
+ * only after releasing them.
+ *
+ * If a segment cannot be created or forced, the journal fails: the transfers waiting on a commit
+ * and every append from then on throw IllegalStateException, instead of waiting forever for a
+ * commit that will not come. Such a transfer has been applied in memory but is not durable.
+ *
+ * Every record carries the snapshot epoch it was applied in. A checkpoint is a Bank snapshot
+ * taken at epoch E; replay loads it and re-applies only the records with epoch >= E, after
+ * which the segments holding nothing but older records are deleted. Each open() starts a new
+ * generation, so files left behind by an earlier process can never be replayed twice. Only the
+ * journal's own checkpoint-* and segment-* files are touched.
+ *
+ * Usage:
+ *   TransferJournal journal = TransferJournal.open(dir, bank, 64);    // bank already has accounts
+ *   Bank restored = TransferJournal.recover(dir, true);               // after a restart
+ */
+public class TransferJournal implements AutoCloseable {
+    static final int RECORD_SIZE = 32;
+    // epoch (8), fromId (4), toId (4), amount (4), then the CRC of those 20 bytes; 24-27 unused
+    private static final int CHECKED_BYTES = 20;
+    private static final int CRC_OFFSET = 20;
+    private static final int MARKER_OFFSET = 28;
+    private static final int MARKER = 0x4A524E4C;
+    private static final int CHECKPOINT_MAGIC = 0x43484B50;
+    private static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 16;
+    private static final long MAX_COMMIT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long ARRIVAL_CHECK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final VarHandle INT_VIEW =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+
+    private final Path directory;
+    private final Bank bank;
+    private final long generation;
+    private final int recordsPerSegment;
+    private final int groupCommitSize;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile long durableSequence;
+    private final Map<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final AtomicReference<CompletableFuture<Void>> nextCommit =
+            new AtomicReference<>(new CompletableFuture<>());
+    private final Thread committer;
+    private volatile boolean closed;
+    // Set once the committer has made its last commit
+    private volatile boolean stopped;
+    // Set at most once, before stopped, when a segment could not be created or forced
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private ScheduledExecutorService checkpointScheduler;
+
+    private TransferJournal(Path directory, Bank bank, long generation, int recordsPerSegment,
+                            int groupCommitSize) {
+        this.directory = directory;
+        this.bank = bank;
+        this.generation = generation;
+        this.recordsPerSegment = recordsPerSegment;
+        this.groupCommitSize = groupCommitSize;
+        this.committer = new Thread(this::commitLoop, "TransferJournal-committer");
+        this.committer.setDaemon(true);
+    }
+
+    /*
+     * Starts a new journal generation for the bank: writes a base checkpoint of its current
+     * balances, removes files of earlier generations and attaches the journal to the bank.
+     */
+    public static TransferJournal open(Path directory, Bank bank, int groupCommitSize) throws IOException {
+        return open(directory, bank, groupCommitSize, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    public static TransferJournal open(Path directory, Bank bank, int groupCommitSize, int recordsPerSegment)
+            throws IOException {
+        Files.createDirectories(directory);
+        long generation = latestGeneration(directory) + 1;
+        TransferJournal journal = new TransferJournal(directory, bank, generation, recordsPerSegment,
+                groupCommitSize);
+        journal.writeCheckpoint(bank.snapshot());
+        List<Path> old = list(directory, "checkpoint-*");
+        old.addAll(list(directory, "segment-*.log"));
+        for (Path file : old) {
+            if (!file.getFileName().toString().equals(checkpointName(generation))) {
+                Files.delete(file);
+            }
+        }
+        journal.committer.start();
+        bank.attachJournal(journal);
+        return journal;
+    }
+
+    /*
+     * Rebuilds a bank from the latest checkpoint plus every journal record written after it.
+     */
+    public static Bank recover(Path directory, boolean logTransfers) throws IOException {
+        Bank bank = new Bank(logTransfers);
+        long generation = latestGeneration(directory);
+        if (generation < 0) {
+            return bank;
+        }
+
+        long checkpointEpoch;
+        Map<Integer, Account> accounts = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(directory.resolve(checkpointName(generation)))) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != CHECKPOINT_MAGIC || buf.getLong() != generation) {
+                throw new IOException("Corrupt checkpoint in " + directory);
+            }
+            checkpointEpoch = buf.getLong();
+            int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                Account account = new Account(buf.getInt(), (int) buf.getLong());
+                accounts.put(account.getAccountId(), account);
+                bank.addAccount(account);
+            }
+        }
+
+        List<Path> segmentFiles = list(directory, "segment-" + generation + "-*.log");
+        segmentFiles.sort((a, b) -> Long.compare(segmentIndex(a), segmentIndex(b)));
+        CRC32C crc = new CRC32C();
+        replay:
+        for (Path file : segmentFiles) {
+            try (FileChannel channel = FileChannel.open(file)) {
+                ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                        .order(ByteOrder.nativeOrder());
+                for (int offset = 0; offset + RECORD_SIZE <= buf.capacity(); offset += RECORD_SIZE) {
+                    if (buf.getInt(offset + MARKER_OFFSET) != MARKER) {
+                        // First unpublished record: everything after it was never acknowledged
+                        break replay;
+                    }
+                    if (checksum(crc, buf, offset) != buf.getInt(offset + CRC_OFFSET)) {
+                        // Torn on the way to disk, so never forced and never acknowledged
+                        break replay;
+                    }
+                    if (buf.getLong(offset) < checkpointEpoch) {
+                        continue;
+                    }
+                    Account from = accounts.get(buf.getInt(offset + 8));
+                    Account to = accounts.get(buf.getInt(offset + 12));
+                    int amount = buf.getInt(offset + 16);
+                    if (from == null || to == null || !from.tryWithdraw(amount)) {
+                        throw new IOException("Journal record at " + file + ":" + offset + " does not apply");
+                    }
+                    to.deposit(amount);
+                }
+            }
+        }
+        return bank;
+    }
+
+    /*
+     * Reserves the next record and publishes it. Returns its sequence number for awaitDurable.
+     */
+    long append(long epoch, int fromId, int toId, int amount) {
+        checkUsable(-1);
+        long sequence = nextSequence.getAndIncrement();
+        MappedByteBuffer buf;
+        try {
+            buf = segment(sequence / recordsPerSegment).buffer;
+        } catch (RuntimeException e) {
+            // The sequence is taken but will never be published, so nothing past it can commit
+            fail(e);
+            throw e;
+        }
+        int offset = (int) (sequence % recordsPerSegment) * RECORD_SIZE;
+        buf.putLong(offset, epoch);
+        buf.putInt(offset + 8, fromId);
+        buf.putInt(offset + 12, toId);
+        buf.putInt(offset + 16, amount);
+        buf.putInt(offset + CRC_OFFSET, checksum(CRC.get(), buf, offset));
+        INT_VIEW.setRelease(buf, offset + MARKER_OFFSET, MARKER);
+
+        if (sequence + 1 - durableSequence >= groupCommitSize) {
+            LockSupport.unpark(committer);
+        }
+        return sequence;
+    }
+
+    private static int checksum(CRC32C crc, ByteBuffer buf, int offset) {
+        crc.reset();
+        crc.update(buf.slice(offset, CHECKED_BYTES));
+        return (int) crc.getValue();
+    }
+
+    void awaitDurable(long sequence) {
+        while (durableSequence <= sequence) {
+            CompletableFuture<Void> commit = nextCommit.get();
+            if (durableSequence > sequence) {
+                return;
+            }
+            checkUsable(sequence);
+            try {
+                commit.join();
+            } catch (CompletionException e) {
+                // Only fail() completes a commit exceptionally, and it sets failure first
+                checkUsable(sequence);
+                throw e;
+            }
+        }
+    }
+
+    private void checkUsable(long sequence) {
+        Throwable failed = failure.get();
+        if (failed != null) {
+            throw new IllegalStateException(sequence < 0 ? "Journal has failed"
+                    : "Journal failed before sequence " + sequence + " was committed", failed);
+        }
+        if (stopped) {
+            throw new IllegalStateException(sequence < 0 ? "Journal is closed"
+                    : "Journal closed before sequence " + sequence + " was committed");
+        }
+    }
+
+    /*
+     * Stops the journal for good: wakes every waiter with the failure, present and future.
+     */
+    private void fail(Throwable e) {
+        if (failure.compareAndSet(null, e)) {
+            System.out.println("Journal failed: " + e);
+        }
+        stopped = true;
+        nextCommit.get().completeExceptionally(failure.get());
+        LockSupport.unpark(committer);
+    }
+
+    /*
+     * Writes a compacted checkpoint of the bank and deletes the segments it makes redundant.
+     */
+    public void checkpoint(Bank bank) throws IOException {
+        // Records of epochs before the snapshot's all get sequences below the value read
+        // here or are still in flight, and the snapshot waits for those to finish
+        long floor = nextSequence.get();
+        writeCheckpoint(bank.snapshot());
+        long firstLiveSegment = Math.min(floor, durableSequence) / recordsPerSegment;
+        for (Path file : list(directory, "segment-" + generation + "-*.log")) {
+            if (segmentIndex(file) < firstLiveSegment) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    public synchronized void scheduleCheckpoints(Bank bank, long period, TimeUnit unit) {
+        if (checkpointScheduler == null) {
+            checkpointScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "TransferJournal-checkpoint");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        checkpointScheduler.scheduleAtFixedRate(() -> {
+            try {
+                checkpoint(bank);
+            } catch (IOException e) {
+                System.out.println("Checkpoint failed: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /*
+     * Detaches the journal from the bank, commits what was appended and stops. Transfers from
+     * here on are not journaled; the ones already journaled return once they are durable.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (checkpointScheduler != null) {
+                checkpointScheduler.shutdownNow();
+            }
+        }
+        // Also waits out transfers that picked the journal up before, so nothing appends after this
+        bank.attachJournal(null);
+        closed = true;
+        LockSupport.unpark(committer);
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        stopped = true;
+        // Wake anyone who took the future the committer created in its last round
+        nextCommit.get().complete(null);
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private void commitLoop() {
+        while (true) {
+            awaitGroup();
+            boolean stopping = closed;
+
+            CompletableFuture<Void> commit = nextCommit.getAndSet(new CompletableFuture<>());
+            Throwable failed = failure.get();
+            if (failed != null) {
+                // An appender failed; the future just installed must not be left pending
+                commit.completeExceptionally(failed);
+                nextCommit.get().completeExceptionally(failed);
+                return;
+            }
+            try {
+                commitPublished();
+            } catch (RuntimeException | Error e) {
+                fail(e);
+                commit.completeExceptionally(e);
+                return;
+            }
+            commit.complete(null);
+            if (stopping) {
+                return;
+            }
+        }
+    }
+
+    private void commitPublished() {
+        long from = durableSequence;
+        long end = publishedEnd(from);
+        if (end > from) {
+            for (long index = from / recordsPerSegment; index <= (end - 1) / recordsPerSegment; index++) {
+                Segment segment = segments.get(index);
+                long first = Math.max(from, index * recordsPerSegment) - index * recordsPerSegment;
+                long last = Math.min(end, (index + 1) * recordsPerSegment) - index * recordsPerSegment;
+                segment.buffer.force((int) first * RECORD_SIZE, (int) (last - first) * RECORD_SIZE);
+                if (last == recordsPerSegment) {
+                    segments.remove(index).close();
+                }
+            }
+            durableSequence = end;
+        }
+    }
+
+    /*
+     * Waits until a full group is pending, or appends stop arriving while some are pending
+     * (every appender may already be waiting on this commit), or the maximum delay passes.
+     */
+    private void awaitGroup() {
+        long waited = 0;
+        long seen = nextSequence.get();
+        while (!closed && failure.get() == null && seen - durableSequence < groupCommitSize && waited < MAX_COMMIT_DELAY_NANOS) {
+            LockSupport.parkNanos(this, ARRIVAL_CHECK_NANOS);
+            waited += ARRIVAL_CHECK_NANOS;
+            long now = nextSequence.get();
+            if (now == seen && now > durableSequence) {
+                return;
+            }
+            seen = now;
+        }
+    }
+
+    // First sequence at or after 'from' whose record has not been published yet
+    private long publishedEnd(long from) {
+        long limit = nextSequence.get();
+        long sequence = from;
+        while (sequence < limit) {
+            Segment segment = segments.get(sequence / recordsPerSegment);
+            int offset = (int) (sequence % recordsPerSegment) * RECORD_SIZE;
+            if (segment == null || (int) INT_VIEW.getAcquire(segment.buffer, offset + MARKER_OFFSET) != MARKER) {
+                break;
+            }
+            sequence++;
+        }
+        return sequence;
+    }
+
+    private Segment segment(long index) {
+        return segments.computeIfAbsent(index, i -> {
+            try {
+                return new Segment(directory.resolve("segment-" + generation + "-" + i + ".log"),
+                        (long) recordsPerSegment * RECORD_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void writeCheckpoint(BankSnapshot snapshot) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(24 + snapshot.size() * 12);
+        buf.putInt(CHECKPOINT_MAGIC).putLong(generation).putLong(snapshot.getEpoch()).putInt(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            buf.putInt(snapshot.getAccountId(i)).putLong(snapshot.getBalance(i));
+        }
+        buf.flip();
+
+        Path tmp = directory.resolve(checkpointName(generation) + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(checkpointName(generation)), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String checkpointName(long generation) {
+        return "checkpoint-" + generation + ".bin";
+    }
+
+    private static long latestGeneration(Path directory) throws IOException {
+        long latest = -1;
+        if (Files.isDirectory(directory)) {
+            for (Path file : list(directory, "checkpoint-*.bin")) {
+                String name = file.getFileName().toString();
+                latest = Math.max(latest, Long.parseLong(name.substring(11, name.length() - 4)));
+            }
+        }
+        return latest;
+    }
+
+    private static long segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('-') + 1, name.length() - 4));
+    }
+
+    private static List<Path> list(Path directory, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static class Segment {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        Segment(Path file, long size) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.buffer.order(ByteOrder.nativeOrder());
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Closing journal segment failed: " + e.getMessage());
+            }
+        }
+    }
+}
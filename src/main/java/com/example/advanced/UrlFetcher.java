@@ -1,20 +1,33 @@
 package com.example.advanced;
 
-import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class UrlFetcher implements Callable<String> {
     private final String url;
-    static final Random random = new Random();
+    private final boolean verbose;
 
     public UrlFetcher(String url) {
+        this(url, true);
+    }
+
+    public UrlFetcher(String url, boolean verbose) {
         this.url = url;
+        this.verbose = verbose;
+    }
+
+    public String getUrl() {
+        return url;
     }
 
     @Override
     public String call() throws Exception {
         //simulate url fetch laod
-        System.out.println("Current Thread: "+ Thread.currentThread().getName());
+        if (verbose) {
+            System.out.println("Current Thread: "+ Thread.currentThread().getName());
+        }
+        // ThreadLocalRandom so thousands of concurrent fetches don't contend on one seed
+        ThreadLocalRandom random = ThreadLocalRandom.current();
        int randomSeconds = random.nextInt(1000);
        Thread.sleep(randomSeconds);
        int randomBytes = random.nextInt(20009);
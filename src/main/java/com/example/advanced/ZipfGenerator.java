@@ -0,0 +1,30 @@
+package com.example.advanced;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Draws item ranks 0..n-1 with Zipf-distributed popularity (rank k has weight 1/(k+1)^s),
+ * for cache benchmarks. Sampling is a binary search over a precomputed CDF.
+ */
+public class ZipfGenerator {
+    private final double[] cdf;
+
+    public ZipfGenerator(int items, double skew) {
+        this.cdf = new double[items];
+        double sum = 0;
+        for (int k = 0; k < items; k++) {
+            sum += 1.0 / Math.pow(k + 1, skew);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < items; k++) {
+            cdf[k] /= sum;
+        }
+    }
+
+    public int next() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        int index = Arrays.binarySearch(cdf, u);
+        return Math.min(index >= 0 ? index : -index - 1, cdf.length - 1);
+    }
+}
@@ -1,24 +1,38 @@
 package com.example.basic;
 
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 
+/*
+ * Bounded buffer shared by Producer and Consumer, backed by an MPMC IntRingBuffer: ints are
+ * stored unboxed, and a blocked put or get is woken individually by the get or put that made
+ * it possible rather than through notifyAll on the buffer monitor. The capacity is rounded up
+ * to a power of two.
+ */
 public class Buffer {
-    private final Queue<Integer> data;
+    private final IntRingBuffer data;
 
     public Buffer(int size){
-        this.data = new LinkedBlockingDeque<>(size);
+        this.data = IntRingBuffer.mpmc(size);
     }
 
-    public synchronized void put(int value){
-        data.add(Integer.valueOf(value));
+    public void put(int value) throws InterruptedException {
+        data.put(value);
     }
-    public synchronized int get(){
-        return data.poll();
+    public int get() throws InterruptedException {
+        return data.take();
     }
 
-    public boolean isFull() { return data.size() >= 3; }
+    // Batch versions: one wakeup and one publication per batch instead of per item
+    public void putAll(int[] values, int count) throws InterruptedException {
+        data.putAll(values, 0, count);
+    }
+    public int getBatch(int[] target, int max, long maxDelayMillis) throws InterruptedException {
+        return data.takeBatch(target, max, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isFull() { return data.isFull(); }
     public boolean isEmpty() { return data.isEmpty();}
+    public int capacity() { return data.capacity(); }
 
     static class BufferIsFullException extends Exception{
         public BufferIsFullException(String message){
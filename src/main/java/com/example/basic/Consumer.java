@@ -1,33 +1,59 @@
 package com.example.basic;
 
+import java.util.Arrays;
+
 public class Consumer implements Runnable {
 
     private final Buffer buffer;
     private int consumerCounter;
     private final int name;
+    private final int batchSize;
+    private final long maxDelayMillis;
 
     public Consumer(Buffer buffer, int i, int j) {
+        this(buffer, i, j, 1, 0);
+    }
+
+    /*
+     * With a batchSize above 1, each wakeup takes up to batchSize items, waiting at most
+     * maxDelayMillis after the first one for the batch to fill.
+     */
+    public Consumer(Buffer buffer, int i, int j, int batchSize, long maxDelayMillis) {
         this.buffer = buffer;
         this.name = i;
         this.consumerCounter = j;
+        this.batchSize = batchSize;
+        this.maxDelayMillis = maxDelayMillis;
     }
 
     @Override
     public void run() {
+        if (batchSize > 1) {
+            runBatched();
+            return;
+        }
         for (int i = 0; i < consumerCounter; i++) {
-            synchronized (buffer) {
-                while (buffer.isEmpty()) {
-                    try {
-                        buffer.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                if (!buffer.isEmpty()) {
-                    int value = buffer.get();
-                    buffer.notifyAll();
-                    System.out.println("Consumer " + name + " consumed: " + value);
-                }
+            try {
+                // Blocks while the buffer is empty
+                int value = buffer.get();
+                System.out.println("Consumer " + name + " consumed: " + value);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runBatched() {
+        int[] batch = new int[batchSize];
+        for (int consumed = 0; consumed < consumerCounter; ) {
+            try {
+                int count = buffer.getBatch(batch, Math.min(batchSize, consumerCounter - consumed), maxDelayMillis);
+                consumed += count;
+                System.out.println("Consumer " + name + " consumed: " + Arrays.toString(Arrays.copyOf(batch, count)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
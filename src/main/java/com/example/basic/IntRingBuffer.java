@@ -0,0 +1,496 @@
+package com.example.basic;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Bounded queue of primitive ints on a preallocated power-of-two ring, so nothing is boxed
+ * and nothing is allocated per item.
+ *
+ * Three variants, picked by how many threads produce and consume:
+ * - spsc: one producer and one consumer. Each side owns its sequence and keeps a cached copy
+ *   of the other side's, so the fast path has no atomic read-modify-write at all.
+ * - mpsc: producers claim slots with a CAS on the tail and publish each slot through its own
+ *   sequence number; the single consumer advances the head without a CAS.
+ * - mpmc: both sides claim with a CAS (Vyukov's bounded queue).
+ * Head and tail live on their own cache lines so producers and consumers don't false-share.
+ *
+ * offer/poll never block. put/take park the calling thread and are woken one at a time by
+ * the operation that made room or added an item, instead of every waiter waking on
+ * notifyAll. A woken thread that finds more room or items than it needs passes the signal on.
+ */
+public abstract class IntRingBuffer {
+    // Returned by tryPoll() for an empty ring; never a valid int
+    static final long EMPTY = Long.MIN_VALUE;
+
+    final int capacity;
+    final int mask;
+    final int[] slots;
+    private final ConcurrentLinkedQueue<Waiter> notFull = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Waiter> notEmpty = new ConcurrentLinkedQueue<>();
+
+    IntRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 1 || requestedCapacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + requestedCapacity);
+        }
+        this.capacity = 1 << -Integer.numberOfLeadingZeros(requestedCapacity - 1);
+        this.mask = capacity - 1;
+        this.slots = new int[capacity];
+    }
+
+    public static IntRingBuffer spsc(int capacity) {
+        return new Spsc(capacity);
+    }
+
+    public static IntRingBuffer mpsc(int capacity) {
+        return new Mpsc(capacity);
+    }
+
+    public static IntRingBuffer mpmc(int capacity) {
+        return new Mpmc(capacity);
+    }
+
+    /*
+     * Adds the value if there is room, returning false when the ring is full.
+     */
+    public boolean offer(int value) {
+        if (!tryOffer(value)) {
+            return false;
+        }
+        signal(notEmpty);
+        return true;
+    }
+
+    /*
+     * Removes the oldest value, or returns ifEmpty when there is none.
+     */
+    public int poll(int ifEmpty) {
+        long value = tryPoll();
+        if (value == EMPTY) {
+            return ifEmpty;
+        }
+        signal(notFull);
+        return (int) value;
+    }
+
+    public void put(int value) throws InterruptedException {
+        if (tryOffer(value)) {
+            signal(notEmpty);
+            return;
+        }
+        Waiter waiter = new Waiter();
+        try {
+            do {
+                await(notFull, waiter, 0);
+            } while (!tryOffer(value));
+        } finally {
+            leave(notFull, waiter);
+        }
+        signal(notEmpty);
+        if (!isFull()) {
+            signal(notFull);
+        }
+    }
+
+    public int take() throws InterruptedException {
+        long value = tryPoll();
+        if (value != EMPTY) {
+            signal(notFull);
+            return (int) value;
+        }
+        Waiter waiter = new Waiter();
+        try {
+            do {
+                await(notEmpty, waiter, 0);
+            } while ((value = tryPoll()) == EMPTY);
+        } finally {
+            leave(notEmpty, waiter);
+        }
+        signal(notFull);
+        if (!isEmpty()) {
+            signal(notEmpty);
+        }
+        return (int) value;
+    }
+
+    /*
+     * Adds as many of the values as fit without blocking and returns how many that was.
+     * Waiting consumers are signalled once for the whole batch.
+     */
+    public int offerAll(int[] values, int offset, int length) {
+        int added = tryOfferAll(values, offset, length);
+        if (added > 0) {
+            signal(notEmpty);
+        }
+        return added;
+    }
+
+    /*
+     * Adds all the values, blocking whenever the ring is full. Each chunk that fits is
+     * published with one sequence update and one signal.
+     */
+    public void putAll(int[] values, int offset, int length) throws InterruptedException {
+        int end = offset + length;
+        offset += offerAll(values, offset, length);
+        if (offset == end) {
+            return;
+        }
+        Waiter waiter = new Waiter();
+        try {
+            while (offset < end) {
+                await(notFull, waiter, 0);
+                int added = tryOfferAll(values, offset, end - offset);
+                if (added > 0) {
+                    offset += added;
+                    signal(notEmpty);
+                }
+            }
+        } finally {
+            leave(notFull, waiter);
+        }
+        if (!isFull()) {
+            signal(notFull);
+        }
+    }
+
+    /*
+     * Moves up to max values into target starting at offset, without blocking, and returns
+     * how many were moved.
+     */
+    public int drainTo(int[] target, int offset, int max) {
+        int drained = tryDrain(target, offset, max);
+        if (drained > 0) {
+            signal(notFull);
+        }
+        return drained;
+    }
+
+    /*
+     * Blocks for the first value, then keeps filling target (from index 0) up to max values.
+     * Once the first value is in hand it waits at most maxDelay for the rest, so batching adds
+     * at most maxDelay to any value's latency. A maxDelay of 0 takes only what is already there.
+     */
+    public int takeBatch(int[] target, int max, long maxDelay, TimeUnit unit) throws InterruptedException {
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be at least 1: " + max);
+        }
+        target[0] = take();
+        int count = 1 + drainTo(target, 1, max - 1);
+        if (count == max || maxDelay <= 0) {
+            return count;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(maxDelay);
+        Waiter waiter = new Waiter();
+        try {
+            while (count < max) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !await(notEmpty, waiter, remaining)) {
+                    break;
+                }
+                count += drainTo(target, count, max - count);
+            }
+        } finally {
+            leave(notEmpty, waiter);
+        }
+        if (!isEmpty()) {
+            signal(notEmpty);
+        }
+        return count;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() >= capacity;
+    }
+
+    /*
+     * Approximate while other threads are offering or polling.
+     */
+    public abstract int size();
+
+    abstract boolean tryOffer(int value);
+
+    abstract long tryPoll();
+
+    int tryOfferAll(int[] values, int offset, int length) {
+        int added = 0;
+        while (added < length && tryOffer(values[offset + added])) {
+            added++;
+        }
+        return added;
+    }
+
+    int tryDrain(int[] target, int offset, int max) {
+        int drained = 0;
+        long value;
+        while (drained < max && (value = tryPoll()) != EMPTY) {
+            target[offset + drained++] = (int) value;
+        }
+        return drained;
+    }
+
+    /*
+     * Enqueues the waiter and parks until a signal dequeues it, or for at most timeoutNanos
+     * when that is positive; returns false on timeout. The caller re-checks the ring after
+     * every return, so a signal that raced with the enqueue is never lost.
+     */
+    private boolean await(ConcurrentLinkedQueue<Waiter> waiters, Waiter waiter, long timeoutNanos)
+            throws InterruptedException {
+        waiter.signalled = false;
+        waiters.add(waiter);
+        if (tryReady(waiters)) {
+            // Never leave a stale entry behind: a later signal could be spent on it
+            waiters.remove(waiter);
+            return true;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!waiter.signalled) {
+            if (timeoutNanos > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    // A signal that lands after this is passed on by leave()
+                    return !waiters.remove(waiter);
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+
+    private boolean tryReady(ConcurrentLinkedQueue<Waiter> waiters) {
+        return waiters == notFull ? !isFull() : !isEmpty();
+    }
+
+    /*
+     * A waiter that gives up, or succeeds, after being signalled passes the signal on so the
+     * next waiter isn't stranded.
+     */
+    private static void leave(ConcurrentLinkedQueue<Waiter> waiters, Waiter waiter) {
+        if (!waiters.remove(waiter) && waiter.signalled) {
+            signal(waiters);
+        }
+    }
+
+    private static void signal(ConcurrentLinkedQueue<Waiter> waiters) {
+        // Orders our sequence update before the waiter check; a waiter enqueues itself
+        // before re-checking the ring, so one of the two always sees the other
+        VarHandle.fullFence();
+        if (waiters.isEmpty()) {
+            return;
+        }
+        // Dequeuing means each waiter is unparked once, however many signals arrive before it runs
+        Waiter waiter = waiters.poll();
+        if (waiter != null) {
+            waiter.signalled = true;
+            LockSupport.unpark(waiter.thread);
+        }
+    }
+
+    private static final class Waiter {
+        final Thread thread = Thread.currentThread();
+        volatile boolean signalled;
+    }
+
+    private static final class Spsc extends IntRingBuffer {
+        private final Sequence head = new Sequence();
+        private final Sequence tail = new Sequence();
+        // Producer-owned copy of head and consumer-owned copy of tail
+        private final Sequence headCache = new Sequence();
+        private final Sequence tailCache = new Sequence();
+
+        Spsc(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        boolean tryOffer(int value) {
+            long t = tail.getPlain();
+            if (t - headCache.getPlain() >= capacity) {
+                headCache.setPlain(head.getAcquire());
+                if (t - headCache.getPlain() >= capacity) {
+                    return false;
+                }
+            }
+            slots[(int) t & mask] = value;
+            tail.setRelease(t + 1);
+            return true;
+        }
+
+        @Override
+        long tryPoll() {
+            long h = head.getPlain();
+            if (h >= tailCache.getPlain()) {
+                tailCache.setPlain(tail.getAcquire());
+                if (h >= tailCache.getPlain()) {
+                    return EMPTY;
+                }
+            }
+            int value = slots[(int) h & mask];
+            head.setRelease(h + 1);
+            return value;
+        }
+
+        @Override
+        int tryOfferAll(int[] values, int offset, int length) {
+            long t = tail.getPlain();
+            if (capacity - (t - headCache.getPlain()) < length) {
+                headCache.setPlain(head.getAcquire());
+            }
+            int n = (int) Math.min(length, capacity - (t - headCache.getPlain()));
+            for (int i = 0; i < n; i++) {
+                slots[(int) (t + i) & mask] = values[offset + i];
+            }
+            if (n > 0) {
+                // One release publishes the whole batch
+                tail.setRelease(t + n);
+            }
+            return n;
+        }
+
+        @Override
+        int tryDrain(int[] target, int offset, int max) {
+            long h = head.getPlain();
+            if (tailCache.getPlain() - h < max) {
+                tailCache.setPlain(tail.getAcquire());
+            }
+            int n = (int) Math.min(max, tailCache.getPlain() - h);
+            for (int i = 0; i < n; i++) {
+                target[offset + i] = slots[(int) (h + i) & mask];
+            }
+            if (n > 0) {
+                head.setRelease(h + n);
+            }
+            return n;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.max(0, Math.min(capacity, tail.getAcquire() - head.getAcquire()));
+        }
+    }
+
+    /*
+     * Each slot carries a sequence: equal to the position when the slot is free for the producer
+     * of that position, position + 1 once it holds that position's value.
+     */
+    private abstract static class Sequenced extends IntRingBuffer {
+        final Sequence head = new Sequence();
+        final Sequence tail = new Sequence();
+        final AtomicLongArray published;
+
+        Sequenced(int capacity) {
+            super(capacity);
+            published = new AtomicLongArray(this.capacity);
+            for (int i = 0; i < this.capacity; i++) {
+                published.setPlain(i, i);
+            }
+        }
+
+        @Override
+        boolean tryOffer(int value) {
+            long t = tail.getAcquire();
+            while (true) {
+                int index = (int) t & mask;
+                long seq = published.getAcquire(index);
+                if (seq == t) {
+                    if (tail.compareAndSet(t, t + 1)) {
+                        slots[index] = value;
+                        published.setRelease(index, t + 1);
+                        return true;
+                    }
+                    t = tail.getAcquire();
+                } else if (seq < t) {
+                    // The consumer of the previous lap hasn't freed this slot yet
+                    return false;
+                } else {
+                    t = tail.getAcquire();
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.max(0, Math.min(capacity, tail.getAcquire() - head.getAcquire()));
+        }
+    }
+
+    private static final class Mpsc extends Sequenced {
+        Mpsc(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        long tryPoll() {
+            long h = head.getPlain();
+            int index = (int) h & mask;
+            if (published.getAcquire(index) != h + 1) {
+                return EMPTY;
+            }
+            int value = slots[index];
+            published.setRelease(index, h + capacity);
+            head.setRelease(h + 1);
+            return value;
+        }
+
+        @Override
+        int tryDrain(int[] target, int offset, int max) {
+            long h = head.getPlain();
+            int n = 0;
+            while (n < max) {
+                int index = (int) (h + n) & mask;
+                if (published.getAcquire(index) != h + n + 1) {
+                    break;
+                }
+                target[offset + n] = slots[index];
+                published.setRelease(index, h + n + capacity);
+                n++;
+            }
+            if (n > 0) {
+                head.setRelease(h + n);
+            }
+            return n;
+        }
+    }
+
+    private static final class Mpmc extends Sequenced {
+        Mpmc(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        long tryPoll() {
+            long h = head.getAcquire();
+            while (true) {
+                int index = (int) h & mask;
+                long seq = published.getAcquire(index);
+                if (seq == h + 1) {
+                    if (head.compareAndSet(h, h + 1)) {
+                        int value = slots[index];
+                        published.setRelease(index, h + capacity);
+                        return value;
+                    }
+                    h = head.getAcquire();
+                } else if (seq < h + 1) {
+                    return EMPTY;
+                } else {
+                    h = head.getAcquire();
+                }
+            }
+        }
+    }
+}
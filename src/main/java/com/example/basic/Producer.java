@@ -4,29 +4,53 @@ public class Producer implements Runnable {
     private Buffer buffer;
     private int max;
     private int threadName;
+    private final int batchSize;
 
     public Producer(Buffer buffer, int i, int max) {
+        this(buffer, i, max, 1);
+    }
+
+    /*
+     * With a batchSize above 1, items are published batchSize at a time with Buffer.putAll.
+     */
+    public Producer(Buffer buffer, int i, int max, int batchSize) {
         this.buffer = buffer;
         this.threadName = i;
         this.max = max;
+        this.batchSize = batchSize;
     }
 
     @Override
     public void run() {
+        if (batchSize > 1) {
+            runBatched();
+            return;
+        }
         for (int i = 1; i <= max; i++) {
-            synchronized (buffer) {
-                while (buffer.isFull()) {
-                    try {
-                        buffer.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                if(!buffer.isFull()) {
-                    System.out.println("Producer " + threadName + " producing: " + i);
-                    buffer.put(i);
-                    buffer.notifyAll();
-                }
+            try {
+                System.out.println("Producer " + threadName + " producing: " + i);
+                // Blocks while the buffer is full
+                buffer.put(i);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runBatched() {
+        int[] batch = new int[batchSize];
+        for (int first = 1; first <= max; first += batchSize) {
+            int count = Math.min(batchSize, max - first + 1);
+            for (int j = 0; j < count; j++) {
+                batch[j] = first + j;
+            }
+            try {
+                System.out.println("Producer " + threadName + " producing: " + first + ".." + (first + count - 1));
+                buffer.putAll(batch, count);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
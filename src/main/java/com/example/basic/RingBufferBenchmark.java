@@ -0,0 +1,166 @@
+package com.example.basic;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Producer-consumer throughput and allocation per item: the original monitor-based Buffer
+ * (LinkedBlockingDeque<Integer> with synchronized wait/notifyAll, reproduced below) against the
+ * SPSC, MPSC and MPMC IntRingBuffers using blocking put/take. Allocation is measured per thread
+ * through com.sun.management.ThreadMXBean.
+ *
+ * Usage: RingBufferBenchmark [itemsPerProducer] [capacity]
+ */
+public class RingBufferBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws InterruptedException {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+        System.out.printf("%,d items per producer, capacity %d%n", items, capacity);
+        System.out.printf("%-16s %6s %14s %14s%n", "buffer", "P x C", "items/sec", "bytes/item");
+        for (int round = 0; round < 2; round++) {
+            // The first round is JIT warm-up
+            boolean report = round == 1;
+            run("monitor Buffer", new MonitorBuffer(capacity), 1, 1, items, report);
+            run("spsc ring", ring(IntRingBuffer.spsc(capacity)), 1, 1, items, report);
+            run("mpsc ring", ring(IntRingBuffer.mpsc(capacity)), 1, 1, items, report);
+            run("mpmc ring", ring(IntRingBuffer.mpmc(capacity)), 1, 1, items, report);
+            run("monitor Buffer", new MonitorBuffer(capacity), 4, 1, items / 4, report);
+            run("mpsc ring", ring(IntRingBuffer.mpsc(capacity)), 4, 1, items / 4, report);
+            run("mpmc ring", ring(IntRingBuffer.mpmc(capacity)), 4, 1, items / 4, report);
+            run("monitor Buffer", new MonitorBuffer(capacity), 4, 4, items / 4, report);
+            run("mpmc ring", ring(IntRingBuffer.mpmc(capacity)), 4, 4, items / 4, report);
+        }
+    }
+
+    private static void run(String label, IntChannel channel, int producers, int consumers, int itemsPerProducer,
+                            boolean report) throws InterruptedException {
+        long total = (long) producers * itemsPerProducer;
+        if (total % consumers != 0) {
+            throw new IllegalArgumentException("items must divide evenly among consumers");
+        }
+        long perConsumer = total / consumers;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong allocated = new AtomicLong();
+        AtomicLong checksum = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; p++) {
+            threads.add(new Thread(() -> {
+                long before = THREADS.getCurrentThreadAllocatedBytes();
+                await(start);
+                try {
+                    for (int i = 1; i <= itemsPerProducer; i++) {
+                        channel.put(i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                allocated.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - before);
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                long before = THREADS.getCurrentThreadAllocatedBytes();
+                await(start);
+                long sum = 0;
+                try {
+                    for (long i = 0; i < perConsumer; i++) {
+                        sum += channel.take();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                checksum.addAndGet(sum);
+                allocated.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - before);
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long expected = (long) producers * itemsPerProducer * (itemsPerProducer + 1) / 2;
+        if (checksum.get() != expected) {
+            System.out.printf("    %s lost or duplicated items: checksum %d, expected %d%n", label,
+                    checksum.get(), expected);
+        }
+        if (report) {
+            System.out.printf("%-16s %6s %,14.0f %14.2f%n", label, producers + " x " + consumers,
+                    total * 1e9 / elapsed, (double) allocated.get() / total);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static IntChannel ring(IntRingBuffer ring) {
+        return new IntChannel() {
+            @Override
+            public void put(int value) throws InterruptedException {
+                ring.put(value);
+            }
+
+            @Override
+            public int take() throws InterruptedException {
+                return ring.take();
+            }
+        };
+    }
+
+    private interface IntChannel {
+        void put(int value) throws InterruptedException;
+
+        int take() throws InterruptedException;
+    }
+
+    /*
+     * Buffer, Producer and Consumer as they were before IntRingBuffer: a boxed deque guarded by
+     * the buffer monitor, with every put and get waking all waiters.
+     */
+    private static class MonitorBuffer implements IntChannel {
+        private final Queue<Integer> data;
+        private final int capacity;
+
+        MonitorBuffer(int capacity) {
+            this.data = new LinkedBlockingDeque<>(capacity);
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized void put(int value) throws InterruptedException {
+            while (data.size() >= capacity) {
+                wait();
+            }
+            data.add(Integer.valueOf(value));
+            notifyAll();
+        }
+
+        @Override
+        public synchronized int take() throws InterruptedException {
+            while (data.isEmpty()) {
+                wait();
+            }
+            int value = data.poll();
+            notifyAll();
+            return value;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.basic;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/*
+ * A long padded out to its own cache line, for the head/tail and cursor counters of
+ * IntRingBuffer and EventRing. The padding lives in superclasses because the JVM lays out
+ * superclass fields first and is free to reorder fields within one class.
+ */
+@SuppressWarnings("unused")
+public final class Sequence extends SequenceValue {
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    long p11, p12, p13, p14, p15, p16, p17;
+
+    public Sequence() {
+    }
+
+    public Sequence(long initial) {
+        value = initial;
+    }
+
+    public long getPlain() {
+        return (long) VALUE.get(this);
+    }
+
+    public void setPlain(long newValue) {
+        VALUE.set(this, newValue);
+    }
+
+    public long getVolatile() {
+        return value;
+    }
+
+    public long getAcquire() {
+        return (long) VALUE.getAcquire(this);
+    }
+
+    public void setRelease(long newValue) {
+        VALUE.setRelease(this, newValue);
+    }
+
+    public boolean compareAndSet(long expected, long newValue) {
+        return VALUE.compareAndSet(this, expected, newValue);
+    }
+}
+
+@SuppressWarnings("unused")
+class SequenceLeftPadding {
+    long p01, p02, p03, p04, p05, p06, p07;
+}
+
+class SequenceValue extends SequenceLeftPadding {
+    volatile long value;
+}